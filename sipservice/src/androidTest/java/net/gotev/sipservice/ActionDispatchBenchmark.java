@@ -0,0 +1,79 @@
+package net.gotev.sipservice;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the dispatching of the received events with the lookup table of
+ * {@link BroadcastEventEmitter#getBroadcastAction(String)} and with the chain of action
+ * comparisons it replaced, for the first and the last event. Run it on a device with
+ * ./gradlew :sipservice:connectedAndroidTest and read the results from the logcat
+ * (tag ActionDispatchBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActionDispatchBenchmark {
+
+    private static final String TAG = ActionDispatchBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP = 1000;
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void lookupVersusChainedDispatch() {
+        BroadcastEventEmitter.BroadcastAction[] values = BroadcastEventEmitter.BroadcastAction.values();
+        String[] actions = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            actions[i] = BroadcastEventEmitter.getAction(values[i]);
+        }
+
+        // the actions of the received intents are unmarshalled, so they are not the same instances
+        Intent[] received = {
+                new Intent(new String(actions[0])),
+                new Intent(new String(actions[actions.length - 1]))
+        };
+        int[] expected = {0, values.length - 1};
+        String[] names = {"first", "last"};
+
+        for (int i = 0; i < WARM_UP; i++) {
+            BroadcastEventEmitter.getBroadcastAction(received[1].getAction());
+            chainedLookup(actions, received[1].getAction());
+        }
+
+        for (int j = 0; j < received.length; j++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITERATIONS; i++) {
+                assertEquals(values[expected[j]], BroadcastEventEmitter.getBroadcastAction(received[j].getAction()));
+            }
+            report("lookup table, " + names[j] + " event", SystemClock.elapsedRealtimeNanos() - start);
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITERATIONS; i++) {
+                assertEquals(expected[j], chainedLookup(actions, received[j].getAction()));
+            }
+            report("comparison chain, " + names[j] + " event", SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    /**
+     * Baseline: the dispatching done before the lookup table, comparing the action
+     * of the intent with the action of each event in order.
+     */
+    private static int chainedLookup(String[] actions, String action) {
+        for (int i = 0; i < actions.length; i++) {
+            if (action.equals(actions[i])) return i;
+        }
+        return -1;
+    }
+
+    private static void report(String name, long totalNanos) {
+        Log.i(TAG, name + ": " + (totalNanos / ITERATIONS) + " ns, mean of " + ITERATIONS + " events");
+    }
+}
@@ -0,0 +1,138 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ServiceTestRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.pjsip.pjsua2.pjsip_inv_state;
+import org.pjsip.pjsua2.pjsip_status_code;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the latency of the commands sent through the {@link SipServiceBinder} and through
+ * the startService intents of {@link SipServiceCommand}, from the call of the command to the
+ * call state event emitted by its handler. Run it on a device with
+ * ./gradlew :sipservice:connectedAndroidTest and read the results from the logcat
+ * (tag CommandDispatchBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class CommandDispatchBenchmark {
+
+    private static final String TAG = CommandDispatchBenchmark.class.getSimpleName();
+
+    private static final String ACCOUNT_ID = "sip:benchmark@127.0.0.1";
+    private static final int WARM_UP = 50;
+    private static final int ITERATIONS = 500;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Rule
+    public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    private volatile CountDownLatch mHandled;
+    private volatile int mExpectedCallID;
+
+    /**
+     * The get call status of a call which doesn't exist is answered by its handler with
+     * a disconnected call state, delivered here directly on the worker thread.
+     */
+    private final SipEventListener mListener = new SipEventListener() {
+        @Override
+        public void onCallState(String accountID, int callID, pjsip_inv_state callStateCode,
+                                pjsip_status_code callStatusCode, long connectTimestamp,
+                                boolean isLocalHold, boolean isLocalMute, boolean isLocalVideoMute) {
+            CountDownLatch handled = mHandled;
+            if (ACCOUNT_ID.equals(accountID) && callID == mExpectedCallID && handled != null) {
+                handled.countDown();
+            }
+        }
+    };
+
+    private interface Command {
+        void send(int callID);
+    }
+
+    @Before
+    public void setUp() {
+        SipEventBus.register(mListener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SipEventBus.unregister(mListener);
+    }
+
+    @Test
+    public void binderVersusIntentCommands() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final SipServiceBinder binder =
+                (SipServiceBinder) mServiceRule.bindService(new Intent(context, SipService.class));
+
+        Command binderCommand = new Command() {
+            @Override
+            public void send(int callID) {
+                binder.getCallStatus(ACCOUNT_ID, callID);
+            }
+        };
+
+        Command intentCommand = new Command() {
+            @Override
+            public void send(int callID) {
+                SipServiceCommand.getCallStatus(context, ACCOUNT_ID, callID);
+            }
+        };
+
+        // the first commands wait for the service to load the native libraries
+        measure(binderCommand, WARM_UP);
+        measure(intentCommand, WARM_UP);
+
+        report("command via binder", measure(binderCommand, ITERATIONS));
+        report("command via intent", measure(intentCommand, ITERATIONS));
+    }
+
+    /**
+     * Sends the commands one at a time, each one after the previous one has been handled.
+     * @return total nanoseconds from the commands to their events
+     */
+    private long measure(Command command, int iterations) throws InterruptedException {
+        long total = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            // a different call each time, so the commands and the events are never coalesced
+            mExpectedCallID = 1000 + i;
+            CountDownLatch handled = new CountDownLatch(1);
+            mHandled = handled;
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            command.send(mExpectedCallID);
+            assertTrue("command not handled", handled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        return total / iterations;
+    }
+
+    private static void report(String name, long meanNanos) {
+        Log.i(TAG, name + ": " + (meanNanos / 1000) + " us from the command to its event, mean of "
+                + ITERATIONS + " commands");
+    }
+}
@@ -0,0 +1,84 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the latency of the incoming call broadcast, with the cache of the explicit
+ * broadcast receivers cold (resolved by the package manager at every call) and warm.
+ * Run it on a device with ./gradlew :sipservice:connectedAndroidTest and read the results
+ * from the logcat (tag ReceiversCacheBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReceiversCacheBenchmark {
+
+    private static final String TAG = ReceiversCacheBenchmark.class.getSimpleName();
+
+    private static final String ACCOUNT_ID = "sip:benchmark@127.0.0.1";
+    private static final String REMOTE_URI = "sip:caller@127.0.0.1";
+    private static final int CALL_ID = 1;
+    private static final int WARM_UP = 100;
+    private static final int ITERATIONS = 1000;
+
+    private BroadcastEventEmitter mEmitter;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mEmitter = new BroadcastEventEmitter(context);
+    }
+
+    @After
+    public void tearDown() {
+        mEmitter.destroy();
+    }
+
+    @Test
+    public void coldVersusWarmIncomingCallBroadcast() {
+        for (int i = 0; i < WARM_UP; i++) {
+            mEmitter.invalidateReceiversCache();
+            incomingCall();
+        }
+
+        long cold = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            mEmitter.invalidateReceiversCache();
+            long start = SystemClock.elapsedRealtimeNanos();
+            incomingCall();
+            cold += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        mEmitter.warmUpReceiversCache();
+        for (int i = 0; i < WARM_UP; i++) {
+            incomingCall();
+        }
+
+        long warm = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            incomingCall();
+            warm += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        report("incoming call broadcast, cold receivers cache", cold);
+        report("incoming call broadcast, warm receivers cache", warm);
+    }
+
+    private void incomingCall() {
+        mEmitter.incomingCall(ACCOUNT_ID, CALL_ID, "Benchmark", REMOTE_URI, false);
+    }
+
+    private static void report(String name, long totalNanos) {
+        Log.i(TAG, name + ": " + (totalNanos / ITERATIONS / 1000) + " us, mean of "
+                + ITERATIONS + " broadcasts");
+    }
+}
@@ -5,8 +5,16 @@ import android.content.Intent;
 import android.os.*;
 import android.os.Process;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Service with a background worker thread.
+ * Jobs are executed one at a time on the worker thread, picking them from
+ * priority lanes (see {@link JobPriority}) instead of in plain FIFO order.
  * @author gotev (Aleksandar Gotev)
  */
 class BackgroundService extends Service {
@@ -15,6 +23,33 @@ class BackgroundService extends Service {
     private Handler mHandler;
     private PowerManager.WakeLock mWakeLock;
 
+    private final Object mJobsLock = new Object();
+    private final List<ArrayDeque<Job>> mLanes = new ArrayList<>();
+    private final ArrayDeque<Job> mBarriers = new ArrayDeque<>();
+    private final int[] mMaxQueueDepth = new int[JobPriority.values().length];
+    private final long[] mExecutedJobs = new long[JobPriority.values().length];
+    private final ConcurrentHashMap<Runnable, Runnable> mDelayedJobs = new ConcurrentHashMap<>();
+    private long mJobSequence;
+
+    /**
+     * Posted once for every enqueued job. Each execution runs the most urgent pending job.
+     */
+    private final Runnable mJobDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            Job job = nextJob();
+            if (job != null) {
+                job.runnable.run();
+            }
+        }
+    };
+
+    BackgroundService() {
+        for (int i = 0; i < JobPriority.values().length; i++) {
+            mLanes.add(new ArrayDeque<Job>());
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -42,15 +77,197 @@ class BackgroundService extends Service {
         mWakeLock.release();
     }
 
+    /**
+     * Enqueues a job in the {@link JobPriority#CONFIGURATION} lane.
+     * @param job job to execute
+     */
     protected void enqueueJob(Runnable job) {
-        mHandler.post(job);
+        enqueueJob(job, JobPriority.CONFIGURATION);
+    }
+
+    /**
+     * Enqueues a job in the given priority lane.
+     * @param job job to execute
+     * @param priority lane in which to enqueue the job
+     */
+    protected void enqueueJob(Runnable job, JobPriority priority) {
+        enqueue(job, priority, false);
+    }
+
+    /**
+     * Enqueues a job which can't be overtaken by the jobs enqueued after it, regardless of their
+     * priority. Use it for jobs which change the state the following jobs depend on,
+     * like the stack initialization or the accounts configuration.
+     * @param job job to execute
+     * @param priority lane in which to enqueue the job
+     */
+    protected void enqueueBarrierJob(Runnable job, JobPriority priority) {
+        enqueue(job, priority, true);
     }
 
+    /**
+     * Enqueues a job in the {@link JobPriority#CONFIGURATION} lane after a delay.
+     * @param job job to execute
+     * @param delayMillis delay in milliseconds
+     */
     protected void enqueueDelayedJob(Runnable job, long delayMillis) {
-        mHandler.postDelayed(job, delayMillis);
+        enqueueDelayedJob(job, delayMillis, JobPriority.CONFIGURATION);
     }
 
+    /**
+     * Enqueues a job in the given priority lane after a delay.
+     * @param job job to execute
+     * @param delayMillis delay in milliseconds
+     * @param priority lane in which to enqueue the job once the delay has elapsed
+     */
+    protected void enqueueDelayedJob(final Runnable job, long delayMillis, final JobPriority priority) {
+        Runnable delayed = new Runnable() {
+            @Override
+            public void run() {
+                if (mDelayedJobs.remove(job, this)) {
+                    enqueue(job, priority, false);
+                }
+            }
+        };
+
+        Runnable previous = mDelayedJobs.put(job, delayed);
+        if (previous != null) {
+            mHandler.removeCallbacks(previous);
+        }
+        mHandler.postDelayed(delayed, delayMillis);
+    }
+
+    /**
+     * Removes a job which has not been executed yet, either delayed or already enqueued.
+     * @param job job to remove
+     */
     protected void dequeueJob(Runnable job) {
-        mHandler.removeCallbacks(job);
+        Runnable delayed = mDelayedJobs.remove(job);
+        if (delayed != null) {
+            mHandler.removeCallbacks(delayed);
+        }
+
+        synchronized (mJobsLock) {
+            for (ArrayDeque<Job> lane : mLanes) {
+                Iterator<Job> iterator = lane.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().runnable == job) {
+                        iterator.remove();
+                    }
+                }
+            }
+
+            Iterator<Job> iterator = mBarriers.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().runnable == job) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of jobs waiting in a lane.
+     * @param priority lane
+     * @return number of pending jobs
+     */
+    int getQueueDepth(JobPriority priority) {
+        synchronized (mJobsLock) {
+            return mLanes.get(priority.ordinal()).size();
+        }
+    }
+
+    /**
+     * Gets the highest number of jobs which have been waiting at the same time in a lane.
+     * @param priority lane
+     * @return maximum queue depth
+     */
+    int getMaxQueueDepth(JobPriority priority) {
+        synchronized (mJobsLock) {
+            return mMaxQueueDepth[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Gets the number of jobs executed from a lane.
+     * @param priority lane
+     * @return number of executed jobs
+     */
+    long getExecutedJobs(JobPriority priority) {
+        synchronized (mJobsLock) {
+            return mExecutedJobs[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Gets a consistent snapshot of the counters of all the lanes.
+     * @return lane counters, from the most to the least urgent lane
+     */
+    ArrayList<JobLaneStats> getJobLaneStats() {
+        ArrayList<JobLaneStats> stats = new ArrayList<>(mLanes.size());
+
+        synchronized (mJobsLock) {
+            for (JobPriority priority : JobPriority.values()) {
+                stats.add(new JobLaneStats(priority, mLanes.get(priority.ordinal()).size(),
+                                           mMaxQueueDepth[priority.ordinal()],
+                                           mExecutedJobs[priority.ordinal()]));
+            }
+        }
+
+        return stats;
+    }
+
+    private void enqueue(Runnable runnable, JobPriority priority, boolean barrier) {
+        Job job = new Job(runnable, priority);
+
+        synchronized (mJobsLock) {
+            job.sequence = mJobSequence++;
+            ArrayDeque<Job> lane = mLanes.get(priority.ordinal());
+            lane.addLast(job);
+            if (lane.size() > mMaxQueueDepth[priority.ordinal()]) {
+                mMaxQueueDepth[priority.ordinal()] = lane.size();
+            }
+            if (barrier) {
+                mBarriers.addLast(job);
+            }
+        }
+
+        mHandler.post(mJobDispatcher);
+    }
+
+    /**
+     * Picks the head of the most urgent non empty lane, skipping the jobs which have been
+     * enqueued after a pending barrier job.
+     */
+    private Job nextJob() {
+        synchronized (mJobsLock) {
+            Job barrier = mBarriers.peekFirst();
+
+            for (ArrayDeque<Job> lane : mLanes) {
+                Job head = lane.peekFirst();
+
+                if (head != null && (barrier == null || head.sequence <= barrier.sequence)) {
+                    lane.removeFirst();
+                    if (head == barrier) {
+                        mBarriers.removeFirst();
+                    }
+                    mExecutedJobs[head.priority.ordinal()]++;
+                    return head;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static final class Job {
+        final Runnable runnable;
+        final JobPriority priority;
+        long sequence;
+
+        Job(Runnable runnable, JobPriority priority) {
+            this.runnable = runnable;
+            this.priority = priority;
+        }
     }
 }
@@ -1,16 +1,26 @@
 package net.gotev.sipservice;
 
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
+import org.pjsip.pjsua2.pjsip_inv_state;
+import org.pjsip.pjsua2.pjsip_status_code;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Emits the sip service broadcast intents.
+ * Emits the sip service events, to the in-process {@link SipEventListener}s registered in
+ * {@link SipEventBus} and as broadcast intents.
  * @author gotev (Aleksandar Gotev)
  */
 public class BroadcastEventEmitter implements SipServiceConstants {
@@ -19,6 +29,21 @@ public class BroadcastEventEmitter implements SipServiceConstants {
 
     private Context mContext;
 
+    /**
+     * Receivers of the explicit broadcasts, resolved once per action and invalidated
+     * when a package is installed, removed or updated.
+     */
+    private final ConcurrentHashMap<String, List<ComponentName>> mReceiversCache = new ConcurrentHashMap<>();
+    private final AtomicInteger mReceiversCacheGeneration = new AtomicInteger();
+    private BroadcastReceiver mPackageChangesReceiver;
+    private SharedCallState mSharedCallState;
+
+    private static volatile long coalescingWindowMillis = 0;
+    private static volatile boolean callStateDeltaEncoding = false;
+    private final EventCoalescer mEventCoalescer = new EventCoalescer();
+    private final HashMap<Integer, Integer> mLastCallStateCodes = new HashMap<>();
+    private final HashMap<Integer, SipServiceState.CallSnapshot> mLastBroadcastCallStates = new HashMap<>();
+
     /**
      * Enumeration of the broadcast actions
      */
@@ -32,15 +57,148 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         CODEC_PRIORITIES_SET_STATUS,
         MISSED_CALL,
         VIDEO_SIZE,
-        CALL_STATS
+        CALL_STATS,
+        BATCH_RESULT,
+        COMMAND_LATENCIES,
+        CALL_STATS_SAMPLE,
+        CALL_STATS_SERIES,
+        CALL_QUALITY,
+        REGISTRATION_STATS,
+        QUALITY_HISTOGRAMS,
+        STARTUP_REPORT,
+        WARM_UP_COMPLETED,
+        SIP_STACK_RESTARTED
     }
 
     public BroadcastEventEmitter(Context context) {
         mContext = context;
+        registerPackageChangesReceiver();
+    }
+
+    /**
+     * Sets the region in which to publish the state of the calls.
+     * @param sharedCallState shared call state region
+     */
+    synchronized void setSharedCallState(SharedCallState sharedCallState) {
+        mSharedCallState = sharedCallState;
+    }
+
+    /**
+     * Releases the resources held by the emitter. Call it when the emitter is no longer used.
+     */
+    void destroy() {
+        if (mPackageChangesReceiver != null) {
+            try {
+                mContext.unregisterReceiver(mPackageChangesReceiver);
+            } catch (Exception exc) {
+                Logger.error(BroadcastEventEmitter.class.getSimpleName(),
+                             "Error while unregistering package changes receiver", exc);
+            }
+            mPackageChangesReceiver = null;
+        }
+        mReceiversCache.clear();
+    }
+
+    /**
+     * Discards the resolved receivers of the explicit broadcasts, which will be resolved
+     * again by the next broadcast.
+     */
+    void invalidateReceiversCache() {
+        mReceiversCacheGeneration.incrementAndGet();
+        mReceiversCache.clear();
+    }
+
+    /**
+     * Resolves in advance the receivers of the explicit broadcasts, so the first incoming call
+     * doesn't have to wait for the package manager.
+     */
+    void warmUpReceiversCache() {
+        getReceivers(getAction(BroadcastAction.INCOMING_CALL));
+        getReceivers(getAction(BroadcastAction.OUTGOING_CALL));
+        getReceivers(getAction(BroadcastAction.MISSED_CALL));
     }
 
     public static String getAction(BroadcastAction action) {
-        return NAMESPACE + "." + action;
+        return getActionNames().actions[action.ordinal()];
+    }
+
+    /**
+     * Gets the broadcast action corresponding to an intent action.
+     * @param action intent action
+     * @return broadcast action, or null if the intent action is not a sip service event
+     */
+    public static BroadcastAction getBroadcastAction(String action) {
+        if (action == null) return null;
+        return getActionNames().lookup.get(action);
+    }
+
+    /**
+     * Intent actions precomputed for the current {@link #NAMESPACE}, and rebuilt if it changes.
+     */
+    private static final class ActionNames {
+        final String namespace;
+        final String[] actions;
+        final HashMap<String, BroadcastAction> lookup;
+
+        ActionNames(String namespace) {
+            this.namespace = namespace;
+            BroadcastAction[] values = BroadcastAction.values();
+            this.actions = new String[values.length];
+            this.lookup = new HashMap<>(values.length * 2);
+            for (BroadcastAction value : values) {
+                actions[value.ordinal()] = namespace + "." + value;
+                lookup.put(actions[value.ordinal()], value);
+            }
+        }
+    }
+
+    private static volatile ActionNames actionNames;
+
+    private static ActionNames getActionNames() {
+        ActionNames names = actionNames;
+        String namespace = NAMESPACE;
+        if (names == null || !names.namespace.equals(namespace)) {
+            names = new ActionNames(namespace);
+            actionNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Sets the window in which high frequency events of the same call and type are coalesced
+     * (call state updates which don't change the call state, video size changes).
+     * Only the latest event within the window is delivered. Call state transitions are
+     * always delivered immediately. By default every event is delivered.
+     * @param millis coalescing window in milliseconds, 0 to disable coalescing
+     */
+    public static void setEventCoalescingWindow(long millis) {
+        coalescingWindowMillis = millis;
+    }
+
+    /**
+     * Enables or disables the delta encoding of the call state broadcasts. When enabled, the
+     * updates of a call which don't change its state carry only the values which changed since
+     * the previous broadcast, and {@link BroadcastEventReceiver} merges them with the last values
+     * it received. State transitions are always sent with all the values, so a receiver which
+     * has missed the previous broadcasts of a call, e.g. because it has been registered during
+     * the call, ignores its updates until the next transition.
+     * Disabled by default.
+     * @param enabled true to enable delta encoding
+     */
+    public static void setCallStateDeltaEncoding(boolean enabled) {
+        callStateDeltaEncoding = enabled;
+    }
+
+    /**
+     * Gets the number of events which have not been delivered because of coalescing.
+     * @return number of coalesced events
+     */
+    long getCoalescedEvents() {
+        return mEventCoalescer.getCoalescedEvents();
+    }
+
+    private static String getCallEventKey(int callID, BroadcastAction action) {
+        return "call:" + callID + ":" + (action == null ? "" : action);
     }
 
     /**
@@ -51,7 +209,21 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param remoteUri the IdUri of the remote party
      * @param isVideo whether the call has video or not
      */
-    public void incomingCall(String accountID, int callID, String displayName, String remoteUri, boolean isVideo) {
+    public void incomingCall(final String accountID, final int callID, final String displayName,
+                             final String remoteUri, final boolean isVideo) {
+        SipServiceState.onEvent(BroadcastAction.INCOMING_CALL, accountID, callID);
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onIncomingCall(accountID, callID, displayName, remoteUri, isVideo);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.INCOMING_CALL));
@@ -70,7 +242,20 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param accountID account IdUri
      * @param registrationStateCode SIP registration status code
      */
-    public void registrationState(String accountID, int registrationStateCode) {
+    public void registrationState(final String accountID, final int registrationStateCode) {
+        SipServiceState.onRegistration(accountID, registrationStateCode);
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onRegistration(accountID, pjsip_status_code.swigToEnum(registrationStateCode));
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.REGISTRATION));
@@ -91,24 +276,132 @@ public class BroadcastEventEmitter implements SipServiceConstants {
      * @param isLocalMute true if the call is muted locally
      * @param isLocalVideoMute true if the video is muted locally
      */
-    public synchronized  void callState(String accountID, int callID, int callStateCode, int callStateStatus,
-                          long connectTimestamp, boolean isLocalHold, boolean isLocalMute, boolean isLocalVideoMute) {
+    public synchronized  void callState(final String accountID, final int callID, final int callStateCode, final int callStateStatus,
+                          final long connectTimestamp, final boolean isLocalHold, final boolean isLocalMute, final boolean isLocalVideoMute) {
+        SipServiceState.onCallState(accountID, callID, callStateCode, callStateStatus, connectTimestamp,
+                                    isLocalHold, isLocalMute, isLocalVideoMute);
+
+        if (mSharedCallState != null) {
+            if (callStateCode == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED.swigValue()) {
+                mSharedCallState.clear(callID);
+            } else {
+                mSharedCallState.write(callID, callStateCode, callStateStatus, connectTimestamp,
+                                       isLocalHold, isLocalMute, isLocalVideoMute);
+            }
+        }
+
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                deliverCallState(accountID, callID, callStateCode, callStateStatus, connectTimestamp,
+                                 isLocalHold, isLocalMute, isLocalVideoMute);
+            }
+        };
+
+        // state transitions are always delivered, updates within the same state can be coalesced
+        boolean disconnected = callStateCode == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED.swigValue();
+        Integer lastCallStateCode = mLastCallStateCodes.put(callID, callStateCode);
+        String key = getCallEventKey(callID, BroadcastAction.CALL_STATE);
+
+        if (disconnected) {
+            // the pending events of the call (e.g. video size) are delivered before the
+            // disconnection, never after it, then the keys of the call are forgotten
+            mLastCallStateCodes.remove(callID);
+            mEventCoalescer.forget(getCallEventKey(callID, null));
+            mEventCoalescer.submitNow(key, delivery);
+            mEventCoalescer.forget(getCallEventKey(callID, null));
+        } else if (lastCallStateCode == null || lastCallStateCode != callStateCode) {
+            mEventCoalescer.submitNow(key, delivery);
+        } else {
+            mEventCoalescer.submit(key, delivery, coalescingWindowMillis);
+        }
+    }
+
+    private void deliverCallState(final String accountID, final int callID, final int callStateCode,
+                                  final int callStateStatus, final long connectTimestamp,
+                                  final boolean isLocalHold, final boolean isLocalMute,
+                                  final boolean isLocalVideoMute) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCallState(accountID, callID, pjsip_inv_state.swigToEnum(callStateCode),
+                                         (callStateStatus > 0) ? pjsip_status_code.swigToEnum(callStateStatus) : null,
+                                         connectTimestamp, isLocalHold, isLocalMute, isLocalVideoMute);
+                }
+            });
+        }
+
+        boolean disconnected = callStateCode == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED.swigValue();
+
+        if (!SipEventBus.isBroadcastEnabled()) {
+            if (disconnected) mLastBroadcastCallStates.remove(callID);
+            return;
+        }
+
+        // state transitions are always sent in full, so the receivers which missed the
+        // previous broadcasts of the call get all its values again
+        SipServiceState.CallSnapshot previous = callStateDeltaEncoding ? mLastBroadcastCallStates.get(callID) : null;
+        if (previous != null && previous.getCallStateCode() != callStateCode) {
+            previous = null;
+        }
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.CALL_STATE));
         intent.putExtra(PARAM_ACCOUNT_ID, accountID);
         intent.putExtra(PARAM_CALL_ID, callID);
-        intent.putExtra(PARAM_CALL_STATE, callStateCode);
-        intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
-        intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
-        intent.putExtra(PARAM_LOCAL_HOLD, isLocalHold);
-        intent.putExtra(PARAM_LOCAL_MUTE, isLocalMute);
-        intent.putExtra(PARAM_LOCAL_VIDEO_MUTE, isLocalVideoMute);
+
+        if (previous == null) {
+            intent.putExtra(PARAM_CALL_STATE, callStateCode);
+            intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
+            intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
+            intent.putExtra(PARAM_LOCAL_HOLD, isLocalHold);
+            intent.putExtra(PARAM_LOCAL_MUTE, isLocalMute);
+            intent.putExtra(PARAM_LOCAL_VIDEO_MUTE, isLocalVideoMute);
+        } else {
+            // delta encoding: only the values changed since the last broadcast for this call
+            intent.putExtra(PARAM_CALL_STATE_DELTA, true);
+            if (previous.getCallStateCode() != callStateCode)
+                intent.putExtra(PARAM_CALL_STATE, callStateCode);
+            if (previous.getCallStatusCode() != callStateStatus)
+                intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
+            if (previous.getConnectTimestamp() != connectTimestamp)
+                intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
+            if (previous.isLocalHold() != isLocalHold)
+                intent.putExtra(PARAM_LOCAL_HOLD, isLocalHold);
+            if (previous.isLocalMute() != isLocalMute)
+                intent.putExtra(PARAM_LOCAL_MUTE, isLocalMute);
+            if (previous.isLocalVideoMute() != isLocalVideoMute)
+                intent.putExtra(PARAM_LOCAL_VIDEO_MUTE, isLocalVideoMute);
+        }
 
         mContext.sendBroadcast(intent);
+
+        // the base of the next delta is the last state actually broadcast
+        if (disconnected) {
+            mLastBroadcastCallStates.remove(callID);
+        } else {
+            mLastBroadcastCallStates.put(callID, new SipServiceState.CallSnapshot(accountID, callID,
+                    callStateCode, callStateStatus, connectTimestamp, isLocalHold, isLocalMute, isLocalVideoMute));
+        }
     }
 
-    public void outgoingCall(String accountID, int callID, String number, boolean isVideo, boolean isVideoConference) {
+    public void outgoingCall(final String accountID, final int callID, final String number,
+                             final boolean isVideo, final boolean isVideoConference) {
+        SipServiceState.onEvent(BroadcastAction.OUTGOING_CALL, accountID, callID);
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onOutgoingCall(accountID, callID, number, isVideo, isVideoConference);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.OUTGOING_CALL));
@@ -121,7 +414,28 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         sendExplicitBroadcast(intent);
     }
 
-    public void stackStatus(boolean started) {
+    public void stackStatus(final boolean started) {
+        SipServiceState.onStackStatus(started);
+
+        if (!started) {
+            synchronized (this) {
+                if (mSharedCallState != null) {
+                    mSharedCallState.clearAll();
+                }
+            }
+        }
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onStackStatus(started);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.STACK_STATUS));
@@ -130,7 +444,18 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         mContext.sendBroadcast(intent);
     }
 
-    public void codecPriorities(ArrayList<CodecPriority> codecPriorities) {
+    public void codecPriorities(final ArrayList<CodecPriority> codecPriorities) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onReceivedCodecPriorities(codecPriorities);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES));
@@ -139,7 +464,18 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         mContext.sendBroadcast(intent);
     }
 
-    public void codecPrioritiesSetStatus(boolean success) {
+    public void codecPrioritiesSetStatus(final boolean success) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCodecPrioritiesSetStatus(success);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES_SET_STATUS));
@@ -148,7 +484,20 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         mContext.sendBroadcast(intent);
     }
 
-    void missedCall(String displayName, String uri) {
+    void missedCall(final String displayName, final String uri) {
+        SipServiceState.onEvent(BroadcastAction.MISSED_CALL, null, -1);
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onMissedCall(displayName, uri);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.MISSED_CALL));
@@ -158,17 +507,53 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         sendExplicitBroadcast(intent);
     }
 
-    void videoSize(int width, int height) {
+    void videoSize(final int callID, final int width, final int height) {
+        mEventCoalescer.submit(getCallEventKey(callID, BroadcastAction.VIDEO_SIZE), new Runnable() {
+            @Override
+            public void run() {
+                deliverVideoSize(callID, width, height);
+            }
+        }, coalescingWindowMillis);
+    }
+
+    private void deliverVideoSize(final int callID, final int width, final int height) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onVideoSize(width, height);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.VIDEO_SIZE));
+        intent.putExtra(PARAM_CALL_ID, callID);
         intent.putExtra(PARAM_INCOMING_VIDEO_WIDTH, width);
         intent.putExtra(PARAM_INCOMING_VIDEO_HEIGHT, height);
 
         mContext.sendBroadcast(intent);
     }
 
-    void callStats(int duration, String audioCodec, int callStateStatus, RtpStreamStats rx, RtpStreamStats tx) {
+    void callStats(final int duration, final String audioCodec, final int callStateStatus,
+                   final RtpStreamStats rx, final RtpStreamStats tx,
+                   final ArrayList<MediaStreamStats> streams, final CallSetupStats setupStats) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCallStats(duration, audioCodec,
+                                         (callStateStatus > 0) ? pjsip_status_code.swigToEnum(callStateStatus) : null,
+                                         rx, tx, streams, setupStats);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
         final Intent intent = new Intent();
 
         intent.setAction(getAction(BroadcastAction.CALL_STATS));
@@ -177,20 +562,254 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.putExtra(PARAM_CALL_STATS_CALL_STATUS, callStateStatus);
         intent.putExtra(PARAM_CALL_STATS_RX_STREAM, rx);
         intent.putExtra(PARAM_CALL_STATS_TX_STREAM, tx);
+        intent.putParcelableArrayListExtra(PARAM_CALL_STATS_MEDIA_STREAMS, streams);
+        intent.putExtra(PARAM_CALL_STATS_SETUP, setupStats);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    /**
+     * Emit the aggregated result of a batch of commands.
+     * @param batchID ID of the batch, as returned when the batch has been sent
+     * @param executed number of commands successfully executed
+     * @param failedActions actions of the commands which were unknown or failed with an error
+     */
+    void batchResult(final String batchID, final int executed, final ArrayList<String> failedActions) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onBatchResult(batchID, executed, failedActions);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.BATCH_RESULT));
+        intent.putExtra(PARAM_BATCH_ID, batchID);
+        intent.putExtra(PARAM_BATCH_EXECUTED, executed);
+        intent.putStringArrayListExtra(PARAM_BATCH_FAILED_ACTIONS, failedActions);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void commandLatencies(final ArrayList<CommandLatency> latencies) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCommandLatencies(latencies);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.COMMAND_LATENCIES));
+        intent.putParcelableArrayListExtra(PARAM_COMMAND_LATENCIES, latencies);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    /**
+     * Emit a periodic sample of the RTCP and jitter buffer stats of a call.
+     */
+    void callStatsSample(final String accountID, final int callID, final long timestamp,
+                         final int rxLoss, final int rxJitterUsec, final int rttUsec,
+                         final int jbufDelayMsec, final int jbufDiscard) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCallStatsSample(accountID, callID, timestamp, rxLoss, rxJitterUsec,
+                                               rttUsec, jbufDelayMsec, jbufDiscard);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.CALL_STATS_SAMPLE));
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putExtra(PARAM_SAMPLE_TIMESTAMP, timestamp);
+        intent.putExtra(PARAM_SAMPLE_RX_LOSS, rxLoss);
+        intent.putExtra(PARAM_SAMPLE_RX_JITTER_USEC, rxJitterUsec);
+        intent.putExtra(PARAM_SAMPLE_RTT_USEC, rttUsec);
+        intent.putExtra(PARAM_SAMPLE_JBUF_DELAY_MSEC, jbufDelayMsec);
+        intent.putExtra(PARAM_SAMPLE_JBUF_DISCARD, jbufDiscard);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void callStatsSeries(final String accountID, final int callID, final CallStatsSeries series) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCallStatsSeries(accountID, callID, series);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.CALL_STATS_SERIES));
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putExtra(PARAM_CALL_STATS_SERIES, series);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    /**
+     * Emit a call quality change: the call has become degraded or has recovered.
+     */
+    void callQuality(final String accountID, final int callID, final boolean degraded,
+                     final float mos, final float rFactor) {
+        SipServiceState.onEvent(BroadcastAction.CALL_QUALITY, accountID, callID);
+
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onCallQuality(accountID, callID, degraded, mos, rFactor);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.CALL_QUALITY));
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putExtra(PARAM_CALL_QUALITY_DEGRADED, degraded);
+        intent.putExtra(PARAM_CALL_QUALITY_MOS, mos);
+        intent.putExtra(PARAM_CALL_QUALITY_R_FACTOR, rFactor);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void registrationStats(final String accountID, final RegistrationStats stats) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onRegistrationStats(accountID, stats);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.REGISTRATION_STATS));
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_REGISTRATION_STATS, stats);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void qualityHistograms(final QualityHistograms histograms) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onQualityHistograms(histograms);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.QUALITY_HISTOGRAMS));
+        intent.putExtra(PARAM_QUALITY_HISTOGRAMS, histograms);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void startupReport(final StartupReport report) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onStartupReport(report);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.STARTUP_REPORT));
+        intent.putExtra(PARAM_STARTUP_REPORT, report);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void warmUpCompleted(final boolean success, final long durationMillis, final long savingMillis) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onWarmUpCompleted(success, durationMillis, savingMillis);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.WARM_UP_COMPLETED));
+        intent.putExtra(PARAM_WARM_UP_SUCCESS, success);
+        intent.putExtra(PARAM_WARM_UP_DURATION, durationMillis);
+        intent.putExtra(PARAM_WARM_UP_SAVING, savingMillis);
+
+        mContext.sendBroadcast(intent);
+    }
+
+    void sipStackRestarted(final boolean soft, final long timeToRegisteredMillis, final int registeredAccounts) {
+        if (SipEventBus.hasListeners()) {
+            SipEventBus.post(new SipEventBus.Event() {
+                @Override
+                public void dispatch(SipEventListener listener) {
+                    listener.onSipStackRestarted(soft, timeToRegisteredMillis, registeredAccounts);
+                }
+            });
+        }
+
+        if (!SipEventBus.isBroadcastEnabled()) return;
+
+        final Intent intent = new Intent();
+
+        intent.setAction(getAction(BroadcastAction.SIP_STACK_RESTARTED));
+        intent.putExtra(PARAM_RESTART_SOFT, soft);
+        intent.putExtra(PARAM_RESTART_TIME_TO_REGISTERED, timeToRegisteredMillis);
+        intent.putExtra(PARAM_RESTART_REGISTERED_ACCOUNTS, registeredAccounts);
 
         mContext.sendBroadcast(intent);
     }
 
     private boolean sendExplicitBroadcast(Intent intent) {
-        PackageManager pm=mContext.getPackageManager();
-        List<ResolveInfo> matches=pm.queryBroadcastReceivers(intent, 0);
         boolean sent = false;
 
-        for (ResolveInfo resolveInfo : matches) {
-            ComponentName cn=
-                    new ComponentName(resolveInfo.activityInfo.applicationInfo.packageName,
-                            resolveInfo.activityInfo.name);
-
+        for (ComponentName cn : getReceivers(intent.getAction())) {
             intent.setComponent(cn);
             intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
             mContext.sendBroadcast(intent);
@@ -198,4 +817,54 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         }
         return sent;
     }
+
+    private List<ComponentName> getReceivers(String action) {
+        List<ComponentName> receivers = mReceiversCache.get(action);
+        if (receivers != null) return receivers;
+
+        int generation = mReceiversCacheGeneration.get();
+
+        PackageManager pm=mContext.getPackageManager();
+        List<ResolveInfo> matches=pm.queryBroadcastReceivers(new Intent(action), 0);
+        receivers = new ArrayList<>(matches.size());
+
+        for (ResolveInfo resolveInfo : matches) {
+            receivers.add(new ComponentName(resolveInfo.activityInfo.applicationInfo.packageName,
+                                            resolveInfo.activityInfo.name));
+        }
+        receivers = Collections.unmodifiableList(receivers);
+
+        mReceiversCache.put(action, receivers);
+
+        // packages changed while resolving, so the result may be already stale
+        if (generation != mReceiversCacheGeneration.get()) {
+            mReceiversCache.remove(action);
+        }
+
+        return receivers;
+    }
+
+    private void registerPackageChangesReceiver() {
+        mPackageChangesReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateReceiversCache();
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+
+        try {
+            mContext.registerReceiver(mPackageChangesReceiver, filter);
+        } catch (Exception exc) {
+            Logger.error(BroadcastEventEmitter.class.getSimpleName(),
+                         "Error while registering package changes receiver", exc);
+            mPackageChangesReceiver = null;
+        }
+    }
 }
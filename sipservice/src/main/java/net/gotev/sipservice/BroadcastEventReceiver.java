@@ -4,11 +4,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
 
 import org.pjsip.pjsua2.pjsip_inv_state;
 import org.pjsip.pjsua2.pjsip_status_code;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Reference implementation to receive events emitted by the sip service.
@@ -20,6 +24,11 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
 
     private Context receiverContext;
 
+    /**
+     * Last values received for each call, used to decode delta encoded call state broadcasts.
+     */
+    private final HashMap<Integer, SipServiceState.CallSnapshot> callStates = new HashMap<>();
+
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent == null) return;
@@ -28,64 +37,170 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
         //getReceiverContext method
         receiverContext = context;
 
-        String action = intent.getAction();
+        BroadcastEventEmitter.BroadcastAction action =
+                BroadcastEventEmitter.getBroadcastAction(intent.getAction());
+
+        if (action == null) return;
 
-        if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.REGISTRATION).equals(action)) {
-            int stateCode = intent.getIntExtra(PARAM_REGISTRATION_CODE, -1);
-            onRegistration(intent.getStringExtra(PARAM_ACCOUNT_ID),
-                           pjsip_status_code.swigToEnum(stateCode));
+        switch (action) {
+            case REGISTRATION:
+                int stateCode = intent.getIntExtra(PARAM_REGISTRATION_CODE, -1);
+                onRegistration(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                               pjsip_status_code.swigToEnum(stateCode));
+                break;
 
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.INCOMING_CALL).equals(action)) {
-            onIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
-                    intent.getIntExtra(PARAM_CALL_ID, -1),
-                    intent.getStringExtra(PARAM_DISPLAY_NAME),
-                    intent.getStringExtra(PARAM_REMOTE_URI),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO, false));
+            case INCOMING_CALL:
+                onIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getStringExtra(PARAM_DISPLAY_NAME),
+                        intent.getStringExtra(PARAM_REMOTE_URI),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO, false));
+                break;
+
+            case CALL_STATE:
+                handleCallState(intent);
+                break;
 
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_STATE).equals(action)) {
-            int callState = intent.getIntExtra(PARAM_CALL_STATE, -1);
-            int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
-            onCallState(intent.getStringExtra(PARAM_ACCOUNT_ID),
+            case OUTGOING_CALL:
+                onOutgoingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getStringExtra(PARAM_NUMBER),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO, false),
+                        intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false));
+                break;
+
+            case STACK_STATUS:
+                onStackStatus(intent.getBooleanExtra(PARAM_STACK_STARTED, false));
+                break;
+
+            case CODEC_PRIORITIES:
+                ArrayList<CodecPriority> codecList = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST);
+                onReceivedCodecPriorities(codecList);
+                break;
+
+            case CODEC_PRIORITIES_SET_STATUS:
+                onCodecPrioritiesSetStatus(intent.getBooleanExtra(PARAM_SUCCESS, false));
+                break;
+
+            case MISSED_CALL:
+                onMissedCall(intent.getStringExtra(PARAM_DISPLAY_NAME),
+                        intent.getStringExtra(PARAM_REMOTE_URI));
+                break;
+
+            case VIDEO_SIZE:
+                onVideoSize(intent.getIntExtra(PARAM_INCOMING_VIDEO_WIDTH, H264_DEF_WIDTH),
+                        intent.getIntExtra(PARAM_INCOMING_VIDEO_HEIGHT, H264_DEF_HEIGHT));
+                break;
+
+            case CALL_STATS:
+                int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
+                onCallStats(intent.getIntExtra(PARAM_CALL_STATS_DURATION, 0),
+                    intent.getStringExtra(PARAM_CALL_STATS_AUDIO_CODEC),
+                    (callStatus > 0) ? pjsip_status_code.swigToEnum(callStatus) : null,
+                    (RtpStreamStats) intent.getParcelableExtra(PARAM_CALL_STATS_RX_STREAM),
+                    (RtpStreamStats) intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM),
+                    intent.<MediaStreamStats>getParcelableArrayListExtra(PARAM_CALL_STATS_MEDIA_STREAMS),
+                    (CallSetupStats) intent.getParcelableExtra(PARAM_CALL_STATS_SETUP));
+                break;
+
+            case BATCH_RESULT:
+                onBatchResult(intent.getStringExtra(PARAM_BATCH_ID),
+                        intent.getIntExtra(PARAM_BATCH_EXECUTED, 0),
+                        intent.getStringArrayListExtra(PARAM_BATCH_FAILED_ACTIONS));
+                break;
+
+            case COMMAND_LATENCIES:
+                ArrayList<CommandLatency> latencies = intent.getParcelableArrayListExtra(PARAM_COMMAND_LATENCIES);
+                onCommandLatencies(latencies);
+                break;
+
+            case CALL_STATS_SAMPLE:
+                onCallStatsSample(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getLongExtra(PARAM_SAMPLE_TIMESTAMP, 0),
+                        intent.getIntExtra(PARAM_SAMPLE_RX_LOSS, 0),
+                        intent.getIntExtra(PARAM_SAMPLE_RX_JITTER_USEC, 0),
+                        intent.getIntExtra(PARAM_SAMPLE_RTT_USEC, 0),
+                        intent.getIntExtra(PARAM_SAMPLE_JBUF_DELAY_MSEC, 0),
+                        intent.getIntExtra(PARAM_SAMPLE_JBUF_DISCARD, 0));
+                break;
+
+            case CALL_STATS_SERIES:
+                onCallStatsSeries(intent.getStringExtra(PARAM_ACCOUNT_ID),
                         intent.getIntExtra(PARAM_CALL_ID, -1),
-                        pjsip_inv_state.swigToEnum(callState),
-                        (callStatus > 0) ? pjsip_status_code.swigToEnum(callStatus) : null,
-                        intent.getLongExtra(PARAM_CONNECT_TIMESTAMP, -1),
-                        intent.getBooleanExtra(PARAM_LOCAL_HOLD, false),
-                        intent.getBooleanExtra(PARAM_LOCAL_MUTE, false),
-                        intent.getBooleanExtra(PARAM_LOCAL_VIDEO_MUTE, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.OUTGOING_CALL).equals(action)) {
-            onOutgoingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
-                    intent.getIntExtra(PARAM_CALL_ID, -1),
-                    intent.getStringExtra(PARAM_NUMBER),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO, false),
-                    intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.STACK_STATUS).equals(action)) {
-            onStackStatus(intent.getBooleanExtra(PARAM_STACK_STARTED, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES).equals(action)) {
-            ArrayList<CodecPriority> codecList = intent.getParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST);
-            onReceivedCodecPriorities(codecList);
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES_SET_STATUS).equals(action)) {
-            onCodecPrioritiesSetStatus(intent.getBooleanExtra(PARAM_SUCCESS, false));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.MISSED_CALL).equals(action)) {
-            onMissedCall(intent.getStringExtra(PARAM_DISPLAY_NAME),
-                    intent.getStringExtra(PARAM_REMOTE_URI));
-
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.VIDEO_SIZE).equals(action)) {
-            onVideoSize(intent.getIntExtra(PARAM_INCOMING_VIDEO_WIDTH, H264_DEF_WIDTH),
-                    intent.getIntExtra(PARAM_INCOMING_VIDEO_HEIGHT, H264_DEF_HEIGHT));
-        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_STATS).equals(action)) {
-            int callStatus = intent.getIntExtra(PARAM_CALL_STATUS, -1);
-            onCallStats(intent.getIntExtra(PARAM_CALL_STATS_DURATION, 0),
-                intent.getStringExtra(PARAM_CALL_STATS_AUDIO_CODEC),
-                (callStatus > 0) ? pjsip_status_code.swigToEnum(callStatus) : null,
-                (RtpStreamStats) intent.getParcelableExtra(PARAM_CALL_STATS_RX_STREAM),
-                (RtpStreamStats) intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM));
+                        (CallStatsSeries) intent.getParcelableExtra(PARAM_CALL_STATS_SERIES));
+                break;
+
+            case CALL_QUALITY:
+                onCallQuality(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        intent.getIntExtra(PARAM_CALL_ID, -1),
+                        intent.getBooleanExtra(PARAM_CALL_QUALITY_DEGRADED, false),
+                        intent.getFloatExtra(PARAM_CALL_QUALITY_MOS, 0),
+                        intent.getFloatExtra(PARAM_CALL_QUALITY_R_FACTOR, 0));
+                break;
+
+            case REGISTRATION_STATS:
+                onRegistrationStats(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                        (RegistrationStats) intent.getParcelableExtra(PARAM_REGISTRATION_STATS));
+                break;
+
+            case QUALITY_HISTOGRAMS:
+                onQualityHistograms((QualityHistograms) intent.getParcelableExtra(PARAM_QUALITY_HISTOGRAMS));
+                break;
+
+            case STARTUP_REPORT:
+                onStartupReport((StartupReport) intent.getParcelableExtra(PARAM_STARTUP_REPORT));
+                break;
+
+            case WARM_UP_COMPLETED:
+                onWarmUpCompleted(intent.getBooleanExtra(PARAM_WARM_UP_SUCCESS, false),
+                        intent.getLongExtra(PARAM_WARM_UP_DURATION, 0),
+                        intent.getLongExtra(PARAM_WARM_UP_SAVING, 0));
+                break;
+
+            case SIP_STACK_RESTARTED:
+                onSipStackRestarted(intent.getBooleanExtra(PARAM_RESTART_SOFT, false),
+                        intent.getLongExtra(PARAM_RESTART_TIME_TO_REGISTERED, 0),
+                        intent.getIntExtra(PARAM_RESTART_REGISTERED_ACCOUNTS, 0));
+                break;
+        }
+    }
+
+    private void handleCallState(Intent intent) {
+        int callID = intent.getIntExtra(PARAM_CALL_ID, -1);
+        SipServiceState.CallSnapshot previous = null;
+
+        if (intent.getBooleanExtra(PARAM_CALL_STATE_DELTA, false)) {
+            previous = callStates.get(callID);
+
+            // the values this delta refers to have not been received, e.g. because this
+            // receiver has been registered during the call: wait for the next full state
+            if (previous == null) {
+                Logger.debug(LOG_TAG, "Ignoring call state delta of unknown call " + callID);
+                return;
+            }
         }
+
+        SipServiceState.CallSnapshot call = new SipServiceState.CallSnapshot(
+                intent.getStringExtra(PARAM_ACCOUNT_ID), callID,
+                intent.getIntExtra(PARAM_CALL_STATE, previous != null ? previous.getCallStateCode() : -1),
+                intent.getIntExtra(PARAM_CALL_STATUS, previous != null ? previous.getCallStatusCode() : -1),
+                intent.getLongExtra(PARAM_CONNECT_TIMESTAMP, previous != null ? previous.getConnectTimestamp() : -1),
+                intent.getBooleanExtra(PARAM_LOCAL_HOLD, previous != null && previous.isLocalHold()),
+                intent.getBooleanExtra(PARAM_LOCAL_MUTE, previous != null && previous.isLocalMute()),
+                intent.getBooleanExtra(PARAM_LOCAL_VIDEO_MUTE, previous != null && previous.isLocalVideoMute()));
+
+        if (call.getCallStateCode() == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED.swigValue()) {
+            callStates.remove(callID);
+        } else {
+            callStates.put(callID, call);
+        }
+
+        onCallState(call.getAccountID(), callID,
+                    pjsip_inv_state.swigToEnum(call.getCallStateCode()),
+                    (call.getCallStatusCode() > 0) ? pjsip_status_code.swigToEnum(call.getCallStatusCode()) : null,
+                    call.getConnectTimestamp(), call.isLocalHold(), call.isLocalMute(),
+                    call.isLocalVideoMute());
     }
 
     protected Context getReceiverContext() {
@@ -95,33 +210,58 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
     /**
      * Register this broadcast receiver.
      * It's recommended to register the receiver in Activity's onResume method.
+     * If the sip service runs in the same process, the current stack, registrations and calls
+     * state is delivered right after the registration, without querying the service.
      *
      * @param context context in which to register this receiver
      */
     public void register(final Context context) {
+        register(context, null);
+    }
+
+    /**
+     * Register this broadcast receiver, to receive the events on the thread of the given handler.
+     * Use a handler of a background thread (e.g. a {@link android.os.HandlerThread}) to
+     * decode the events and run the callbacks off the main thread.
+     *
+     * @param context context in which to register this receiver
+     * @param handler handler of the thread on which to receive the events,
+     *                null to receive them on the main thread
+     */
+    public void register(final Context context, final Handler handler) {
 
         final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.REGISTRATION));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.INCOMING_CALL));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.CALL_STATE));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.OUTGOING_CALL));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.STACK_STATUS));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.CODEC_PRIORITIES_SET_STATUS));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.MISSED_CALL));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.VIDEO_SIZE));
-        intentFilter.addAction(BroadcastEventEmitter.getAction(
-                BroadcastEventEmitter.BroadcastAction.CALL_STATS));
-        context.registerReceiver(this, intentFilter);
+        for (BroadcastEventEmitter.BroadcastAction action : BroadcastEventEmitter.BroadcastAction.values()) {
+            intentFilter.addAction(BroadcastEventEmitter.getAction(action));
+        }
+        context.registerReceiver(this, intentFilter, null, handler);
+
+        receiverContext = context;
+        (handler != null ? handler : new Handler(Looper.getMainLooper())).post(new Runnable() {
+            @Override
+            public void run() {
+                replayState();
+            }
+        });
+    }
+
+    private void replayState() {
+        if (!SipServiceState.isStackStarted()) return;
+
+        onStackStatus(true);
+
+        for (Map.Entry<String, Integer> registration : SipServiceState.getRegistrations().entrySet()) {
+            onRegistration(registration.getKey(), pjsip_status_code.swigToEnum(registration.getValue()));
+        }
+
+        for (SipServiceState.CallSnapshot call : SipServiceState.getCalls()) {
+            callStates.put(call.getCallID(), call);
+            onCallState(call.getAccountID(), call.getCallID(),
+                        pjsip_inv_state.swigToEnum(call.getCallStateCode()),
+                        (call.getCallStatusCode() > 0) ? pjsip_status_code.swigToEnum(call.getCallStatusCode()) : null,
+                        call.getConnectTimestamp(), call.isLocalHold(), call.isLocalMute(),
+                        call.isLocalVideoMute());
+        }
     }
 
     /**
@@ -190,4 +330,68 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
     protected void onCallStats(int duration, String audioCodec, pjsip_status_code callStatusCode, RtpStreamStats rx, RtpStreamStats tx) {
         Logger.debug(LOG_TAG, "Call Stats sent "+duration+" "+audioCodec);
     }
+
+    /**
+     * Receives the call stats together with the complete statistics of every media stream
+     * and the setup latencies of the call.
+     * By default it calls {@link #onCallStats(int, String, pjsip_status_code, RtpStreamStats, RtpStreamStats)}.
+     */
+    protected void onCallStats(int duration, String audioCodec, pjsip_status_code callStatusCode, RtpStreamStats rx,
+                               RtpStreamStats tx, ArrayList<MediaStreamStats> streams,
+                               CallSetupStats setupStats) {
+        onCallStats(duration, audioCodec, callStatusCode, rx, tx);
+    }
+
+    protected void onBatchResult(String batchID, int executed, ArrayList<String> failedActions) {
+        Logger.debug(LOG_TAG, "Batch " + batchID + " executed " + executed + " commands, "
+                + (failedActions == null ? 0 : failedActions.size()) + " failed");
+    }
+
+    protected void onCommandLatencies(ArrayList<CommandLatency> latencies) {
+        Logger.debug(LOG_TAG, "Received command latencies");
+        for (CommandLatency latency : latencies) {
+            Logger.debug(LOG_TAG, latency.toString());
+        }
+    }
+
+    protected void onCallStatsSample(String accountID, int callID, long timestamp, int rxLoss, int rxJitterUsec,
+                                     int rttUsec, int jbufDelayMsec, int jbufDiscard) {
+        Logger.debug(LOG_TAG, "Call stats sample - callID: " + callID +
+                ", rxLoss: " + rxLoss +
+                ", rxJitterUsec: " + rxJitterUsec +
+                ", rttUsec: " + rttUsec +
+                ", jbufDelayMsec: " + jbufDelayMsec +
+                ", jbufDiscard: " + jbufDiscard);
+    }
+
+    protected void onCallStatsSeries(String accountID, int callID, CallStatsSeries series) {
+        Logger.debug(LOG_TAG, "Call stats series " + series);
+    }
+
+    protected void onRegistrationStats(String accountID, RegistrationStats stats) {
+        Logger.debug(LOG_TAG, "onRegistrationStats - " + stats);
+    }
+
+    protected void onCallQuality(String accountID, int callID, boolean degraded, float mos, float rFactor) {
+        Logger.debug(LOG_TAG, "Call " + callID + " quality " + (degraded ? "degraded" : "recovered") +
+                " - MOS: " + mos + ", R-factor: " + rFactor);
+    }
+
+    protected void onQualityHistograms(QualityHistograms histograms) {
+        Logger.debug(LOG_TAG, "onQualityHistograms - " + histograms);
+    }
+
+    protected void onStartupReport(StartupReport report) {
+        Logger.debug(LOG_TAG, "onStartupReport - " + report);
+    }
+
+    protected void onWarmUpCompleted(boolean success, long durationMillis, long savingMillis) {
+        Logger.debug(LOG_TAG, "onWarmUpCompleted - success: " + success + ", duration: " + durationMillis
+                + "ms, saving: " + savingMillis + "ms");
+    }
+
+    protected void onSipStackRestarted(boolean soft, long timeToRegisteredMillis, int registeredAccounts) {
+        Logger.debug(LOG_TAG, "onSipStackRestarted - " + (soft ? "soft" : "full") + " restart, "
+                + registeredAccounts + " accounts registered in " + timeToRegisteredMillis + "ms");
+    }
 }
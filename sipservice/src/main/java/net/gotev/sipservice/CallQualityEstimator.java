@@ -0,0 +1,140 @@
+package net.gotev.sipservice;
+
+/**
+ * Estimates the listening quality of a call with a simplified ITU-T G.107 E-model,
+ * updated incrementally with the RTCP and jitter buffer samples of the call.
+ * It doesn't allocate anything after construction.
+ * <p>
+ * R = 93.2 - Id - Ie,eff, where Id depends on the one way delay (half the RTT plus jitter
+ * buffer and codec delay) and Ie,eff on the codec impairment, the packet loss and how
+ * bursty the loss is. The R-factor is smoothed over the samples, and the call is considered
+ * degraded when it goes below {@link #DEGRADED_R_FACTOR}, and recovered only when it goes
+ * back above {@link #RECOVERED_R_FACTOR}, so it doesn't flap around a single threshold.
+ */
+class CallQualityEstimator {
+
+    /**
+     * R-factor below which a call is considered degraded (MOS about 3.6).
+     */
+    static final float DEGRADED_R_FACTOR = 70f;
+
+    /**
+     * R-factor above which a degraded call is considered recovered (MOS about 3.8).
+     */
+    static final float RECOVERED_R_FACTOR = 75f;
+
+    private static final float R0 = 93.2f;
+    private static final float SMOOTHING = 0.3f;
+
+    private final float mIe;
+    private final float mBpl;
+    private final float mCodecDelayMsec;
+
+    private float mRFactor = R0;
+    private boolean mHasEstimate;
+    private boolean mDegraded;
+
+    /**
+     * @param codecName name of the audio codec, as reported by the stream info
+     */
+    CallQualityEstimator(String codecName) {
+        String codec = codecName == null ? "" : codecName.toLowerCase();
+
+        // equipment impairment and packet loss robustness, from G.113 Appendix I where available
+        if (codec.startsWith("pcmu") || codec.startsWith("pcma")) {
+            mIe = 0f;
+            mBpl = 25.1f;
+            mCodecDelayMsec = 20f;
+        } else if (codec.startsWith("g722")) {
+            mIe = 0f;
+            mBpl = 20f;
+            mCodecDelayMsec = 21.5f;
+        } else if (codec.startsWith("g729")) {
+            mIe = 11f;
+            mBpl = 19f;
+            mCodecDelayMsec = 25f;
+        } else if (codec.startsWith("gsm")) {
+            mIe = 20f;
+            mBpl = 10f;
+            mCodecDelayMsec = 20f;
+        } else if (codec.startsWith("ilbc")) {
+            mIe = 10f;
+            mBpl = 32f;
+            mCodecDelayMsec = 25f;
+        } else if (codec.startsWith("amr")) {
+            mIe = 5f;
+            mBpl = 10f;
+            mCodecDelayMsec = 25f;
+        } else if (codec.startsWith("opus")) {
+            mIe = 0f;
+            mBpl = 30f;
+            mCodecDelayMsec = 26.5f;
+        } else {
+            mIe = 10f;
+            mBpl = 20f;
+            mCodecDelayMsec = 25f;
+        }
+    }
+
+    /**
+     * Updates the estimate with the values observed since the previous sample.
+     * @param receivedPackets packets received in the interval
+     * @param lostPackets packets lost in the interval
+     * @param burstLosses loss events classified as burst in the interval
+     * @param randomLosses loss events classified as random in the interval
+     * @param rttUsec last round trip time, in microseconds
+     * @param jbufDelayMsec average jitter buffer delay, in milliseconds
+     * @return true if the call has become degraded or has recovered with this sample
+     */
+    boolean update(long receivedPackets, long lostPackets, long burstLosses, long randomLosses,
+                   int rttUsec, int jbufDelayMsec) {
+        long expected = receivedPackets + lostPackets;
+        float lossPercent = expected > 0 ? 100f * lostPackets / expected : 0f;
+
+        long losses = burstLosses + randomLosses;
+        float burstRatio = losses > 0 ? 1f + (float) burstLosses / losses : 1f;
+
+        float ieEff = mIe + (95f - mIe) * lossPercent / (lossPercent / burstRatio + mBpl);
+
+        float delay = rttUsec / 2000f + jbufDelayMsec + mCodecDelayMsec;
+        float id = 0.024f * delay + (delay > 177.3f ? 0.11f * (delay - 177.3f) : 0f);
+
+        float r = R0 - id - ieEff;
+
+        mRFactor = mHasEstimate ? mRFactor + SMOOTHING * (r - mRFactor) : r;
+        mHasEstimate = true;
+
+        if (!mDegraded && mRFactor < DEGRADED_R_FACTOR) {
+            mDegraded = true;
+            return true;
+        }
+
+        if (mDegraded && mRFactor > RECOVERED_R_FACTOR) {
+            mDegraded = false;
+            return true;
+        }
+
+        return false;
+    }
+
+    float getRFactor() {
+        return mRFactor;
+    }
+
+    float getMos() {
+        return toMos(mRFactor);
+    }
+
+    boolean isDegraded() {
+        return mDegraded;
+    }
+
+    /**
+     * Converts an R-factor to a mean opinion score, as defined in G.107 Annex B.
+     */
+    static float toMos(float r) {
+        if (r <= 0) return 1f;
+        if (r >= 100) return 4.5f;
+        return 1f + 0.035f * r + r * (r - 60f) * (100f - r) * 7e-6f;
+    }
+}
@@ -0,0 +1,317 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Call detail record, written in the {@link CallRecordStore} when a call is disconnected.
+ * Media stats are 0 if the call has never been connected.
+ */
+@SuppressWarnings("unused")
+public class CallRecord implements Parcelable {
+
+    static final byte VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_STRING_BYTES = 512;
+
+    /**
+     * Size of the fixed length fields, which precede the strings.
+     */
+    private static final int FIXED_SIZE = 98;
+
+    long endTimestamp;
+    long connectTimestamp;
+    String accountID;
+    String remoteUri;
+    String displayName;
+    String audioCodec;
+    int callID;
+    boolean incoming;
+    int duration;
+    int callStatus;
+    long rxPkts;
+    long rxLoss;
+    long rxDiscard;
+    int rxJitterMeanUsec;
+    long txPkts;
+    long txLoss;
+    int txJitterMeanUsec;
+    long postDialDelay = -1;
+    long timeToFirstAudio = -1;
+    float mos;
+
+    CallRecord() { }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<CallRecord> CREATOR =
+            new Parcelable.Creator<CallRecord>() {
+                @Override
+                public CallRecord createFromParcel(final Parcel in) {
+                    return new CallRecord(in);
+                }
+
+                @Override
+                public CallRecord[] newArray(final int size) {
+                    return new CallRecord[size];
+                }
+            };
+
+    private CallRecord(Parcel in) {
+        this.endTimestamp = in.readLong();
+        this.connectTimestamp = in.readLong();
+        this.accountID = in.readString();
+        this.remoteUri = in.readString();
+        this.displayName = in.readString();
+        this.audioCodec = in.readString();
+        this.callID = in.readInt();
+        this.incoming = in.readByte() == 1;
+        this.duration = in.readInt();
+        this.callStatus = in.readInt();
+        this.rxPkts = in.readLong();
+        this.rxLoss = in.readLong();
+        this.rxDiscard = in.readLong();
+        this.rxJitterMeanUsec = in.readInt();
+        this.txPkts = in.readLong();
+        this.txLoss = in.readLong();
+        this.txJitterMeanUsec = in.readInt();
+        this.postDialDelay = in.readLong();
+        this.timeToFirstAudio = in.readLong();
+        this.mos = in.readFloat();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(endTimestamp);
+        parcel.writeLong(connectTimestamp);
+        parcel.writeString(accountID);
+        parcel.writeString(remoteUri);
+        parcel.writeString(displayName);
+        parcel.writeString(audioCodec);
+        parcel.writeInt(callID);
+        parcel.writeByte((byte) (incoming ? 1 : 0));
+        parcel.writeInt(duration);
+        parcel.writeInt(callStatus);
+        parcel.writeLong(rxPkts);
+        parcel.writeLong(rxLoss);
+        parcel.writeLong(rxDiscard);
+        parcel.writeInt(rxJitterMeanUsec);
+        parcel.writeLong(txPkts);
+        parcel.writeLong(txLoss);
+        parcel.writeInt(txJitterMeanUsec);
+        parcel.writeLong(postDialDelay);
+        parcel.writeLong(timeToFirstAudio);
+        parcel.writeFloat(mos);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Serializes this record in the binary format of the store.
+     * @return serialized record
+     */
+    byte[] toBytes() {
+        byte[] account = encode(accountID);
+        byte[] uri = encode(remoteUri);
+        byte[] name = encode(displayName);
+        byte[] codec = encode(audioCodec);
+
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + 4 * 4
+                + uri.length + account.length + name.length + codec.length);
+
+        buffer.put(VERSION);
+        buffer.putLong(endTimestamp);
+        buffer.putLong(connectTimestamp);
+        buffer.putInt(callID);
+        buffer.put((byte) (incoming ? 1 : 0));
+        buffer.putInt(duration);
+        buffer.putInt(callStatus);
+        buffer.putLong(rxPkts);
+        buffer.putLong(rxLoss);
+        buffer.putLong(rxDiscard);
+        buffer.putInt(rxJitterMeanUsec);
+        buffer.putLong(txPkts);
+        buffer.putLong(txLoss);
+        buffer.putInt(txJitterMeanUsec);
+        buffer.putLong(postDialDelay);
+        buffer.putLong(timeToFirstAudio);
+        buffer.putFloat(mos);
+        putString(buffer, uri);
+        putString(buffer, account);
+        putString(buffer, name);
+        putString(buffer, codec);
+
+        return buffer.array();
+    }
+
+    /**
+     * Deserializes a record written by {@link #toBytes()}.
+     * @param buffer buffer positioned at the beginning of the record
+     * @return record, or null if it has been written by an unknown version
+     */
+    static CallRecord fromBytes(ByteBuffer buffer) {
+        if (buffer.get() != VERSION) return null;
+
+        CallRecord record = new CallRecord();
+        record.endTimestamp = buffer.getLong();
+        record.connectTimestamp = buffer.getLong();
+        record.callID = buffer.getInt();
+        record.incoming = buffer.get() == 1;
+        record.duration = buffer.getInt();
+        record.callStatus = buffer.getInt();
+        record.rxPkts = buffer.getLong();
+        record.rxLoss = buffer.getLong();
+        record.rxDiscard = buffer.getLong();
+        record.rxJitterMeanUsec = buffer.getInt();
+        record.txPkts = buffer.getLong();
+        record.txLoss = buffer.getLong();
+        record.txJitterMeanUsec = buffer.getInt();
+        record.postDialDelay = buffer.getLong();
+        record.timeToFirstAudio = buffer.getLong();
+        record.mos = buffer.getFloat();
+        record.remoteUri = getString(buffer);
+        record.accountID = getString(buffer);
+        record.displayName = getString(buffer);
+        record.audioCodec = getString(buffer);
+        return record;
+    }
+
+    /**
+     * Reads only the remote URI of a serialized record, without deserializing it.
+     * @param buffer buffer positioned at the beginning of the record
+     */
+    static String readRemoteUri(ByteBuffer buffer) {
+        buffer.position(buffer.position() + FIXED_SIZE);
+        return getString(buffer);
+    }
+
+    private static byte[] encode(String value) {
+        if (value == null) return new byte[0];
+
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length <= MAX_STRING_BYTES) return bytes;
+
+        byte[] truncated = new byte[MAX_STRING_BYTES];
+        System.arraycopy(bytes, 0, truncated, 0, MAX_STRING_BYTES);
+        return truncated;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == 0) return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return timestamp of the end of the call, used to order and index the records
+     */
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    /**
+     * @return timestamp of the connection of the call, 0 if it has never been connected
+     */
+    public long getConnectTimestamp() {
+        return connectTimestamp;
+    }
+
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public String getRemoteUri() {
+        return remoteUri;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+
+    public int getCallID() {
+        return callID;
+    }
+
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    /**
+     * @return connected duration, in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getCallStatus() {
+        return callStatus;
+    }
+
+    public long getRxPkts() {
+        return rxPkts;
+    }
+
+    public long getRxLoss() {
+        return rxLoss;
+    }
+
+    public long getRxDiscard() {
+        return rxDiscard;
+    }
+
+    public int getRxJitterMeanUsec() {
+        return rxJitterMeanUsec;
+    }
+
+    public long getTxPkts() {
+        return txPkts;
+    }
+
+    public long getTxLoss() {
+        return txLoss;
+    }
+
+    public int getTxJitterMeanUsec() {
+        return txJitterMeanUsec;
+    }
+
+    public long getPostDialDelay() {
+        return postDialDelay;
+    }
+
+    public long getTimeToFirstAudio() {
+        return timeToFirstAudio;
+    }
+
+    /**
+     * @return last estimated MOS, 0 if not available
+     */
+    public float getMos() {
+        return mos;
+    }
+
+    @Override
+    public String toString() {
+        return (incoming ? "Incoming" : "Outgoing") + " call " + callID + " with " + remoteUri
+                + " ended at " + endTimestamp + ", duration: " + duration + "s, status: " + callStatus
+                + ", codec: " + audioCodec + ", rx loss: " + rxLoss + "/" + rxPkts + ", MOS: " + mos;
+    }
+}
@@ -0,0 +1,409 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Local store of the {@link CallRecord}s, written when the calls are disconnected.
+ * <p>
+ * Records are appended to memory mapped segment files of {@link #SEGMENT_SIZE} bytes, each one
+ * prefixed by its length, which is written after the record so a partially written record is
+ * never read. When a segment is full a new one is created, and the oldest ones are deleted
+ * beyond {@link #MAX_SEGMENTS}. For each segment, a small in-memory index keeps the time range
+ * of its records and a bloom filter of their remote URIs, so queries skip the segments
+ * which can't contain matching records.
+ * <p>
+ * Queries return a {@link Cursor}, which maps and reads one segment at a time, so the records
+ * can be paged without loading all of them in memory. The store is available only in the
+ * process in which the service runs.
+ */
+@SuppressWarnings("unused")
+public class CallRecordStore {
+
+    private static final String TAG = CallRecordStore.class.getSimpleName();
+
+    public static final int SEGMENT_SIZE = 256 * 1024;
+    public static final int MAX_SEGMENTS = 16;
+
+    private static final String DIRECTORY = "sipservice_cdr";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".cdr";
+    private static final int MAGIC = 0x43445253;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOOM_WORDS = 16;
+
+    private static class Segment {
+        final long sequence;
+        final File file;
+        int end = HEADER_SIZE;
+        int count;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        final long[] uriBloom = new long[BLOOM_WORDS];
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        void index(long timestamp, String remoteUri) {
+            count++;
+            if (timestamp < minTimestamp) minTimestamp = timestamp;
+            if (timestamp > maxTimestamp) maxTimestamp = timestamp;
+
+            int hash = remoteUri == null ? 0 : remoteUri.hashCode();
+            setBit(hash);
+            setBit(hash * 0x9E3779B1);
+        }
+
+        boolean mightContain(long fromTimestamp, long toTimestamp, String remoteUri) {
+            if (count == 0 || maxTimestamp < fromTimestamp || minTimestamp > toTimestamp) return false;
+            if (remoteUri == null) return true;
+
+            int hash = remoteUri.hashCode();
+            return isBitSet(hash) && isBitSet(hash * 0x9E3779B1);
+        }
+
+        private void setBit(int hash) {
+            int bit = (hash >>> 1) % (BLOOM_WORDS * 64);
+            uriBloom[bit / 64] |= 1L << (bit % 64);
+        }
+
+        private boolean isBitSet(int hash) {
+            int bit = (hash >>> 1) % (BLOOM_WORDS * 64);
+            return (uriBloom[bit / 64] & (1L << (bit % 64))) != 0;
+        }
+    }
+
+    private static volatile CallRecordStore instance;
+
+    private final File mDirectory;
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    private MappedByteBuffer mActiveBuffer;
+    private boolean mOpened;
+
+    /**
+     * @param directory directory of the segment files, created on first use
+     */
+    CallRecordStore(File directory) {
+        mDirectory = directory;
+    }
+
+    public static CallRecordStore getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CallRecordStore.class) {
+                if (instance == null) {
+                    instance = new CallRecordStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Appends a record.
+     * @param record call record
+     */
+    synchronized void append(CallRecord record) {
+        try {
+            open();
+
+            byte[] bytes = record.toBytes();
+            if (HEADER_SIZE + 4 + bytes.length > SEGMENT_SIZE) {
+                Logger.error(TAG, "Call record too big, not stored");
+                return;
+            }
+
+            Segment active = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+            if (active == null || mActiveBuffer == null || active.end + 4 + bytes.length > SEGMENT_SIZE) {
+                active = rotate(active == null ? 0 : active.sequence + 1);
+            }
+
+            mActiveBuffer.position(active.end + 4);
+            mActiveBuffer.put(bytes);
+            mActiveBuffer.putInt(active.end, bytes.length);
+
+            active.end += 4 + bytes.length;
+            active.index(record.getEndTimestamp(), record.getRemoteUri());
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while storing call record", exc);
+        }
+    }
+
+    /**
+     * Queries the records.
+     * @param fromTimestamp minimum end timestamp of the records, inclusive
+     * @param toTimestamp maximum end timestamp of the records, inclusive
+     * @param remoteUri remote URI of the records, null for any
+     * @param newestFirst true to get the records from the newest to the oldest,
+     *                    false to get them in the order in which they have been stored
+     * @return cursor on the matching records, to close when done
+     */
+    public synchronized Cursor query(long fromTimestamp, long toTimestamp, String remoteUri, boolean newestFirst) {
+        try {
+            open();
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while opening call records", exc);
+        }
+
+        ArrayList<Segment> matching = new ArrayList<>();
+        for (Segment segment : mSegments) {
+            if (segment.mightContain(fromTimestamp, toTimestamp, remoteUri)) {
+                // copy the end and count, as the active segment keeps growing
+                Segment copy = new Segment(segment.sequence, segment.file);
+                copy.end = segment.end;
+                copy.count = segment.count;
+                matching.add(copy);
+            }
+        }
+
+        return new Cursor(matching, fromTimestamp, toTimestamp, remoteUri, newestFirst);
+    }
+
+    /**
+     * @return number of stored records
+     */
+    public synchronized int getRecordCount() {
+        try {
+            open();
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while opening call records", exc);
+        }
+
+        int count = 0;
+        for (Segment segment : mSegments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    /**
+     * Deletes all the records.
+     */
+    public synchronized void clear() {
+        mActiveBuffer = null;
+        for (Segment segment : mSegments) {
+            if (!segment.file.delete()) {
+                Logger.error(TAG, "Unable to delete " + segment.file);
+            }
+        }
+        mSegments.clear();
+    }
+
+    private void open() throws Exception {
+        if (mOpened) return;
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + mDirectory);
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    long diff = getSequence(first) - getSequence(second);
+                    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                }
+            });
+
+            for (File file : files) {
+                long sequence = getSequence(file);
+                if (sequence < 0) continue;
+
+                Segment segment = new Segment(sequence, file);
+                ByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY);
+                if (buffer == null || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    Logger.error(TAG, "Skipping invalid call records segment " + file);
+                    continue;
+                }
+
+                int position = HEADER_SIZE;
+                int length;
+                while (position + 4 <= SEGMENT_SIZE
+                        && (length = buffer.getInt(position)) > 0
+                        && position + 4 + length <= SEGMENT_SIZE) {
+                    buffer.position(position + 4);
+                    long timestamp = buffer.getLong(position + 4 + 1);
+                    segment.index(timestamp, CallRecord.readRemoteUri(buffer));
+                    position += 4 + length;
+                }
+                segment.end = position;
+                mSegments.add(segment);
+            }
+        }
+
+        if (!mSegments.isEmpty()) {
+            mActiveBuffer = map(mSegments.get(mSegments.size() - 1).file, FileChannel.MapMode.READ_WRITE);
+        }
+
+        mOpened = true;
+    }
+
+    private Segment rotate(long sequence) throws Exception {
+        File file = new File(mDirectory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        mActiveBuffer = map(file, FileChannel.MapMode.READ_WRITE);
+        if (mActiveBuffer == null) throw new IllegalStateException("Unable to map " + file);
+
+        mActiveBuffer.putInt(4, VERSION);
+        mActiveBuffer.putLong(8, sequence);
+        mActiveBuffer.putInt(0, MAGIC);
+
+        Segment segment = new Segment(sequence, file);
+        mSegments.add(segment);
+
+        while (mSegments.size() > MAX_SEGMENTS) {
+            Segment oldest = mSegments.remove(0);
+            if (!oldest.file.delete()) {
+                Logger.error(TAG, "Unable to delete " + oldest.file);
+            }
+        }
+
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+            // the mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(mode, 0, SEGMENT_SIZE);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while mapping " + file, exc);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (Exception ignored) { }
+            }
+        }
+    }
+
+    private static long getSequence(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException exc) {
+            return -1;
+        }
+    }
+
+    /**
+     * Cursor on the records matching a query. It reads one segment at a time and
+     * deserializes only the matching records. Not thread safe.
+     */
+    public static class Cursor implements Closeable {
+        private final ArrayList<Segment> mSegments;
+        private final long mFromTimestamp;
+        private final long mToTimestamp;
+        private final String mRemoteUri;
+        private final boolean mNewestFirst;
+
+        private int mSegmentIndex = -1;
+        private ByteBuffer mBuffer;
+        private int[] mOffsets;
+        private int mOffsetCount;
+        private int mOffsetIndex;
+        private CallRecord mRecord;
+
+        private Cursor(ArrayList<Segment> segments, long fromTimestamp, long toTimestamp,
+                       String remoteUri, boolean newestFirst) {
+            mSegments = segments;
+            mFromTimestamp = fromTimestamp;
+            mToTimestamp = toTimestamp;
+            mRemoteUri = remoteUri;
+            mNewestFirst = newestFirst;
+        }
+
+        /**
+         * Moves to the next matching record.
+         * @return true if there is a record, false if there are no more records
+         */
+        public boolean moveToNext() {
+            while (true) {
+                if (mBuffer == null || mOffsetIndex >= mOffsetCount) {
+                    if (!openNextSegment()) {
+                        mRecord = null;
+                        return false;
+                    }
+                    continue;
+                }
+
+                int index = mNewestFirst ? mOffsetCount - 1 - mOffsetIndex : mOffsetIndex;
+                mOffsetIndex++;
+                int offset = mOffsets[index];
+
+                long timestamp = mBuffer.getLong(offset + 1);
+                if (timestamp < mFromTimestamp || timestamp > mToTimestamp) continue;
+
+                if (mRemoteUri != null) {
+                    mBuffer.position(offset);
+                    if (!mRemoteUri.equals(CallRecord.readRemoteUri(mBuffer))) continue;
+                }
+
+                mBuffer.position(offset);
+                mRecord = CallRecord.fromBytes(mBuffer);
+                if (mRecord != null) return true;
+            }
+        }
+
+        /**
+         * @return current record, or null if the cursor is not positioned on a record
+         */
+        public CallRecord getRecord() {
+            return mRecord;
+        }
+
+        @Override
+        public void close() {
+            mBuffer = null;
+            mOffsets = null;
+            mRecord = null;
+            mSegmentIndex = mSegments.size();
+        }
+
+        private boolean openNextSegment() {
+            mBuffer = null;
+
+            while (++mSegmentIndex < mSegments.size()) {
+                Segment segment = mSegments.get(mNewestFirst ? mSegments.size() - 1 - mSegmentIndex : mSegmentIndex);
+
+                // the segment may have been deleted by the rotation after the query
+                if (!segment.file.exists()) continue;
+
+                ByteBuffer buffer = map(segment.file, FileChannel.MapMode.READ_ONLY);
+                if (buffer == null) continue;
+
+                if (mOffsets == null || mOffsets.length < segment.count) {
+                    mOffsets = new int[segment.count];
+                }
+
+                mOffsetCount = 0;
+                int position = HEADER_SIZE;
+                while (position < segment.end && mOffsetCount < segment.count) {
+                    mOffsets[mOffsetCount++] = position + 4;
+                    position += 4 + buffer.getInt(position);
+                }
+
+                mOffsetIndex = 0;
+                mBuffer = buffer;
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe registry of the active calls of all the accounts.
+ * PJSUA call IDs are unique across accounts and range from 0 to the configured max calls
+ * (at most {@link #MAX_CALLS}), so calls are stored in a fixed array indexed by call ID.
+ * Call counters are maintained atomically on every change, so checking the number of
+ * ongoing calls doesn't require to iterate over the accounts.
+ */
+class CallRegistry {
+
+    /**
+     * Highest number of calls supported by PJSUA (PJSUA_MAX_CALLS).
+     */
+    static final int MAX_CALLS = 32;
+
+    private final AtomicReferenceArray<SipCall> mCalls = new AtomicReferenceArray<>(MAX_CALLS);
+    private final ConcurrentHashMap<Integer, SipCall> mOutOfRangeCalls = new ConcurrentHashMap<>();
+    private final AtomicInteger mCallCount = new AtomicInteger();
+
+    /**
+     * Reserves a call slot before the call ID is known, e.g. before making an outgoing call.
+     * The reservation is counted as an active call until it's either released or converted
+     * by {@link #register(SipCall, boolean)}.
+     * @return total number of active calls, including the reservation
+     */
+    int reserve() {
+        return mCallCount.incrementAndGet();
+    }
+
+    /**
+     * Releases a reservation made with {@link #reserve()}.
+     */
+    void release() {
+        mCallCount.decrementAndGet();
+    }
+
+    /**
+     * Registers a call.
+     * @param call call to register
+     * @param reserved true if a slot has been reserved for this call with {@link #reserve()}
+     * @return total number of active calls
+     */
+    int register(SipCall call, boolean reserved) {
+        SipCall previous = put(call.getId(), call);
+
+        if (previous != null) {
+            previous.getAccount().decrementCallCount();
+        }
+        call.getAccount().incrementCallCount();
+
+        if (previous != null) {
+            if (reserved) mCallCount.decrementAndGet();
+            return mCallCount.get();
+        }
+
+        return reserved ? mCallCount.get() : mCallCount.incrementAndGet();
+    }
+
+    /**
+     * Removes a call from the registry.
+     * @param callID call ID
+     * @return the removed call, or null if there's no call with the given ID
+     */
+    SipCall unregister(int callID) {
+        SipCall call = isInRange(callID) ? mCalls.getAndSet(callID, null) : mOutOfRangeCalls.remove(callID);
+
+        if (call != null) {
+            call.getAccount().decrementCallCount();
+            mCallCount.decrementAndGet();
+        }
+
+        return call;
+    }
+
+    /**
+     * Removes all the calls belonging to an account.
+     * @param account account
+     */
+    void unregisterAll(SipAccount account) {
+        for (int callID : getCallIDs(account)) {
+            SipCall call = get(callID);
+            if (call != null && call.getAccount() == account) {
+                unregister(callID);
+            }
+        }
+    }
+
+    /**
+     * Removes all the calls and the reservations, e.g. when the sip stack is stopped.
+     * @return the removed calls
+     */
+    List<SipCall> clear() {
+        List<SipCall> calls = new ArrayList<>();
+
+        for (int callID = 0; callID < MAX_CALLS; callID++) {
+            SipCall call = unregister(callID);
+            if (call != null) calls.add(call);
+        }
+
+        for (int callID : mOutOfRangeCalls.keySet()) {
+            SipCall call = unregister(callID);
+            if (call != null) calls.add(call);
+        }
+
+        mCallCount.set(0);
+        return calls;
+    }
+
+    /**
+     * Gets a call.
+     * @param callID call ID
+     * @return the call or null if there's no call with the given ID
+     */
+    SipCall get(int callID) {
+        return isInRange(callID) ? mCalls.get(callID) : mOutOfRangeCalls.get(callID);
+    }
+
+    /**
+     * Gets a call belonging to an account.
+     * @param accountID account ID
+     * @param callID call ID
+     * @return the call or null if the account has no call with the given ID
+     */
+    SipCall get(String accountID, int callID) {
+        SipCall call = get(callID);
+
+        if (call == null || !call.getAccount().getData().getIdUri().equals(accountID)) return null;
+        return call;
+    }
+
+    /**
+     * Gets a snapshot of the IDs of the calls belonging to an account.
+     * @param account account
+     * @return set of call IDs
+     */
+    Set<Integer> getCallIDs(SipAccount account) {
+        Set<Integer> callIDs = new HashSet<>();
+
+        for (int i = 0; i < MAX_CALLS; i++) {
+            SipCall call = mCalls.get(i);
+            if (call != null && call.getAccount() == account) {
+                callIDs.add(i);
+            }
+        }
+
+        for (SipCall call : mOutOfRangeCalls.values()) {
+            if (call.getAccount() == account) {
+                callIDs.add(call.getId());
+            }
+        }
+
+        return callIDs;
+    }
+
+    /**
+     * Gets the number of active calls of all the accounts, including the reservations.
+     * @return number of active calls
+     */
+    int getCallCount() {
+        return mCallCount.get();
+    }
+
+    private SipCall put(int callID, SipCall call) {
+        return isInRange(callID) ? mCalls.getAndSet(callID, call) : mOutOfRangeCalls.put(callID, call);
+    }
+
+    private static boolean isInRange(int callID) {
+        return callID >= 0 && callID < MAX_CALLS;
+    }
+}
@@ -0,0 +1,171 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+/**
+ * Timestamps of the setup phases of a call, taken from the INVITE transaction events,
+ * and the latencies computed from them. The timestamps are monotonic and relative to the
+ * INVITE, which has been sent for outgoing calls and received for incoming calls.
+ * Each phase is -1 if it has not been reached.
+ */
+@SuppressWarnings("unused")
+public class CallSetupStats implements Parcelable {
+
+    private boolean incoming;
+    private long invite = -1;
+    private long trying = -1;
+    private long ringing = -1;
+    private long answer = -1;
+    private long ack = -1;
+    private long mediaActive = -1;
+
+    CallSetupStats(boolean incoming) {
+        this.incoming = incoming;
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<CallSetupStats> CREATOR =
+            new Parcelable.Creator<CallSetupStats>() {
+                @Override
+                public CallSetupStats createFromParcel(final Parcel in) {
+                    return new CallSetupStats(in);
+                }
+
+                @Override
+                public CallSetupStats[] newArray(final int size) {
+                    return new CallSetupStats[size];
+                }
+            };
+
+    private CallSetupStats(Parcel in) {
+        this.incoming = in.readByte() == 1;
+        this.invite = in.readLong();
+        this.trying = in.readLong();
+        this.ringing = in.readLong();
+        this.answer = in.readLong();
+        this.ack = in.readLong();
+        this.mediaActive = in.readLong();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeByte((byte) (incoming ? 1 : 0));
+        parcel.writeLong(invite);
+        parcel.writeLong(trying);
+        parcel.writeLong(ringing);
+        parcel.writeLong(answer);
+        parcel.writeLong(ack);
+        parcel.writeLong(mediaActive);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    void onInvite() {
+        if (invite < 0) invite = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records a response to the INVITE, sent or received.
+     * @param statusCode SIP status code
+     */
+    void onInviteResponse(int statusCode) {
+        if (statusCode == 100) {
+            if (trying < 0) trying = elapsed();
+        } else if (statusCode == 180 || statusCode == 183) {
+            if (ringing < 0) ringing = elapsed();
+        } else if (statusCode >= 200 && statusCode < 300) {
+            if (answer < 0) answer = elapsed();
+        }
+    }
+
+    void onConfirmed() {
+        if (ack < 0) ack = elapsed();
+    }
+
+    void onMediaActive() {
+        if (mediaActive < 0) mediaActive = elapsed();
+    }
+
+    private long elapsed() {
+        return invite < 0 ? -1 : SystemClock.elapsedRealtime() - invite;
+    }
+
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the 100 Trying
+     */
+    public long getTrying() {
+        return trying;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the first 180 Ringing or 183 Session Progress
+     */
+    public long getRinging() {
+        return ringing;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the 200 OK
+     */
+    public long getAnswer() {
+        return answer;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the ACK
+     */
+    public long getAck() {
+        return ack;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the first active audio media
+     */
+    public long getMediaActive() {
+        return mediaActive;
+    }
+
+    /**
+     * Gets the post dial delay, i.e. the time from the INVITE to the first ringing
+     * or session progress.
+     * @return post dial delay in milliseconds, or -1 if not available
+     */
+    public long getPostDialDelay() {
+        return ringing;
+    }
+
+    /**
+     * @return milliseconds from the 200 OK to the first active audio media, or -1 if not available
+     */
+    public long getAnswerToMediaLatency() {
+        return answer < 0 || mediaActive < 0 ? -1 : mediaActive - answer;
+    }
+
+    /**
+     * @return milliseconds from the INVITE to the first active audio media, or -1 if not available
+     */
+    public long getTimeToFirstAudio() {
+        return mediaActive;
+    }
+
+    @Override
+    public String toString() {
+        return (incoming ? "Incoming" : "Outgoing") + " call setup (ms from INVITE)\n"
+                + "100: " + trying + "\n"
+                + "180/183: " + ringing + "\n"
+                + "200: " + answer + "\n"
+                + "ACK: " + ack + "\n"
+                + "Media active: " + mediaActive + "\n"
+                + "Post dial delay: " + getPostDialDelay() + "\n"
+                + "Answer to media: " + getAnswerToMediaLatency() + "\n";
+    }
+}
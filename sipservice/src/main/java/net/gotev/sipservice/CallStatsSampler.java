@@ -0,0 +1,239 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.JbufState;
+import org.pjsip.pjsua2.LossType;
+import org.pjsip.pjsua2.RtcpStat;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Periodically samples the RTCP and jitter buffer statistics of the audio stream of a call,
+ * on the service worker thread, keeping the most recent samples in a ring buffer which is
+ * allocated once per call. Every sample also updates the quality estimate of the call and
+ * the quality histograms aggregated across the calls.
+ * <p>
+ * Sampling is started and stopped from the pjsip callback thread, while the samples are
+ * taken on the worker thread. A sample may be in progress when the call is disconnected, so
+ * {@link #stop(Runnable)} hands over the deletion of the call to it instead of waiting,
+ * since waiting in the callback could deadlock with the pjsua locks taken by the sample.
+ */
+class CallStatsSampler implements Runnable {
+
+    private static final String LOG_TAG = CallStatsSampler.class.getSimpleName();
+
+    /**
+     * Number of samples kept for each call.
+     */
+    static final int CAPACITY = 120;
+
+    private final SipCall mCall;
+    private final long mIntervalMillis;
+
+    private final long[] mTimestamps = new long[CAPACITY];
+    private final int[][] mValues = new int[CallStatsSeries.METRICS][CAPACITY];
+    private int mHead;
+    private int mCount;
+
+    private long mLastRxPkt;
+    private long mLastRxLoss;
+    private long mLastBurstLosses;
+    private long mLastRandomLosses;
+    private long mLastJbufDiscard;
+    private CallQualityEstimator mQualityEstimator;
+    private String mCodecId;
+
+    private static final int STOPPED = 0;
+    private static final int IDLE = 1;
+    private static final int SAMPLING = 2;
+
+    private final AtomicInteger mState = new AtomicInteger(STOPPED);
+    private volatile Runnable mOnStopped;
+
+    CallStatsSampler(SipCall call, long intervalMillis) {
+        mCall = call;
+        mIntervalMillis = intervalMillis;
+    }
+
+    void start() {
+        if (mIntervalMillis <= 0 || !mState.compareAndSet(STOPPED, IDLE)) return;
+        schedule();
+    }
+
+    /**
+     * Stops sampling.
+     * @param onStopped job to run as soon as no sample is in progress, e.g. to delete the
+     *                  call. It's run either immediately on the calling thread or at the
+     *                  end of the sample in progress on the worker thread. May be null.
+     */
+    void stop(Runnable onStopped) {
+        mOnStopped = onStopped;
+        mCall.getAccount().getService().dequeueJob(this);
+
+        while (true) {
+            // the sample in progress runs the job when it finds out it has been stopped
+            if (mState.compareAndSet(SAMPLING, STOPPED)) return;
+
+            int state = mState.get();
+            if (state != SAMPLING && mState.compareAndSet(state, STOPPED)) break;
+        }
+
+        mOnStopped = null;
+        if (onStopped != null) onStopped.run();
+    }
+
+    @Override
+    public void run() {
+        if (!mState.compareAndSet(IDLE, SAMPLING)) return;
+
+        boolean registered = isRegistered();
+
+        try {
+            if (registered) sample();
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while sampling call stats", exc);
+        }
+
+        if (!registered) {
+            // the call is being disconnected or has been dropped, so sampling ends here
+            // even if it's never stopped
+            if (mState.compareAndSet(SAMPLING, STOPPED)) return;
+        } else if (mState.compareAndSet(SAMPLING, IDLE)) {
+            schedule();
+            return;
+        }
+
+        // stopped during the sample, which has to run the job handed over by stop()
+        Runnable onStopped = mOnStopped;
+        mOnStopped = null;
+        if (onStopped != null) onStopped.run();
+    }
+
+    /**
+     * @return false if the call has been removed, i.e. it's being disconnected
+     */
+    private boolean isRegistered() {
+        return mCall.getAccount().getService().getCallRegistry().get(mCall.getId()) == mCall;
+    }
+
+    private void schedule() {
+        mCall.getAccount().getService().enqueueDelayedJob(this, mIntervalMillis, JobPriority.MEDIA);
+    }
+
+    private void sample() throws Exception {
+        long rxPkt;
+        long rxLoss;
+        long burstLosses;
+        long randomLosses;
+        long jbufDiscard;
+        int index = mHead;
+
+        try (NativeScope scope = new NativeScope()) {
+            StreamStat streamStat = scope.add(mCall.getStreamStat(0));
+            RtcpStat rtcp = streamStat.getRtcp();
+            RtcpStreamStat rxStat = rtcp.getRxStat();
+            JbufState jbuf = streamStat.getJbuf();
+
+            if (mQualityEstimator == null) {
+                StreamInfo streamInfo = scope.add(mCall.getStreamInfo(0));
+                mQualityEstimator = new CallQualityEstimator(streamInfo.getCodecName());
+                mCodecId = QualityHistograms.getCodecId(streamInfo.getCodecName(), streamInfo.getCodecClockRate());
+            }
+
+            rxPkt = rxStat.getPkt();
+            rxLoss = rxStat.getLoss();
+            LossType lossType = rxStat.getLossType();
+            burstLosses = lossType.getBurst();
+            randomLosses = lossType.getRandom();
+            jbufDiscard = jbuf.getDiscard();
+
+            mTimestamps[index] = System.currentTimeMillis();
+            mValues[CallStatsSeries.METRIC_RX_LOSS][index] = (int) Math.max(0, rxLoss - mLastRxLoss);
+            mValues[CallStatsSeries.METRIC_RX_JITTER_USEC][index] = rxStat.getJitterUsec().getLast();
+            mValues[CallStatsSeries.METRIC_RTT_USEC][index] = rtcp.getRttUsec().getLast();
+            mValues[CallStatsSeries.METRIC_JBUF_DELAY_MSEC][index] = (int) jbuf.getAvgDelayMsec();
+            mValues[CallStatsSeries.METRIC_JBUF_DISCARD][index] = (int) Math.max(0, jbufDiscard - mLastJbufDiscard);
+        }
+
+        boolean qualityChanged = mQualityEstimator.update(
+                Math.max(0, rxPkt - mLastRxPkt),
+                mValues[CallStatsSeries.METRIC_RX_LOSS][index],
+                Math.max(0, burstLosses - mLastBurstLosses),
+                Math.max(0, randomLosses - mLastRandomLosses),
+                mValues[CallStatsSeries.METRIC_RTT_USEC][index],
+                mValues[CallStatsSeries.METRIC_JBUF_DELAY_MSEC][index]);
+        mValues[CallStatsSeries.METRIC_MOS_X100][index] = Math.round(mQualityEstimator.getMos() * 100);
+
+        recordHistograms(Math.max(0, rxPkt - mLastRxPkt), mValues[CallStatsSeries.METRIC_RX_LOSS][index],
+                         mValues[CallStatsSeries.METRIC_RX_JITTER_USEC][index],
+                         mValues[CallStatsSeries.METRIC_MOS_X100][index]);
+
+        mLastRxPkt = rxPkt;
+        mLastRxLoss = rxLoss;
+        mLastBurstLosses = burstLosses;
+        mLastRandomLosses = randomLosses;
+        mLastJbufDiscard = jbufDiscard;
+        mHead = (mHead + 1) % CAPACITY;
+        if (mCount < CAPACITY) mCount++;
+
+        mCall.getAccount().getService().getBroadcastEmitter().callStatsSample(
+                mCall.getAccount().getData().getIdUri(), mCall.getId(), mTimestamps[index],
+                mValues[CallStatsSeries.METRIC_RX_LOSS][index],
+                mValues[CallStatsSeries.METRIC_RX_JITTER_USEC][index],
+                mValues[CallStatsSeries.METRIC_RTT_USEC][index],
+                mValues[CallStatsSeries.METRIC_JBUF_DELAY_MSEC][index],
+                mValues[CallStatsSeries.METRIC_JBUF_DISCARD][index]);
+
+        if (qualityChanged) {
+            mCall.getAccount().getService().getBroadcastEmitter().callQuality(
+                    mCall.getAccount().getData().getIdUri(), mCall.getId(),
+                    mQualityEstimator.isDegraded(), mQualityEstimator.getMos(),
+                    mQualityEstimator.getRFactor());
+        }
+    }
+
+    private void recordHistograms(long rxPkts, long rxLoss, int rxJitterUsec, int mosX100) {
+        // nothing received in the interval (e.g. on hold), which is not representative of the quality
+        if (rxPkts == 0) return;
+
+        SipService service = mCall.getAccount().getService();
+        QualityHistograms histograms = service.getQualityHistograms();
+        if (histograms == null) return;
+
+        JitterBufferTuner.NetworkClass networkClass = service.getJitterBufferTuner().getNetworkClass();
+        histograms.record(QualityHistograms.METRIC_JITTER_USEC, mCodecId, networkClass, rxJitterUsec);
+        histograms.record(QualityHistograms.METRIC_LOSS_PER_10000, mCodecId, networkClass,
+                          rxLoss * 10000 / (rxPkts + rxLoss));
+        histograms.record(QualityHistograms.METRIC_MOS_X100, mCodecId, networkClass, mosX100);
+    }
+
+    /**
+     * @return last quality estimate, or null if no sample has been taken yet
+     */
+    CallQualityEstimator getQualityEstimator() {
+        return mQualityEstimator;
+    }
+
+    /**
+     * Copies the samples taken so far, from the oldest to the newest.
+     * @return call stats series
+     */
+    CallStatsSeries getSeries() {
+        int first = (mHead - mCount + CAPACITY) % CAPACITY;
+
+        long[] timestamps = new long[mCount];
+        int[][] values = new int[CallStatsSeries.METRICS][mCount];
+
+        for (int i = 0; i < mCount; i++) {
+            int index = (first + i) % CAPACITY;
+            timestamps[i] = mTimestamps[index];
+            for (int metric = 0; metric < CallStatsSeries.METRICS; metric++) {
+                values[metric][i] = mValues[metric][index];
+            }
+        }
+
+        return new CallStatsSeries(mCall.getId(), mIntervalMillis, timestamps, values);
+    }
+}
@@ -0,0 +1,208 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Time series of the RTCP and jitter buffer samples taken periodically during a call,
+ * from the oldest to the newest. Every metric is stored in a primitive array, indexed
+ * by sample, so the series is parceled without boxing.
+ */
+@SuppressWarnings("unused")
+public class CallStatsSeries implements Parcelable {
+
+    /**
+     * Received packets lost since the previous sample.
+     */
+    public static final int METRIC_RX_LOSS = 0;
+
+    /**
+     * Last interarrival jitter of the received stream, in microseconds.
+     */
+    public static final int METRIC_RX_JITTER_USEC = 1;
+
+    /**
+     * Last round trip time, in microseconds.
+     */
+    public static final int METRIC_RTT_USEC = 2;
+
+    /**
+     * Average jitter buffer delay, in milliseconds.
+     */
+    public static final int METRIC_JBUF_DELAY_MSEC = 3;
+
+    /**
+     * Frames discarded by the jitter buffer since the previous sample.
+     */
+    public static final int METRIC_JBUF_DISCARD = 4;
+
+    /**
+     * Estimated mean opinion score, multiplied by 100.
+     */
+    public static final int METRIC_MOS_X100 = 5;
+
+    static final int METRICS = 6;
+
+    private int callID;
+    private long samplingInterval;
+    private long[] timestamps;
+    private int[][] values;
+
+    CallStatsSeries(int callID, long samplingInterval, long[] timestamps, int[][] values) {
+        this.callID = callID;
+        this.samplingInterval = samplingInterval;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<CallStatsSeries> CREATOR =
+            new Parcelable.Creator<CallStatsSeries>() {
+                @Override
+                public CallStatsSeries createFromParcel(final Parcel in) {
+                    return new CallStatsSeries(in);
+                }
+
+                @Override
+                public CallStatsSeries[] newArray(final int size) {
+                    return new CallStatsSeries[size];
+                }
+            };
+
+    private CallStatsSeries(Parcel in) {
+        this.callID = in.readInt();
+        this.samplingInterval = in.readLong();
+        this.timestamps = in.createLongArray();
+        this.values = new int[METRICS][];
+        for (int i = 0; i < METRICS; i++) {
+            this.values[i] = in.createIntArray();
+        }
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeInt(callID);
+        parcel.writeLong(samplingInterval);
+        parcel.writeLongArray(timestamps);
+        for (int i = 0; i < METRICS; i++) {
+            parcel.writeIntArray(values[i]);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public int getCallID() {
+        return callID;
+    }
+
+    /**
+     * @return interval between two samples, in milliseconds
+     */
+    public long getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return timestamps of the samples, in milliseconds since epoch
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Gets the values of a metric.
+     * @param metric one of the METRIC_ constants
+     * @return values, one per sample
+     */
+    public int[] getValues(int metric) {
+        return values[metric];
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @return value of the newest sample, 0 if the series is empty
+     */
+    public int getLast(int metric) {
+        int[] series = values[metric];
+        return series.length == 0 ? 0 : series[series.length - 1];
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @return minimum value, 0 if the series is empty
+     */
+    public int getMin(int metric) {
+        int[] series = values[metric];
+        if (series.length == 0) return 0;
+
+        int min = series[0];
+        for (int value : series) {
+            if (value < min) min = value;
+        }
+        return min;
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @return maximum value, 0 if the series is empty
+     */
+    public int getMax(int metric) {
+        int[] series = values[metric];
+        if (series.length == 0) return 0;
+
+        int max = series[0];
+        for (int value : series) {
+            if (value > max) max = value;
+        }
+        return max;
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @return mean value, 0 if the series is empty
+     */
+    public int getMean(int metric) {
+        int[] series = values[metric];
+        if (series.length == 0) return 0;
+
+        long sum = 0;
+        for (int value : series) {
+            sum += value;
+        }
+        return (int) (sum / series.length);
+    }
+
+    /**
+     * @param metric one of the METRIC_ constants
+     * @return sum of the values, e.g. the total packets lost within the series
+     */
+    public long getSum(int metric) {
+        long sum = 0;
+        for (int value : values[metric]) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "Call " + callID + ": " + size() + " samples every " + samplingInterval + "ms\n"
+                + "Loss: " + getSum(METRIC_RX_LOSS) + "\n"
+                + "Jitter (usec): " + getMin(METRIC_RX_JITTER_USEC) + "/" + getMean(METRIC_RX_JITTER_USEC)
+                + "/" + getMax(METRIC_RX_JITTER_USEC) + "\n"
+                + "RTT (usec): " + getMin(METRIC_RTT_USEC) + "/" + getMean(METRIC_RTT_USEC)
+                + "/" + getMax(METRIC_RTT_USEC) + "\n"
+                + "Jitter buffer delay (msec): " + getMin(METRIC_JBUF_DELAY_MSEC) + "/"
+                + getMean(METRIC_JBUF_DELAY_MSEC) + "/" + getMax(METRIC_JBUF_DELAY_MSEC) + "\n"
+                + "Jitter buffer discard: " + getSum(METRIC_JBUF_DISCARD) + "\n"
+                + "MOS (x100): " + getMin(METRIC_MOS_X100) + "/" + getMean(METRIC_MOS_X100)
+                + "/" + getMax(METRIC_MOS_X100) + "\n";
+    }
+}
@@ -0,0 +1,131 @@
+package net.gotev.sipservice;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+
+/**
+ * Ordered list of sip service commands, sent to the service with a single request and executed
+ * back to back on the service worker thread, without other commands in between.
+ * Only call and registration status commands can be batched: the account and configuration
+ * commands must run on their own, after all the commands sent before them.
+ * Send it with {@link SipServiceCommand#executeBatch(android.content.Context, CommandBatch)}
+ * and receive the aggregated result in
+ * {@link BroadcastEventReceiver#onBatchResult(String, int, ArrayList)}.
+ */
+@SuppressWarnings("unused")
+public class CommandBatch implements SipServiceConstants {
+
+    private final ArrayList<Intent> commands = new ArrayList<>();
+
+    public CommandBatch makeCall(String accountID, String numberToCall, boolean isVideo, boolean isVideoConference) {
+        Intent intent = command(ACTION_MAKE_CALL, accountID);
+        intent.putExtra(PARAM_NUMBER, numberToCall);
+        intent.putExtra(PARAM_IS_VIDEO, isVideo);
+        intent.putExtra(PARAM_IS_VIDEO_CONF, isVideoConference);
+        return add(intent);
+    }
+
+    public CommandBatch makeCall(String accountID, String numberToCall) {
+        return makeCall(accountID, numberToCall, false, false);
+    }
+
+    public CommandBatch getCallStatus(String accountID, int callID) {
+        return add(callCommand(ACTION_GET_CALL_STATUS, accountID, callID));
+    }
+
+    public CommandBatch hangUpCall(String accountID, int callID) {
+        return add(callCommand(ACTION_HANG_UP_CALL, accountID, callID));
+    }
+
+    public CommandBatch hangUpActiveCalls(String accountID) {
+        return add(command(ACTION_HANG_UP_CALLS, accountID));
+    }
+
+    public CommandBatch holdActiveCalls(String accountID) {
+        return add(command(ACTION_HOLD_CALLS, accountID));
+    }
+
+    public CommandBatch sendDTMF(String accountID, int callID, String dtmfTone) {
+        Intent intent = callCommand(ACTION_SEND_DTMF, accountID, callID);
+        intent.putExtra(PARAM_DTMF, dtmfTone);
+        return add(intent);
+    }
+
+    public CommandBatch acceptIncomingCall(String accountID, int callID, boolean isVideo) {
+        Intent intent = callCommand(ACTION_ACCEPT_INCOMING_CALL, accountID, callID);
+        intent.putExtra(PARAM_IS_VIDEO, isVideo);
+        return add(intent);
+    }
+
+    public CommandBatch declineIncomingCall(String accountID, int callID) {
+        return add(callCommand(ACTION_DECLINE_INCOMING_CALL, accountID, callID));
+    }
+
+    public CommandBatch transferCall(String accountID, int callID, String number) {
+        Intent intent = callCommand(ACTION_TRANSFER_CALL, accountID, callID);
+        intent.putExtra(PARAM_NUMBER, number);
+        return add(intent);
+    }
+
+    public CommandBatch setCallHold(String accountID, int callID, boolean hold) {
+        Intent intent = callCommand(ACTION_SET_HOLD, accountID, callID);
+        intent.putExtra(PARAM_HOLD, hold);
+        return add(intent);
+    }
+
+    public CommandBatch toggleCallHold(String accountID, int callID) {
+        return add(callCommand(ACTION_TOGGLE_HOLD, accountID, callID));
+    }
+
+    public CommandBatch setCallMute(String accountID, int callID, boolean mute) {
+        Intent intent = callCommand(ACTION_SET_MUTE, accountID, callID);
+        intent.putExtra(PARAM_MUTE, mute);
+        return add(intent);
+    }
+
+    public CommandBatch toggleCallMute(String accountID, int callID) {
+        return add(callCommand(ACTION_TOGGLE_MUTE, accountID, callID));
+    }
+
+    public CommandBatch setVideoMute(String accountID, int callID, boolean mute) {
+        Intent intent = callCommand(ACTION_SET_VIDEO_MUTE, accountID, callID);
+        intent.putExtra(PARAM_VIDEO_MUTE, mute);
+        return add(intent);
+    }
+
+    public CommandBatch getRegistrationStatus(String accountID) {
+        return add(command(ACTION_GET_REGISTRATION_STATUS, accountID));
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    ArrayList<Intent> getCommands() {
+        return commands;
+    }
+
+    private CommandBatch add(Intent intent) {
+        commands.add(intent);
+        return this;
+    }
+
+    private Intent command(String action, String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        Intent intent = new Intent(action);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        return intent;
+    }
+
+    private Intent callCommand(String action, String accountID, int callID) {
+        Intent intent = command(action, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        return intent;
+    }
+}
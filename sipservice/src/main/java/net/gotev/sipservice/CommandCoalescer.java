@@ -0,0 +1,234 @@
+package net.gotev.sipservice;
+
+import java.util.HashMap;
+
+/**
+ * Collapses redundant commands before they reach the worker thread.
+ * Commands are grouped by account, call and kind (mute, hold, call status,
+ * registration status) and only the most recent pending command of each group is looked at:
+ * <ul>
+ *     <li>a status query replaces the pending status query, so only the latest one is executed</li>
+ *     <li>a set mute/hold command replaces the pending mute/hold command, as it overrides it</li>
+ *     <li>a toggle mute/hold command cancels the pending toggle, as the two would be a no-op,
+ *     unless another command touching the same call (e.g. hold all the calls of the account)
+ *     has been enqueued after it</li>
+ * </ul>
+ * Cancelled jobs are removed from the worker queue and, if already picked up, skip execution.
+ */
+class CommandCoalescer implements SipServiceConstants {
+
+    private static final String KIND_MUTE = "mute";
+    private static final String KIND_HOLD = "hold";
+    private static final String KIND_CALL_STATUS = "callStatus";
+    private static final String KIND_REGISTRATION_STATUS = "registrationStatus";
+    private static final String ALL = "*";
+
+    private final BackgroundService mService;
+    private final HashMap<String, PendingCommand> mPending = new HashMap<>();
+    private final HashMap<String, Long> mCoalescedByAction = new HashMap<>();
+    private final HashMap<String, Long> mTouched = new HashMap<>();
+    private long mSequence;
+    private long mCoalesced;
+
+    CommandCoalescer(BackgroundService service) {
+        mService = service;
+    }
+
+    /**
+     * Checks if a command action can be coalesced.
+     * @param action command action
+     * @return true if the command can be coalesced with other pending commands
+     */
+    static boolean isCoalescable(String action) {
+        return getKind(action) != null;
+    }
+
+    /**
+     * Enqueues a command job, coalescing it with the pending command of the same group.
+     * If the action can't be coalesced, the job is simply enqueued.
+     * @param action command action
+     * @param accountID account ID
+     * @param callID call ID, ignored for account commands
+     * @param job job which executes the command
+     * @param priority lane in which to enqueue the job
+     */
+    void enqueue(String action, String accountID, int callID, Runnable job, JobPriority priority) {
+        String kind = getKind(action);
+        PendingCommand command = null;
+
+        synchronized (mPending) {
+            long sequence = ++mSequence;
+
+            if (kind != null) {
+                String key = accountID + "|" + (KIND_REGISTRATION_STATUS.equals(kind) ? "" : callID) + "|" + kind;
+                PendingCommand pending = mPending.get(key);
+
+                if (pending != null) {
+                    if (isToggle(action)) {
+                        if (isToggle(pending.action) && !isTouchedSince(accountID, callID, pending.sequence)) {
+                            cancel(pending);
+                            countCoalesced(action, 2);
+                            return;
+                        }
+                    } else {
+                        cancel(pending);
+                        countCoalesced(pending.action, 1);
+                    }
+                }
+
+                command = new PendingCommand(key, action, job, sequence);
+                mPending.put(key, command);
+            }
+
+            // touches matter only to the commands which are still pending
+            if (!mPending.isEmpty()) {
+                touch(action, accountID, callID, sequence);
+            }
+        }
+
+        mService.enqueueJob(command == null ? job : command, priority);
+    }
+
+    /**
+     * Gets the total number of commands which have not been executed because of coalescing.
+     * @return number of coalesced commands
+     */
+    long getCoalescedCommands() {
+        synchronized (mPending) {
+            return mCoalesced;
+        }
+    }
+
+    /**
+     * Gets the number of coalesced commands for each action.
+     * @return map of action to number of coalesced commands
+     */
+    HashMap<String, Long> getCoalescedCommandsByAction() {
+        synchronized (mPending) {
+            return new HashMap<>(mCoalescedByAction);
+        }
+    }
+
+    private void cancel(PendingCommand pending) {
+        pending.cancelled = true;
+        remove(pending);
+        mService.dequeueJob(pending);
+    }
+
+    private void remove(PendingCommand pending) {
+        mPending.remove(pending.key);
+        if (mPending.isEmpty()) mTouched.clear();
+    }
+
+    /**
+     * Records that a command which may change the state of a call has been enqueued.
+     * Commands without an account (batches) touch all the calls, the account commands
+     * touch all the calls of the account.
+     */
+    private void touch(String action, String accountID, int callID, long sequence) {
+        if (accountID == null) {
+            mTouched.put(ALL, sequence);
+        } else if (isCallCommand(action)) {
+            mTouched.put(accountID + "|" + callID, sequence);
+        } else if (!isRegistrationCommand(action)) {
+            mTouched.put(accountID + "|" + ALL, sequence);
+        }
+    }
+
+    private boolean isTouchedSince(String accountID, int callID, long sequence) {
+        return isTouchedSince(ALL, sequence)
+                || isTouchedSince(accountID + "|" + ALL, sequence)
+                || isTouchedSince(accountID + "|" + callID, sequence);
+    }
+
+    private boolean isTouchedSince(String key, long sequence) {
+        Long touched = mTouched.get(key);
+        return touched != null && touched > sequence;
+    }
+
+    private void countCoalesced(String action, int count) {
+        mCoalesced += count;
+        Long current = mCoalescedByAction.get(action);
+        mCoalescedByAction.put(action, (current == null ? 0 : current) + count);
+    }
+
+    private static boolean isToggle(String action) {
+        return ACTION_TOGGLE_MUTE.equals(action) || ACTION_TOGGLE_HOLD.equals(action);
+    }
+
+    private static boolean isCallCommand(String action) {
+        if (action == null) return false;
+        if (getKind(action) != null) return !ACTION_GET_REGISTRATION_STATUS.equals(action);
+
+        switch (action) {
+            case ACTION_HANG_UP_CALL:
+            case ACTION_SEND_DTMF:
+            case ACTION_ACCEPT_INCOMING_CALL:
+            case ACTION_DECLINE_INCOMING_CALL:
+            case ACTION_TRANSFER_CALL:
+            case ACTION_GET_CALL_STATS_SERIES:
+            case ACTION_SET_INCOMING_VIDEO:
+            case ACTION_SET_SELF_VIDEO_ORIENTATION:
+            case ACTION_SET_VIDEO_MUTE:
+            case ACTION_START_VIDEO_PREVIEW:
+            case ACTION_STOP_VIDEO_PREVIEW:
+            case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRegistrationCommand(String action) {
+        return ACTION_GET_REGISTRATION_STATUS.equals(action)
+                || ACTION_GET_REGISTRATION_STATS.equals(action)
+                || ACTION_REFRESH_REGISTRATION.equals(action);
+    }
+
+    private static String getKind(String action) {
+        if (action == null) return null;
+
+        switch (action) {
+            case ACTION_SET_MUTE:
+            case ACTION_TOGGLE_MUTE:
+                return KIND_MUTE;
+            case ACTION_SET_HOLD:
+            case ACTION_TOGGLE_HOLD:
+                return KIND_HOLD;
+            case ACTION_GET_CALL_STATUS:
+                return KIND_CALL_STATUS;
+            case ACTION_GET_REGISTRATION_STATUS:
+                return KIND_REGISTRATION_STATUS;
+            default:
+                return null;
+        }
+    }
+
+    private class PendingCommand implements Runnable {
+        final String key;
+        final String action;
+        final Runnable job;
+        final long sequence;
+        boolean cancelled;
+
+        PendingCommand(String key, String action, Runnable job, long sequence) {
+            this.key = key;
+            this.action = action;
+            this.job = job;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mPending) {
+                if (cancelled) return;
+
+                // a toggle may have replaced this command in the group without cancelling it
+                if (mPending.get(key) == this) {
+                    remove(this);
+                }
+            }
+            job.run();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Snapshot of the latencies recorded for a sip service command action.
+ * Queue time is the time spent by the command waiting in the service worker queue,
+ * execution time is the time spent running it on the worker thread.
+ * Histogram buckets are bounded by {@link #getBucketBoundsMicros()}, with an additional last
+ * bucket for the samples above the highest bound.
+ */
+@SuppressWarnings("unused")
+public class CommandLatency implements Parcelable {
+
+    private String action;
+    private long count;
+    private long totalQueueMicros;
+    private long maxQueueMicros;
+    private long[] queueBuckets;
+    private long totalExecutionMicros;
+    private long maxExecutionMicros;
+    private long[] executionBuckets;
+
+    CommandLatency(String action, LatencyHistogram queue, LatencyHistogram execution) {
+        this.action = action;
+        this.count = execution.getCount();
+        this.totalQueueMicros = queue.getTotalMicros();
+        this.maxQueueMicros = queue.getMaxMicros();
+        this.queueBuckets = queue.getBuckets();
+        this.totalExecutionMicros = execution.getTotalMicros();
+        this.maxExecutionMicros = execution.getMaxMicros();
+        this.executionBuckets = execution.getBuckets();
+    }
+
+    public static final Parcelable.Creator<CommandLatency> CREATOR =
+            new Parcelable.Creator<CommandLatency>() {
+                @Override
+                public CommandLatency createFromParcel(final Parcel in) {
+                    return new CommandLatency(in);
+                }
+
+                @Override
+                public CommandLatency[] newArray(final int size) {
+                    return new CommandLatency[size];
+                }
+            };
+
+    private CommandLatency(Parcel in) {
+        this.action = in.readString();
+        this.count = in.readLong();
+        this.totalQueueMicros = in.readLong();
+        this.maxQueueMicros = in.readLong();
+        this.queueBuckets = in.createLongArray();
+        this.totalExecutionMicros = in.readLong();
+        this.maxExecutionMicros = in.readLong();
+        this.executionBuckets = in.createLongArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeString(action);
+        parcel.writeLong(count);
+        parcel.writeLong(totalQueueMicros);
+        parcel.writeLong(maxQueueMicros);
+        parcel.writeLongArray(queueBuckets);
+        parcel.writeLong(totalExecutionMicros);
+        parcel.writeLong(maxExecutionMicros);
+        parcel.writeLongArray(executionBuckets);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Action: " + action + "\n"
+                + "Count: " + count + "\n"
+                + "Queue avg/p95/max (us): " + getAverageQueueMicros() + "/"
+                + getQueuePercentileMicros(95) + "/" + maxQueueMicros + "\n"
+                + "Execution avg/p95/max (us): " + getAverageExecutionMicros() + "/"
+                + getExecutionPercentileMicros(95) + "/" + maxExecutionMicros + "\n";
+    }
+
+    /**
+     * Gets the upper bounds of the histogram buckets.
+     * @return bucket bounds in microseconds
+     */
+    public static long[] getBucketBoundsMicros() {
+        return LatencyHistogram.BUCKET_BOUNDS_MICROS.clone();
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalQueueMicros() {
+        return totalQueueMicros;
+    }
+
+    public long getMaxQueueMicros() {
+        return maxQueueMicros;
+    }
+
+    public long getAverageQueueMicros() {
+        return count == 0 ? 0 : totalQueueMicros / count;
+    }
+
+    public long[] getQueueBuckets() {
+        return queueBuckets.clone();
+    }
+
+    public long getTotalExecutionMicros() {
+        return totalExecutionMicros;
+    }
+
+    public long getMaxExecutionMicros() {
+        return maxExecutionMicros;
+    }
+
+    public long getAverageExecutionMicros() {
+        return count == 0 ? 0 : totalExecutionMicros / count;
+    }
+
+    public long[] getExecutionBuckets() {
+        return executionBuckets.clone();
+    }
+
+    /**
+     * Gets the upper bound of the bucket in which the given queue time percentile falls.
+     * @param percentile percentile, from 0 to 100
+     * @return percentile upper bound in microseconds
+     */
+    public long getQueuePercentileMicros(double percentile) {
+        return getPercentile(queueBuckets, percentile, maxQueueMicros);
+    }
+
+    /**
+     * Gets the upper bound of the bucket in which the given execution time percentile falls.
+     * @param percentile percentile, from 0 to 100
+     * @return percentile upper bound in microseconds
+     */
+    public long getExecutionPercentileMicros(double percentile) {
+        return getPercentile(executionBuckets, percentile, maxExecutionMicros);
+    }
+
+    private static long getPercentile(long[] buckets, double percentile, long max) {
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        if (total == 0) return 0;
+
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i];
+            if (cumulative >= threshold) {
+                return i < LatencyHistogram.BUCKET_BOUNDS_MICROS.length
+                        ? Math.min(LatencyHistogram.BUCKET_BOUNDS_MICROS[i], max) : max;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,100 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency metrics of the commands executed by the sip service.
+ * For every command action, the time spent waiting in the worker queue and the time spent
+ * executing it are recorded in per-action histograms, which can be queried with
+ * {@link SipServiceCommand#getCommandLatencies(android.content.Context)},
+ * {@link SipServiceBinder#getCommandLatencies()} or {@link #getSnapshot()}.
+ * You can also provide your own metrics sink, to receive every single measurement
+ * and forward it to your own metrics system.
+ */
+@SuppressWarnings("unused")
+public class CommandMetrics {
+
+    public interface MetricsSink {
+        /**
+         * Called on the sip service worker thread after each command execution.
+         * Keep the implementation fast, as it delays the next command.
+         * @param action command action
+         * @param queueTimeNanos time spent waiting in the worker queue, in nanoseconds
+         * @param executionTimeNanos time spent executing the command, in nanoseconds
+         */
+        void onCommandExecuted(String action, long queueTimeNanos, long executionTimeNanos);
+    }
+
+    private final ConcurrentHashMap<String, LatencyHistogram[]> mHistograms = new ConcurrentHashMap<>();
+    private volatile MetricsSink mSink;
+
+    private CommandMetrics() { }
+
+    private static class SingletonHolder {
+        private static final CommandMetrics instance = new CommandMetrics();
+    }
+
+    public static void setMetricsSink(MetricsSink sink) {
+        if (sink == null)
+            throw new IllegalArgumentException("sink MUST not be null!");
+
+        SingletonHolder.instance.mSink = sink;
+    }
+
+    public static void resetMetricsSink() {
+        SingletonHolder.instance.mSink = null;
+    }
+
+    /**
+     * Gets a snapshot of the latencies recorded so far for each command action.
+     * @return list of per-action latencies
+     */
+    public static ArrayList<CommandLatency> getSnapshot() {
+        ArrayList<CommandLatency> latencies = new ArrayList<>();
+
+        for (Map.Entry<String, LatencyHistogram[]> entry : SingletonHolder.instance.mHistograms.entrySet()) {
+            latencies.add(new CommandLatency(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+
+        return latencies;
+    }
+
+    /**
+     * Clears all the recorded latencies.
+     */
+    public static void reset() {
+        SingletonHolder.instance.mHistograms.clear();
+    }
+
+    /**
+     * Records the execution of a command.
+     * @param action command action
+     * @param enqueueNanos {@link System#nanoTime()} when the command has been enqueued
+     * @param startNanos {@link System#nanoTime()} when the command execution started
+     * @param endNanos {@link System#nanoTime()} when the command execution ended
+     */
+    static void record(String action, long enqueueNanos, long startNanos, long endNanos) {
+        CommandMetrics metrics = SingletonHolder.instance;
+
+        LatencyHistogram[] histograms = metrics.mHistograms.get(action);
+        if (histograms == null) {
+            LatencyHistogram[] created = {new LatencyHistogram(), new LatencyHistogram()};
+            histograms = metrics.mHistograms.putIfAbsent(action, created);
+            if (histograms == null) histograms = created;
+        }
+
+        histograms[0].record(startNanos - enqueueNanos);
+        histograms[1].record(endNanos - startNanos);
+
+        MetricsSink sink = metrics.mSink;
+        if (sink != null) {
+            try {
+                sink.onCommandExecuted(action, startNanos - enqueueNanos, endNanos - startNanos);
+            } catch (Exception exc) {
+                Logger.error(CommandMetrics.class.getSimpleName(), "Error in metrics sink", exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.gotev.sipservice;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Limits the rate at which events of the same kind are delivered.
+ * The first event of a key is delivered immediately. The events submitted within the window
+ * which follows a delivery are not delivered: only the latest one is kept and delivered when
+ * the window ends. Deliveries are serialized, so they are never reordered.
+ */
+class EventCoalescer {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final HashMap<String, Long> mLastDelivery = new HashMap<>();
+    private final HashMap<String, Runnable> mPending = new HashMap<>();
+    private final HashMap<String, Runnable> mScheduledFlushes = new HashMap<>();
+    private long mCoalesced;
+
+    /**
+     * Submits an event.
+     * @param key key of the event, e.g. call ID and event type
+     * @param delivery delivers the event
+     * @param windowMillis coalescing window, 0 or less delivers every event immediately
+     */
+    synchronized void submit(final String key, Runnable delivery, long windowMillis) {
+        long now = SystemClock.uptimeMillis();
+        Long last = mLastDelivery.get(key);
+
+        if (windowMillis <= 0) {
+            submitNow(key, delivery);
+            return;
+        }
+
+        if (!mPending.containsKey(key) && (last == null || now - last >= windowMillis)) {
+            mLastDelivery.put(key, now);
+            delivery.run();
+            return;
+        }
+
+        if (mPending.put(key, delivery) != null) {
+            mCoalesced++;
+            return;
+        }
+
+        Runnable scheduledFlush = new Runnable() {
+            @Override
+            public void run() {
+                flush(key);
+            }
+        };
+        mScheduledFlushes.put(key, scheduledFlush);
+        mHandler.postAtTime(scheduledFlush, (last == null ? now : last) + windowMillis);
+    }
+
+    /**
+     * Delivers an event immediately, after the pending event of the same key, if any.
+     * @param key key of the event
+     * @param delivery delivers the event
+     */
+    synchronized void submitNow(String key, Runnable delivery) {
+        flush(key);
+        mLastDelivery.put(key, SystemClock.uptimeMillis());
+        delivery.run();
+    }
+
+    /**
+     * Delivers the pending event of a key, if any.
+     * @param key key of the event
+     */
+    synchronized void flush(String key) {
+        cancelScheduledFlush(key);
+
+        Runnable pending = mPending.remove(key);
+        if (pending != null) {
+            mLastDelivery.put(key, SystemClock.uptimeMillis());
+            pending.run();
+        }
+    }
+
+    /**
+     * Forgets the keys starting with the given prefix, delivering their pending events.
+     * @param prefix key prefix
+     */
+    synchronized void forget(String prefix) {
+        Iterator<String> iterator = mLastDelivery.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (key.startsWith(prefix)) {
+                cancelScheduledFlush(key);
+                Runnable pending = mPending.remove(key);
+                if (pending != null) pending.run();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void cancelScheduledFlush(String key) {
+        Runnable scheduledFlush = mScheduledFlushes.remove(key);
+        if (scheduledFlush != null) {
+            mHandler.removeCallbacks(scheduledFlush);
+        }
+    }
+
+    /**
+     * Gets the number of events which have not been delivered because replaced by a newer one.
+     * @return number of coalesced events
+     */
+    synchronized long getCoalescedEvents() {
+        return mCoalesced;
+    }
+}
@@ -0,0 +1,172 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+import org.pjsip.pjsua2.MediaConfig;
+
+import java.util.ArrayList;
+
+/**
+ * Adapts the jitter buffer settings to the network conditions observed during the calls.
+ * <p>
+ * At the end of every call, the late packet discards, jitter buffer underruns, delay and
+ * RTCP jitter of the audio stream are used to update the settings of the network class
+ * (Wi-Fi, LTE, 5G, other mobile) on which the call ended: the prefetch is increased when
+ * too many packets arrived too late, and it's slowly decreased towards the observed jitter
+ * when almost none did, to lower the mouth-to-ear latency on good networks.
+ * The settings are persisted and applied when the sip stack is started, because pjsua
+ * configures the jitter buffer once for all the calls.
+ */
+class JitterBufferTuner {
+
+    private static final String TAG = JitterBufferTuner.class.getSimpleName();
+
+    enum NetworkClass {
+        WIFI,
+        LTE,
+        NR,
+        MOBILE,
+        OTHER
+    }
+
+    /**
+     * Jitter buffer settings, in milliseconds, as accepted by {@link MediaConfig}.
+     */
+    static class Settings {
+        int init;
+        int minPre;
+        int maxPre;
+        int max;
+
+        Settings(int init, int minPre, int maxPre, int max) {
+            this.init = init;
+            this.minPre = minPre;
+            this.maxPre = maxPre;
+            this.max = max;
+        }
+    }
+
+    private static final int MIN_PREFETCH_MSEC = 20;
+    private static final int MAX_PREFETCH_MSEC = 400;
+    private static final int DEFAULT_PREFETCH_MSEC = 60;
+    private static final int FRAME_MSEC = 20;
+
+    /**
+     * Ratio of late discarded packets above which the prefetch is increased.
+     */
+    private static final float HIGH_LATE_RATIO = 0.01f;
+
+    /**
+     * Ratio of late discarded packets below which the prefetch can be decreased.
+     */
+    private static final float LOW_LATE_RATIO = 0.002f;
+
+    /**
+     * Minimum number of received packets for a call to be taken into account.
+     */
+    private static final long MIN_PACKETS = 500;
+
+    private final Context mContext;
+    private final SharedPreferencesHelper mSharedPreferencesHelper;
+
+    JitterBufferTuner(Context context, SharedPreferencesHelper sharedPreferencesHelper) {
+        mContext = context;
+        mSharedPreferencesHelper = sharedPreferencesHelper;
+    }
+
+    /**
+     * Applies the settings learned for the current network class, if any.
+     * @param config media config of the endpoint, before the library is initialized
+     */
+    void apply(MediaConfig config) {
+        if (!mSharedPreferencesHelper.isAdaptiveJitterBuffer()) return;
+
+        NetworkClass networkClass = getNetworkClass();
+        Settings settings = mSharedPreferencesHelper.getJitterBufferSettings(networkClass.name());
+        if (settings == null) return;
+
+        Logger.debug(TAG, "Applying jitter buffer settings for " + networkClass + ": init " + settings.init
+                + "ms, prefetch " + settings.minPre + "-" + settings.maxPre + "ms, max " + settings.max + "ms");
+
+        config.setJbInit(settings.init);
+        config.setJbMinPre(settings.minPre);
+        config.setJbMaxPre(settings.maxPre);
+        config.setJbMax(settings.max);
+    }
+
+    /**
+     * Updates the settings of the current network class with the stats of an ended call.
+     * @param streams stats of the media streams of the call
+     */
+    void onCallEnded(ArrayList<MediaStreamStats> streams) {
+        if (!mSharedPreferencesHelper.isAdaptiveJitterBuffer() || streams == null) return;
+
+        MediaStreamStats audio = null;
+        for (MediaStreamStats stream : streams) {
+            if (stream.getMediaType() == MediaStreamStats.TYPE_AUDIO) {
+                audio = stream;
+                break;
+            }
+        }
+
+        if (audio == null || audio.getRx().getPkts() < MIN_PACKETS) return;
+
+        NetworkClass networkClass = getNetworkClass();
+        Settings current = mSharedPreferencesHelper.getJitterBufferSettings(networkClass.name());
+        int prefetch = current != null ? current.minPre : DEFAULT_PREFETCH_MSEC;
+
+        float lateRatio = (float) (audio.getRx().getDiscard() + audio.getJbufEmpty()) / audio.getRx().getPkts();
+        int jitterMsec = (int) (audio.getRx().getJitterUsec().getMean() / 1000);
+
+        int target;
+        if (lateRatio > HIGH_LATE_RATIO) {
+            target = Math.max(prefetch + prefetch / 2, 2 * jitterMsec);
+        } else if (lateRatio < LOW_LATE_RATIO) {
+            // move halfway towards the observed jitter, one frame of margin
+            target = (prefetch + Math.max(jitterMsec + FRAME_MSEC, MIN_PREFETCH_MSEC)) / 2;
+        } else {
+            target = prefetch;
+        }
+
+        target = Math.max(MIN_PREFETCH_MSEC, Math.min(MAX_PREFETCH_MSEC, target));
+
+        Settings settings = new Settings(target, target, Math.min(4 * target, MAX_PREFETCH_MSEC * 2),
+                                         Math.max(500, 8 * target));
+        mSharedPreferencesHelper.setJitterBufferSettings(networkClass.name(), settings);
+
+        Logger.debug(TAG, "Jitter buffer prefetch for " + networkClass + ": " + prefetch + "ms -> " + target
+                + "ms (late ratio " + lateRatio + ", jitter " + jitterMsec + "ms, avg delay "
+                + audio.getJbufAvgDelayMsec() + "ms)");
+    }
+
+    @SuppressWarnings("deprecation")
+    NetworkClass getNetworkClass() {
+        try {
+            ConnectivityManager connectivityManager =
+                    (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo networkInfo = connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+
+            if (networkInfo == null) return NetworkClass.OTHER;
+
+            if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI) return NetworkClass.WIFI;
+
+            if (networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+                switch (networkInfo.getSubtype()) {
+                    case TelephonyManager.NETWORK_TYPE_LTE:
+                        return NetworkClass.LTE;
+                    case TelephonyManager.NETWORK_TYPE_NR:
+                        return NetworkClass.NR;
+                    default:
+                        return NetworkClass.MOBILE;
+                }
+            }
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while getting the network class", exc);
+        }
+
+        return NetworkClass.OTHER;
+    }
+}
@@ -0,0 +1,92 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Snapshot of the counters of a priority lane of the sip service worker thread.
+ * See {@link JobPriority}.
+ */
+@SuppressWarnings("unused")
+public class JobLaneStats implements Parcelable {
+
+    private String priority;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long executedJobs;
+
+    JobLaneStats(JobPriority priority, int queueDepth, int maxQueueDepth, long executedJobs) {
+        this.priority = priority.name();
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.executedJobs = executedJobs;
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<JobLaneStats> CREATOR =
+            new Parcelable.Creator<JobLaneStats>() {
+                @Override
+                public JobLaneStats createFromParcel(final Parcel in) {
+                    return new JobLaneStats(in);
+                }
+
+                @Override
+                public JobLaneStats[] newArray(final int size) {
+                    return new JobLaneStats[size];
+                }
+            };
+
+    private JobLaneStats(Parcel in) {
+        this.priority = in.readString();
+        this.queueDepth = in.readInt();
+        this.maxQueueDepth = in.readInt();
+        this.executedJobs = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeString(priority);
+        parcel.writeInt(queueDepth);
+        parcel.writeInt(maxQueueDepth);
+        parcel.writeLong(executedJobs);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public JobPriority getPriority() {
+        return JobPriority.valueOf(priority);
+    }
+
+    /**
+     * @return number of jobs waiting in the lane
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return highest number of jobs which have been waiting at the same time in the lane
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return number of jobs executed from the lane
+     */
+    public long getExecutedJobs() {
+        return executedJobs;
+    }
+
+    @Override
+    public String toString() {
+        return "Lane: " + priority + "\n"
+                + "Queue depth: " + queueDepth + "\n"
+                + "Max queue depth: " + maxQueueDepth + "\n"
+                + "Executed jobs: " + executedJobs;
+    }
+}
@@ -0,0 +1,28 @@
+package net.gotev.sipservice;
+
+/**
+ * Priority lanes of the jobs executed on the sip service worker thread.
+ * Lanes are listed from the most to the least urgent: a job is picked from a lane only
+ * when all the lanes above it are empty. Jobs in the same lane are executed in FIFO order.
+ */
+public enum JobPriority {
+    /**
+     * Call control commands (make, accept, decline, hang up, hold, mute, DTMF, transfer).
+     */
+    CALL_CONTROL,
+
+    /**
+     * Video and media handling (video feeds, preview, orientation, key frames).
+     */
+    MEDIA,
+
+    /**
+     * Registration refresh and status queries.
+     */
+    REGISTRATION,
+
+    /**
+     * Account, codec and stack configuration, persistence and service lifecycle.
+     */
+    CONFIGURATION
+}
@@ -0,0 +1,74 @@
+package net.gotev.sipservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed size buckets.
+ * Bucket i counts the samples lower or equal than {@link #BUCKET_BOUNDS_MICROS}[i] and greater
+ * than the previous bound. The last bucket counts the samples above the highest bound.
+ */
+class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets, in microseconds.
+     */
+    static final long[] BUCKET_BOUNDS_MICROS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000
+    };
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /**
+     * Records a sample.
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+
+        mBuckets.incrementAndGet(getBucket(micros));
+        mCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+
+        long max = mMaxMicros.get();
+        while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    long getTotalMicros() {
+        return mTotalMicros.get();
+    }
+
+    long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    /**
+     * Gets a copy of the bucket counters. Buckets are read one at a time, so the copy may
+     * not include the samples which are being recorded in the meanwhile.
+     * @return bucket counters
+     */
+    long[] getBuckets() {
+        long[] buckets = new long[mBuckets.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    private static int getBucket(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (micros <= BUCKET_BOUNDS_MICROS[i]) return i;
+        }
+        return BUCKET_BOUNDS_MICROS.length;
+    }
+}
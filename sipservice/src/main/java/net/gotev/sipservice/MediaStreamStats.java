@@ -0,0 +1,385 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.pjsip.pjsua2.JbufState;
+import org.pjsip.pjsua2.MathStat;
+import org.pjsip.pjsua2.RtcpStat;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+import org.pjsip.pjsua2.pjmedia_type;
+
+/**
+ * Complete RTCP and jitter buffer statistics of a media stream (audio or video) of a call,
+ * with 64-bit counters and min/mean/max/last for every measured value.
+ * <p>
+ * The values are stored in a single fixed layout array of longs, so parceling
+ * costs a version number, the codec and one array copy. The layout only grows at the end:
+ * a newer version can be read by an older one and vice versa, the fields missing from the
+ * parcel read as 0.
+ */
+@SuppressWarnings("unused")
+public class MediaStreamStats implements Parcelable {
+
+    public static final int VERSION = 1;
+
+    public static final int TYPE_AUDIO = 1;
+    public static final int TYPE_VIDEO = 2;
+
+    // RTCP stream counters, one block per direction
+    private static final int PKT = 0;
+    private static final int BYTES = 1;
+    private static final int DISCARD = 2;
+    private static final int LOSS = 3;
+    private static final int REORDER = 4;
+    private static final int DUP = 5;
+    private static final int JITTER_USEC = 6;
+    private static final int LOSS_PERIOD_USEC = JITTER_USEC + Summary.SIZE;
+    private static final int DIRECTION_SIZE = LOSS_PERIOD_USEC + Summary.SIZE;
+
+    private static final int RX = 0;
+    private static final int TX = RX + DIRECTION_SIZE;
+    private static final int RTT_USEC = TX + DIRECTION_SIZE;
+    private static final int RX_IPDV_USEC = RTT_USEC + Summary.SIZE;
+    private static final int RX_RAW_JITTER_USEC = RX_IPDV_USEC + Summary.SIZE;
+
+    // jitter buffer state
+    private static final int JBUF = RX_RAW_JITTER_USEC + Summary.SIZE;
+    private static final int JBUF_FRAME_SIZE = JBUF;
+    private static final int JBUF_MIN_PREFETCH = JBUF + 1;
+    private static final int JBUF_MAX_PREFETCH = JBUF + 2;
+    private static final int JBUF_BURST = JBUF + 3;
+    private static final int JBUF_PREFETCH = JBUF + 4;
+    private static final int JBUF_SIZE = JBUF + 5;
+    private static final int JBUF_AVG_DELAY_MSEC = JBUF + 6;
+    private static final int JBUF_MIN_DELAY_MSEC = JBUF + 7;
+    private static final int JBUF_MAX_DELAY_MSEC = JBUF + 8;
+    private static final int JBUF_DEV_DELAY_MSEC = JBUF + 9;
+    private static final int JBUF_AVG_BURST = JBUF + 10;
+    private static final int JBUF_LOST = JBUF + 11;
+    private static final int JBUF_DISCARD = JBUF + 12;
+    private static final int JBUF_EMPTY = JBUF + 13;
+
+    private static final int LAYOUT_SIZE = JBUF + 14;
+
+    private int mediaType;
+    private int mediaIndex;
+    private String codecName;
+    private long codecClockRate;
+    private final long[] values;
+
+    private MediaStreamStats(int mediaType, int mediaIndex, String codecName, long codecClockRate, long[] values) {
+        this.mediaType = mediaType;
+        this.mediaIndex = mediaIndex;
+        this.codecName = codecName;
+        this.codecClockRate = codecClockRate;
+        this.values = values;
+    }
+
+    /**
+     * Reads the statistics of a stream.
+     * @param mediaIndex index of the stream in the call media
+     * @param streamInfo stream info
+     * @param streamStat stream statistics
+     * @return stream statistics
+     */
+    static MediaStreamStats from(int mediaIndex, StreamInfo streamInfo, StreamStat streamStat) {
+        long[] values = new long[LAYOUT_SIZE];
+
+        RtcpStat rtcp = streamStat.getRtcp();
+        readDirection(values, RX, rtcp.getRxStat());
+        readDirection(values, TX, rtcp.getTxStat());
+        readSummary(values, RTT_USEC, rtcp.getRttUsec());
+        readSummary(values, RX_IPDV_USEC, rtcp.getRxIpdvUsec());
+        readSummary(values, RX_RAW_JITTER_USEC, rtcp.getRxRawJitterUsec());
+
+        JbufState jbuf = streamStat.getJbuf();
+        values[JBUF_FRAME_SIZE] = jbuf.getFrameSize();
+        values[JBUF_MIN_PREFETCH] = jbuf.getMinPrefetch();
+        values[JBUF_MAX_PREFETCH] = jbuf.getMaxPrefetch();
+        values[JBUF_BURST] = jbuf.getBurst();
+        values[JBUF_PREFETCH] = jbuf.getPrefetch();
+        values[JBUF_SIZE] = jbuf.getSize();
+        values[JBUF_AVG_DELAY_MSEC] = jbuf.getAvgDelayMsec();
+        values[JBUF_MIN_DELAY_MSEC] = jbuf.getMinDelayMsec();
+        values[JBUF_MAX_DELAY_MSEC] = jbuf.getMaxDelayMsec();
+        values[JBUF_DEV_DELAY_MSEC] = jbuf.getDevDelayMsec();
+        values[JBUF_AVG_BURST] = jbuf.getAvgBurst();
+        values[JBUF_LOST] = jbuf.getLost();
+        values[JBUF_DISCARD] = jbuf.getDiscard();
+        values[JBUF_EMPTY] = jbuf.getEmpty();
+
+        int mediaType = streamInfo.getType() == pjmedia_type.PJMEDIA_TYPE_VIDEO ? TYPE_VIDEO : TYPE_AUDIO;
+
+        return new MediaStreamStats(mediaType, mediaIndex, streamInfo.getCodecName(),
+                                    streamInfo.getCodecClockRate(), values);
+    }
+
+    private static void readDirection(long[] values, int offset, RtcpStreamStat stat) {
+        values[offset + PKT] = stat.getPkt();
+        values[offset + BYTES] = stat.getBytes();
+        values[offset + DISCARD] = stat.getDiscard();
+        values[offset + LOSS] = stat.getLoss();
+        values[offset + REORDER] = stat.getReorder();
+        values[offset + DUP] = stat.getDup();
+        readSummary(values, offset + JITTER_USEC, stat.getJitterUsec());
+        readSummary(values, offset + LOSS_PERIOD_USEC, stat.getLossPeriodUsec());
+    }
+
+    private static void readSummary(long[] values, int offset, MathStat stat) {
+        values[offset + Summary.N] = stat.getN();
+        values[offset + Summary.MIN] = stat.getMin();
+        values[offset + Summary.MEAN] = stat.getMean();
+        values[offset + Summary.MAX] = stat.getMax();
+        values[offset + Summary.LAST] = stat.getLast();
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<MediaStreamStats> CREATOR =
+            new Parcelable.Creator<MediaStreamStats>() {
+                @Override
+                public MediaStreamStats createFromParcel(final Parcel in) {
+                    return new MediaStreamStats(in);
+                }
+
+                @Override
+                public MediaStreamStats[] newArray(final int size) {
+                    return new MediaStreamStats[size];
+                }
+            };
+
+    private MediaStreamStats(Parcel in) {
+        in.readInt(); // version, the layout is backward and forward compatible
+        this.mediaType = in.readInt();
+        this.mediaIndex = in.readInt();
+        this.codecName = in.readString();
+        this.codecClockRate = in.readLong();
+
+        long[] parceled = in.createLongArray();
+        this.values = new long[LAYOUT_SIZE];
+        if (parceled != null) {
+            System.arraycopy(parceled, 0, values, 0, Math.min(parceled.length, LAYOUT_SIZE));
+        }
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeInt(VERSION);
+        parcel.writeInt(mediaType);
+        parcel.writeInt(mediaIndex);
+        parcel.writeString(codecName);
+        parcel.writeLong(codecClockRate);
+        parcel.writeLongArray(values);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * @return {@link #TYPE_AUDIO} or {@link #TYPE_VIDEO}
+     */
+    public int getMediaType() {
+        return mediaType;
+    }
+
+    public int getMediaIndex() {
+        return mediaIndex;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public long getCodecClockRate() {
+        return codecClockRate;
+    }
+
+    public Direction getRx() {
+        return new Direction(RX);
+    }
+
+    public Direction getTx() {
+        return new Direction(TX);
+    }
+
+    public Summary getRttUsec() {
+        return new Summary(values, RTT_USEC);
+    }
+
+    public Summary getRxIpdvUsec() {
+        return new Summary(values, RX_IPDV_USEC);
+    }
+
+    public Summary getRxRawJitterUsec() {
+        return new Summary(values, RX_RAW_JITTER_USEC);
+    }
+
+    public long getJbufFrameSize() {
+        return values[JBUF_FRAME_SIZE];
+    }
+
+    public long getJbufMinPrefetch() {
+        return values[JBUF_MIN_PREFETCH];
+    }
+
+    public long getJbufMaxPrefetch() {
+        return values[JBUF_MAX_PREFETCH];
+    }
+
+    public long getJbufBurst() {
+        return values[JBUF_BURST];
+    }
+
+    public long getJbufPrefetch() {
+        return values[JBUF_PREFETCH];
+    }
+
+    public long getJbufSize() {
+        return values[JBUF_SIZE];
+    }
+
+    public long getJbufAvgDelayMsec() {
+        return values[JBUF_AVG_DELAY_MSEC];
+    }
+
+    public long getJbufMinDelayMsec() {
+        return values[JBUF_MIN_DELAY_MSEC];
+    }
+
+    public long getJbufMaxDelayMsec() {
+        return values[JBUF_MAX_DELAY_MSEC];
+    }
+
+    public long getJbufDevDelayMsec() {
+        return values[JBUF_DEV_DELAY_MSEC];
+    }
+
+    public long getJbufAvgBurst() {
+        return values[JBUF_AVG_BURST];
+    }
+
+    public long getJbufLost() {
+        return values[JBUF_LOST];
+    }
+
+    public long getJbufDiscard() {
+        return values[JBUF_DISCARD];
+    }
+
+    public long getJbufEmpty() {
+        return values[JBUF_EMPTY];
+    }
+
+    @Override
+    public String toString() {
+        return (mediaType == TYPE_VIDEO ? "Video" : "Audio") + " stream " + mediaIndex
+                + " (" + codecName + "/" + codecClockRate + ")\n"
+                + "RX: " + getRx() + "\n"
+                + "TX: " + getTx() + "\n"
+                + "RTT (usec): " + getRttUsec() + "\n"
+                + "RX IPDV (usec): " + getRxIpdvUsec() + "\n"
+                + "RX raw jitter (usec): " + getRxRawJitterUsec() + "\n"
+                + "Jitter buffer delay (msec): " + getJbufMinDelayMsec() + "/" + getJbufAvgDelayMsec()
+                + "/" + getJbufMaxDelayMsec() + ", lost: " + getJbufLost()
+                + ", discard: " + getJbufDiscard() + ", empty: " + getJbufEmpty() + "\n";
+    }
+
+    /**
+     * RTCP counters of a stream direction.
+     */
+    public class Direction {
+        private final int offset;
+
+        private Direction(int offset) {
+            this.offset = offset;
+        }
+
+        public long getPkts() {
+            return values[offset + PKT];
+        }
+
+        public long getBytes() {
+            return values[offset + BYTES];
+        }
+
+        public long getDiscard() {
+            return values[offset + DISCARD];
+        }
+
+        public long getLoss() {
+            return values[offset + LOSS];
+        }
+
+        public long getReorder() {
+            return values[offset + REORDER];
+        }
+
+        public long getDup() {
+            return values[offset + DUP];
+        }
+
+        public Summary getJitterUsec() {
+            return new Summary(values, offset + JITTER_USEC);
+        }
+
+        public Summary getLossPeriodUsec() {
+            return new Summary(values, offset + LOSS_PERIOD_USEC);
+        }
+
+        @Override
+        public String toString() {
+            return "pkts: " + getPkts() + ", bytes: " + getBytes() + ", discard: " + getDiscard()
+                    + ", loss: " + getLoss() + ", reorder: " + getReorder() + ", dup: " + getDup()
+                    + ", jitter (usec): " + getJitterUsec();
+        }
+    }
+
+    /**
+     * Min, mean, max and last value of a measure, with the number of samples.
+     */
+    public static class Summary {
+        static final int N = 0;
+        static final int MIN = 1;
+        static final int MEAN = 2;
+        static final int MAX = 3;
+        static final int LAST = 4;
+        static final int SIZE = 5;
+
+        private final long[] values;
+        private final int offset;
+
+        private Summary(long[] values, int offset) {
+            this.values = values;
+            this.offset = offset;
+        }
+
+        public long getN() {
+            return values[offset + N];
+        }
+
+        public long getMin() {
+            return values[offset + MIN];
+        }
+
+        public long getMean() {
+            return values[offset + MEAN];
+        }
+
+        public long getMax() {
+            return values[offset + MAX];
+        }
+
+        public long getLast() {
+            return values[offset + LAST];
+        }
+
+        @Override
+        public String toString() {
+            return getMin() + "/" + getMean() + "/" + getMax() + " (last " + getLast() + ", n " + getN() + ")";
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AccountConfig;
+import org.pjsip.pjsua2.AccountInfo;
+import org.pjsip.pjsua2.AuthCredInfo;
+import org.pjsip.pjsua2.CallInfo;
+import org.pjsip.pjsua2.CallOpParam;
+import org.pjsip.pjsua2.CallVidSetStreamParam;
+import org.pjsip.pjsua2.EpConfig;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+import org.pjsip.pjsua2.TransportConfig;
+import org.pjsip.pjsua2.VidCodecParam;
+import org.pjsip.pjsua2.VideoPreviewOpParam;
+import org.pjsip.pjsua2.VideoWindowHandle;
+import org.pjsip.pjsua2.VideoWindowInfo;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Owns the pjsua2 objects created while handling a command or a callback, and deletes them
+ * when it's closed, so their native memory is released right away instead of when the
+ * garbage collector runs their finalizers. Use it in a try-with-resources block and don't
+ * use the added objects, nor the objects obtained from them, after the end of the block.
+ * <p>
+ * Objects which pjsua2 returns as references, like the {@code CallMediaInfo} of a
+ * {@code CallInfo}, a {@code Media} of a call or an {@code AudioMedia} typecast from it,
+ * don't own native memory and must not be added.
+ * <p>
+ * The objects added and not deleted yet are counted per type, across all the scopes.
+ * A scope must be used on a single thread.
+ */
+class NativeScope implements AutoCloseable {
+
+    private static final String LOG_TAG = NativeScope.class.getSimpleName();
+
+    private static final int ACCOUNT_CONFIG = 0;
+    private static final int ACCOUNT_INFO = 1;
+    private static final int AUTH_CRED_INFO = 2;
+    private static final int CALL_INFO = 3;
+    private static final int CALL_OP_PARAM = 4;
+    private static final int CALL_VID_SET_STREAM_PARAM = 5;
+    private static final int EP_CONFIG = 6;
+    private static final int STREAM_INFO = 7;
+    private static final int STREAM_STAT = 8;
+    private static final int TRANSPORT_CONFIG = 9;
+    private static final int VID_CODEC_PARAM = 10;
+    private static final int VIDEO_PREVIEW_OP_PARAM = 11;
+    private static final int VIDEO_WINDOW_HANDLE = 12;
+    private static final int VIDEO_WINDOW_INFO = 13;
+
+    private static final String[] TYPE_NAMES = {
+            "AccountConfig", "AccountInfo", "AuthCredInfo", "CallInfo", "CallOpParam",
+            "CallVidSetStreamParam", "EpConfig", "StreamInfo", "StreamStat", "TransportConfig",
+            "VidCodecParam", "VideoPreviewOpParam", "VideoWindowHandle", "VideoWindowInfo"
+    };
+
+    private static final AtomicIntegerArray mLiveObjects = new AtomicIntegerArray(TYPE_NAMES.length);
+
+    private Object[] mObjects = new Object[4];
+    private int[] mTypes = new int[4];
+    private int mCount;
+
+    AccountConfig add(AccountConfig object) {
+        return add(object, ACCOUNT_CONFIG);
+    }
+
+    AccountInfo add(AccountInfo object) {
+        return add(object, ACCOUNT_INFO);
+    }
+
+    AuthCredInfo add(AuthCredInfo object) {
+        return add(object, AUTH_CRED_INFO);
+    }
+
+    CallInfo add(CallInfo object) {
+        return add(object, CALL_INFO);
+    }
+
+    CallOpParam add(CallOpParam object) {
+        return add(object, CALL_OP_PARAM);
+    }
+
+    CallVidSetStreamParam add(CallVidSetStreamParam object) {
+        return add(object, CALL_VID_SET_STREAM_PARAM);
+    }
+
+    EpConfig add(EpConfig object) {
+        return add(object, EP_CONFIG);
+    }
+
+    StreamInfo add(StreamInfo object) {
+        return add(object, STREAM_INFO);
+    }
+
+    StreamStat add(StreamStat object) {
+        return add(object, STREAM_STAT);
+    }
+
+    TransportConfig add(TransportConfig object) {
+        return add(object, TRANSPORT_CONFIG);
+    }
+
+    VidCodecParam add(VidCodecParam object) {
+        return add(object, VID_CODEC_PARAM);
+    }
+
+    VideoPreviewOpParam add(VideoPreviewOpParam object) {
+        return add(object, VIDEO_PREVIEW_OP_PARAM);
+    }
+
+    VideoWindowHandle add(VideoWindowHandle object) {
+        return add(object, VIDEO_WINDOW_HANDLE);
+    }
+
+    VideoWindowInfo add(VideoWindowInfo object) {
+        return add(object, VIDEO_WINDOW_INFO);
+    }
+
+    private <T> T add(T object, int type) {
+        if (object == null) return null;
+
+        if (mCount == mObjects.length) {
+            mObjects = Arrays.copyOf(mObjects, mCount * 2);
+            mTypes = Arrays.copyOf(mTypes, mCount * 2);
+        }
+
+        mObjects[mCount] = object;
+        mTypes[mCount] = type;
+        mCount++;
+        mLiveObjects.incrementAndGet(type);
+        return object;
+    }
+
+    /**
+     * Deletes the added objects, in reverse order.
+     */
+    @Override
+    public void close() {
+        while (mCount > 0) {
+            mCount--;
+            Object object = mObjects[mCount];
+            int type = mTypes[mCount];
+            mObjects[mCount] = null;
+
+            try {
+                delete(object, type);
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Error while deleting " + TYPE_NAMES[type], exc);
+            } finally {
+                mLiveObjects.decrementAndGet(type);
+            }
+        }
+    }
+
+    private static void delete(Object object, int type) {
+        switch (type) {
+            case ACCOUNT_CONFIG:
+                ((AccountConfig) object).delete();
+                break;
+            case ACCOUNT_INFO:
+                ((AccountInfo) object).delete();
+                break;
+            case AUTH_CRED_INFO:
+                ((AuthCredInfo) object).delete();
+                break;
+            case CALL_INFO:
+                ((CallInfo) object).delete();
+                break;
+            case CALL_OP_PARAM:
+                ((CallOpParam) object).delete();
+                break;
+            case CALL_VID_SET_STREAM_PARAM:
+                ((CallVidSetStreamParam) object).delete();
+                break;
+            case EP_CONFIG:
+                ((EpConfig) object).delete();
+                break;
+            case STREAM_INFO:
+                ((StreamInfo) object).delete();
+                break;
+            case STREAM_STAT:
+                ((StreamStat) object).delete();
+                break;
+            case TRANSPORT_CONFIG:
+                ((TransportConfig) object).delete();
+                break;
+            case VID_CODEC_PARAM:
+                ((VidCodecParam) object).delete();
+                break;
+            case VIDEO_PREVIEW_OP_PARAM:
+                ((VideoPreviewOpParam) object).delete();
+                break;
+            case VIDEO_WINDOW_HANDLE:
+                ((VideoWindowHandle) object).delete();
+                break;
+            case VIDEO_WINDOW_INFO:
+                ((VideoWindowInfo) object).delete();
+                break;
+        }
+    }
+
+    /**
+     * Gets the number of objects added to the open scopes, per type.
+     * @return map of the type names to the live object counts
+     */
+    static Map<String, Integer> getLiveObjects() {
+        Map<String, Integer> liveObjects = new LinkedHashMap<>();
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            liveObjects.put(TYPE_NAMES[type], mLiveObjects.get(type));
+        }
+        return liveObjects;
+    }
+
+    /**
+     * @return total number of objects added to the open scopes
+     */
+    static int getLiveObjectCount() {
+        int count = 0;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            count += mLiveObjects.get(type);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,440 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Distributions of jitter, loss, MOS and setup latency aggregated across all the calls,
+ * broken down by audio codec and by network class (Wi-Fi, LTE, 5G, other mobile, other).
+ * <p>
+ * Every histogram has the same fixed log-linear buckets: values below 16 have a bucket each,
+ * then every power of two is split in 8 buckets, so the relative error of the percentiles is
+ * below 12.5%. Values above the highest bucket are counted in it. All the counters live in a
+ * single array allocated once, and a fixed number of codecs is tracked: the codecs which
+ * don't fit are counted together under {@link #OTHER_CODEC}.
+ * <p>
+ * Jitter, loss and MOS are recorded at every stats sample of a call, the setup latency
+ * (from the INVITE to the first active audio) when the call ends.
+ * Codecs are identified by name and clock rate (e.g. opus/48000), which is the prefix of the
+ * {@link CodecPriority} ID, so both can be used in the queries. Pass null as codec or network
+ * to merge all of them.
+ */
+@SuppressWarnings("unused")
+public class QualityHistograms implements Parcelable {
+
+    private static final String TAG = QualityHistograms.class.getSimpleName();
+
+    public static final int METRIC_JITTER_USEC = 0;
+    public static final int METRIC_LOSS_PER_10000 = 1;
+    public static final int METRIC_MOS_X100 = 2;
+    public static final int METRIC_SETUP_MSEC = 3;
+    public static final int METRICS = 4;
+
+    public static final String OTHER_CODEC = "other";
+
+    static final int MAX_CODECS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    /**
+     * Position of the highest bit of the largest tracked value (2^24 - 1).
+     */
+    private static final int MAX_MAGNITUDE = 23;
+
+    public static final int BUCKETS = LINEAR_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int SLOTS = MAX_CODECS + 1;
+    private static final int NETWORKS = JitterBufferTuner.NetworkClass.values().length;
+
+    private static final int MAGIC = 0x51484953;
+    private static final byte VERSION = 1;
+
+    private String[] codecs = new String[MAX_CODECS];
+    private int[] counts = new int[SLOTS * NETWORKS * METRICS * BUCKETS];
+    private long startTimestamp;
+    private long snapshotTimestamp;
+
+    QualityHistograms() {
+        startTimestamp = System.currentTimeMillis();
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<QualityHistograms> CREATOR =
+            new Parcelable.Creator<QualityHistograms>() {
+                @Override
+                public QualityHistograms createFromParcel(final Parcel in) {
+                    return new QualityHistograms(in);
+                }
+
+                @Override
+                public QualityHistograms[] newArray(final int size) {
+                    return new QualityHistograms[size];
+                }
+            };
+
+    private QualityHistograms(Parcel in) {
+        this.startTimestamp = in.readLong();
+        this.snapshotTimestamp = in.readLong();
+        in.readStringArray(this.codecs);
+
+        // counters are sparse, so only the non zero ones are written
+        int nonZero = in.readInt();
+        for (int i = 0; i < nonZero; i++) {
+            int index = in.readInt();
+            counts[index] = in.readInt();
+        }
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(startTimestamp);
+        parcel.writeLong(snapshotTimestamp);
+        parcel.writeStringArray(codecs);
+
+        parcel.writeInt(countNonZero());
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            parcel.writeInt(i);
+            parcel.writeInt(counts[i]);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Gets the codec identifier used by the histograms.
+     * @param codecName codec name, as reported in the stream info
+     * @param clockRate codec clock rate
+     * @return codec identifier
+     */
+    static String getCodecId(String codecName, long clockRate) {
+        return codecName + "/" + clockRate;
+    }
+
+    /**
+     * Records a value.
+     * @param metric one of the METRIC_ constants
+     * @param codecId codec identifier, as returned by {@link #getCodecId(String, long)}
+     * @param networkClass network class on which the value has been observed
+     * @param value value to record, negative values are ignored
+     */
+    synchronized void record(int metric, String codecId, JitterBufferTuner.NetworkClass networkClass, long value) {
+        if (value < 0) return;
+
+        counts[offset(getSlot(codecId), networkClass.ordinal(), metric) + getBucket(value)]++;
+    }
+
+    synchronized void reset() {
+        codecs = new String[MAX_CODECS];
+        counts = new int[counts.length];
+        startTimestamp = System.currentTimeMillis();
+    }
+
+    synchronized QualityHistograms snapshot() {
+        QualityHistograms copy = new QualityHistograms();
+        copy.codecs = codecs.clone();
+        copy.counts = counts.clone();
+        copy.startTimestamp = startTimestamp;
+        copy.snapshotTimestamp = System.currentTimeMillis();
+        return copy;
+    }
+
+    /**
+     * Writes the histograms to a file, replacing it atomically.
+     * @param file destination file
+     */
+    synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(counts.length);
+            out.writeLong(startTimestamp);
+
+            for (String codec : codecs) {
+                out.writeUTF(codec == null ? "" : codec);
+            }
+
+            out.writeInt(countNonZero());
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+                out.writeInt(i);
+                out.writeInt(counts[i]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads the histograms from a file written by {@link #save(File)}.
+     * @param file source file
+     * @return histograms, or empty histograms if the file doesn't exist or has been
+     * written with a different layout
+     */
+    static QualityHistograms load(File file) {
+        QualityHistograms histograms = new QualityHistograms();
+        if (!file.exists()) return histograms;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != MAGIC || in.readByte() != VERSION || in.readInt() != histograms.counts.length) {
+                Logger.debug(TAG, "Discarding quality histograms with a different layout");
+                return histograms;
+            }
+
+            histograms.startTimestamp = in.readLong();
+
+            for (int i = 0; i < MAX_CODECS; i++) {
+                String codec = in.readUTF();
+                histograms.codecs[i] = codec.isEmpty() ? null : codec;
+            }
+
+            int nonZero = in.readInt();
+            for (int i = 0; i < nonZero; i++) {
+                int index = in.readInt();
+                histograms.counts[index] = in.readInt();
+            }
+
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while loading quality histograms", exc);
+            histograms = new QualityHistograms();
+
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) { }
+            }
+        }
+
+        return histograms;
+    }
+
+    private int countNonZero() {
+        int nonZero = 0;
+        for (int count : counts) {
+            if (count != 0) nonZero++;
+        }
+        return nonZero;
+    }
+
+    private int getSlot(String codecId) {
+        if (codecId == null) return MAX_CODECS;
+
+        for (int i = 0; i < MAX_CODECS; i++) {
+            if (codecs[i] == null) {
+                codecs[i] = codecId;
+                return i;
+            }
+            if (codecs[i].equalsIgnoreCase(codecId)) return i;
+        }
+        return MAX_CODECS;
+    }
+
+    private static int offset(int slot, int network, int metric) {
+        return ((slot * NETWORKS + network) * METRICS + metric) * BUCKETS;
+    }
+
+    static int getBucket(long value) {
+        if (value < LINEAR_BUCKETS) return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) return BUCKETS - 1;
+
+        int subBucket = (int) (value >> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return lowest value counted in the bucket
+     */
+    public static long getBucketLowerBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) return bucket;
+
+        int magnitude = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @param bucket bucket index
+     * @return highest value counted in the bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : getBucketLowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * @return timestamp from which the values have been aggregated
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getSnapshotTimestamp() {
+        return snapshotTimestamp;
+    }
+
+    /**
+     * @return identifiers of the codecs which have been recorded, in order of first occurrence
+     */
+    public String[] getCodecs() {
+        int count = 0;
+        while (count < MAX_CODECS && codecs[count] != null) count++;
+
+        String[] ids = new String[count];
+        System.arraycopy(codecs, 0, ids, 0, count);
+        return ids;
+    }
+
+    /**
+     * @return names of the network classes
+     */
+    public static String[] getNetworks() {
+        JitterBufferTuner.NetworkClass[] values = JitterBufferTuner.NetworkClass.values();
+        String[] names = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name();
+        }
+        return names;
+    }
+
+    /**
+     * Gets the bucket counters of a metric, merged across the matching codecs and networks.
+     * @param metric one of the METRIC_ constants
+     * @param codecId codec or {@link CodecPriority} ID, {@link #OTHER_CODEC}, or null for all the codecs
+     * @param network network class name, or null for all the networks
+     * @return bucket counters
+     */
+    public long[] getBuckets(int metric, String codecId, String network) {
+        long[] buckets = new long[BUCKETS];
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (!matchesCodec(slot, codecId)) continue;
+
+            for (int net = 0; net < NETWORKS; net++) {
+                if (network != null && !JitterBufferTuner.NetworkClass.values()[net].name().equals(network)) continue;
+
+                int offset = offset(slot, net, metric);
+                for (int i = 0; i < BUCKETS; i++) {
+                    buckets[i] += counts[offset + i];
+                }
+            }
+        }
+
+        return buckets;
+    }
+
+    private boolean matchesCodec(int slot, String codecId) {
+        if (codecId == null) return true;
+        if (slot == MAX_CODECS) return OTHER_CODEC.equals(codecId);
+
+        String id = codecs[slot];
+        return id != null && (id.equalsIgnoreCase(codecId)
+                || codecId.toLowerCase().startsWith(id.toLowerCase() + "/"));
+    }
+
+    /**
+     * @return number of values recorded for a metric, see {@link #getBuckets(int, String, String)}
+     */
+    public long getCount(int metric, String codecId, String network) {
+        long count = 0;
+        for (long bucket : getBuckets(metric, codecId, network)) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * Gets a percentile of a metric, see {@link #getBuckets(int, String, String)}.
+     * @param percentile percentile, from 0 to 100
+     * @return highest value of the bucket containing the percentile, or -1 if no values
+     * have been recorded
+     */
+    public long getPercentile(int metric, String codecId, String network, double percentile) {
+        long[] buckets = getBuckets(metric, codecId, network);
+
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) return -1;
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(getBucketUpperBound(i), getBucketLowerBound(BUCKETS - 1));
+        }
+        return getBucketLowerBound(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the mean of a metric, approximated with the middle values of the buckets,
+     * see {@link #getBuckets(int, String, String)}.
+     * @return mean, or -1 if no values have been recorded
+     */
+    public double getMean(int metric, String codecId, String network) {
+        long[] buckets = getBuckets(metric, codecId, network);
+
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] == 0) continue;
+            long upper = i == BUCKETS - 1 ? getBucketLowerBound(i) : getBucketUpperBound(i);
+            count += buckets[i];
+            total += buckets[i] * (getBucketLowerBound(i) + upper) / 2.0;
+        }
+        return count == 0 ? -1 : total / count;
+    }
+
+    @Override
+    public String toString() {
+        String[] metrics = {"Jitter (usec)", "Loss (1/10000)", "MOS (x100)", "Setup (msec)"};
+        StringBuilder builder = new StringBuilder("Quality histograms since ").append(startTimestamp).append("\n");
+
+        for (String codec : getCodecs()) {
+            for (String network : getNetworks()) {
+                if (getCount(METRIC_JITTER_USEC, codec, network) == 0
+                        && getCount(METRIC_SETUP_MSEC, codec, network) == 0) continue;
+
+                builder.append(codec).append(" on ").append(network).append("\n");
+                for (int metric = 0; metric < METRICS; metric++) {
+                    builder.append("  ").append(metrics[metric])
+                           .append(" - count: ").append(getCount(metric, codec, network))
+                           .append(", p50: ").append(getPercentile(metric, codec, network, 50))
+                           .append(", p95: ").append(getPercentile(metric, codec, network, 95))
+                           .append(", p99: ").append(getPercentile(metric, codec, network, 99))
+                           .append("\n");
+                }
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,355 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+/**
+ * Registration performance and failure statistics of an account, since it has been added.
+ * <p>
+ * The round trip time goes from the start of a registration to its final response, so it
+ * includes the authentication challenge, if any. Challenges are handled internally by pjsip,
+ * so they are counted from the gaps in the CSeq of the final responses (every challenged
+ * REGISTER is resent with the next CSeq) and from the 401/407 final responses.
+ * pjsip starts the CSeq of an account from a random value, so the challenges of the first
+ * registration, or of the first one after the CSeq has been reset, can't be observed:
+ * those registrations are left out of {@link #getChallengeRate()}.
+ * Failure codes are counted in a fixed number of buckets, the codes which don't fit are
+ * counted together in {@link #getOtherFailures()}.
+ */
+@SuppressWarnings("unused")
+public class RegistrationStats implements Parcelable {
+
+    static final int MAX_FAILURE_CODES = 8;
+
+    /**
+     * Larger CSeq gaps between two final responses mean that a new sequence has been started,
+     * and not that the registration has been challenged.
+     */
+    static final int MAX_CSEQ_GAP = 8;
+
+    private String accountID;
+    private long attempts;
+    private long successes;
+    private long failures;
+    private long challenges;
+    private long challengeSamples;
+    private long retries;
+    private int consecutiveFailures;
+    private long lastRttMsec = -1;
+    private long minRttMsec = -1;
+    private long maxRttMsec = -1;
+    private long totalRttMsec;
+    private long rttSamples;
+    private long lastSuccessTimestamp;
+    private long snapshotTimestamp;
+    private int lastFailureCode;
+    private int[] failureCodes = new int[MAX_FAILURE_CODES];
+    private long[] failureCounts = new long[MAX_FAILURE_CODES];
+    private long otherFailures;
+
+    private long startedAt = -1;
+    private long lastCSeq = -1;
+
+    RegistrationStats(String accountID) {
+        this.accountID = accountID;
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<RegistrationStats> CREATOR =
+            new Parcelable.Creator<RegistrationStats>() {
+                @Override
+                public RegistrationStats createFromParcel(final Parcel in) {
+                    return new RegistrationStats(in);
+                }
+
+                @Override
+                public RegistrationStats[] newArray(final int size) {
+                    return new RegistrationStats[size];
+                }
+            };
+
+    private RegistrationStats(Parcel in) {
+        this.accountID = in.readString();
+        this.attempts = in.readLong();
+        this.successes = in.readLong();
+        this.failures = in.readLong();
+        this.challenges = in.readLong();
+        this.challengeSamples = in.readLong();
+        this.retries = in.readLong();
+        this.consecutiveFailures = in.readInt();
+        this.lastRttMsec = in.readLong();
+        this.minRttMsec = in.readLong();
+        this.maxRttMsec = in.readLong();
+        this.totalRttMsec = in.readLong();
+        this.rttSamples = in.readLong();
+        this.lastSuccessTimestamp = in.readLong();
+        this.snapshotTimestamp = in.readLong();
+        this.lastFailureCode = in.readInt();
+        this.failureCodes = in.createIntArray();
+        this.failureCounts = in.createLongArray();
+        this.otherFailures = in.readLong();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeString(accountID);
+        parcel.writeLong(attempts);
+        parcel.writeLong(successes);
+        parcel.writeLong(failures);
+        parcel.writeLong(challenges);
+        parcel.writeLong(challengeSamples);
+        parcel.writeLong(retries);
+        parcel.writeInt(consecutiveFailures);
+        parcel.writeLong(lastRttMsec);
+        parcel.writeLong(minRttMsec);
+        parcel.writeLong(maxRttMsec);
+        parcel.writeLong(totalRttMsec);
+        parcel.writeLong(rttSamples);
+        parcel.writeLong(lastSuccessTimestamp);
+        parcel.writeLong(snapshotTimestamp);
+        parcel.writeInt(lastFailureCode);
+        parcel.writeIntArray(failureCodes);
+        parcel.writeLongArray(failureCounts);
+        parcel.writeLong(otherFailures);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Records the start of a registration.
+     * @param renew true for a registration or refresh, false for an unregistration
+     */
+    synchronized void onRegStarted(boolean renew) {
+        if (!renew) {
+            startedAt = -1;
+            return;
+        }
+
+        attempts++;
+        if (consecutiveFailures > 0) retries++;
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records the final response of a registration.
+     * @param code SIP status code
+     * @param response whole response message, null if no response has been received
+     */
+    synchronized void onRegState(int code, String response) {
+        long cseq = parseCSeq(response);
+        long gap = cseq >= 0 && lastCSeq >= 0 ? cseq - lastCSeq : -1;
+        lastCSeq = cseq;
+
+        // registration not started by us (e.g. unregistration) or already completed
+        if (startedAt < 0) return;
+
+        boolean observed = gap > 0 && gap <= MAX_CSEQ_GAP;
+        if (observed) challenges += gap - 1;
+        if (observed || code == 401 || code == 407) challengeSamples++;
+
+        if (code >= 200 && code < 300) {
+            long rtt = SystemClock.elapsedRealtime() - startedAt;
+            lastRttMsec = rtt;
+            if (minRttMsec < 0 || rtt < minRttMsec) minRttMsec = rtt;
+            if (rtt > maxRttMsec) maxRttMsec = rtt;
+            totalRttMsec += rtt;
+            rttSamples++;
+
+            successes++;
+            consecutiveFailures = 0;
+            lastSuccessTimestamp = System.currentTimeMillis();
+        } else {
+            if (code == 401 || code == 407) challenges++;
+
+            failures++;
+            consecutiveFailures++;
+            lastFailureCode = code;
+            countFailure(code);
+        }
+
+        startedAt = -1;
+    }
+
+    private void countFailure(int code) {
+        for (int i = 0; i < MAX_FAILURE_CODES; i++) {
+            if (failureCodes[i] == code) {
+                failureCounts[i]++;
+                return;
+            }
+            if (failureCodes[i] == 0) {
+                failureCodes[i] = code;
+                failureCounts[i] = 1;
+                return;
+            }
+        }
+        otherFailures++;
+    }
+
+    private static long parseCSeq(String response) {
+        if (response == null) return -1;
+
+        int index = response.indexOf("\nCSeq:");
+        if (index < 0) return -1;
+
+        index += 6;
+        while (index < response.length() && response.charAt(index) == ' ') index++;
+
+        long cseq = 0;
+        int digits = 0;
+        while (index < response.length() && Character.isDigit(response.charAt(index))) {
+            cseq = cseq * 10 + (response.charAt(index) - '0');
+            index++;
+            digits++;
+        }
+        return digits == 0 ? -1 : cseq;
+    }
+
+    synchronized RegistrationStats snapshot() {
+        RegistrationStats copy = new RegistrationStats(accountID);
+        copy.attempts = attempts;
+        copy.successes = successes;
+        copy.failures = failures;
+        copy.challenges = challenges;
+        copy.challengeSamples = challengeSamples;
+        copy.retries = retries;
+        copy.consecutiveFailures = consecutiveFailures;
+        copy.lastRttMsec = lastRttMsec;
+        copy.minRttMsec = minRttMsec;
+        copy.maxRttMsec = maxRttMsec;
+        copy.totalRttMsec = totalRttMsec;
+        copy.rttSamples = rttSamples;
+        copy.lastSuccessTimestamp = lastSuccessTimestamp;
+        copy.snapshotTimestamp = System.currentTimeMillis();
+        copy.lastFailureCode = lastFailureCode;
+        copy.failureCodes = failureCodes.clone();
+        copy.failureCounts = failureCounts.clone();
+        copy.otherFailures = otherFailures;
+        return copy;
+    }
+
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getChallenges() {
+        return challenges;
+    }
+
+    /**
+     * @return ratio of the registrations which have been challenged for authentication,
+     * among the ones whose challenges could be observed
+     */
+    public float getChallengeRate() {
+        return challengeSamples == 0 ? 0 : (float) challenges / challengeSamples;
+    }
+
+    /**
+     * @return number of registrations started after a failed one
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getLastRttMsec() {
+        return lastRttMsec;
+    }
+
+    public long getMinRttMsec() {
+        return minRttMsec;
+    }
+
+    public long getMaxRttMsec() {
+        return maxRttMsec;
+    }
+
+    public long getMeanRttMsec() {
+        return rttSamples == 0 ? -1 : totalRttMsec / rttSamples;
+    }
+
+    /**
+     * @return timestamp of the last successful registration, 0 if it has never succeeded
+     */
+    public long getLastSuccessTimestamp() {
+        return lastSuccessTimestamp;
+    }
+
+    /**
+     * @return milliseconds from the last successful registration to when these stats
+     * have been taken, -1 if it has never succeeded
+     */
+    public long getTimeSinceLastSuccess() {
+        return lastSuccessTimestamp == 0 ? -1 : snapshotTimestamp - lastSuccessTimestamp;
+    }
+
+    public int getLastFailureCode() {
+        return lastFailureCode;
+    }
+
+    /**
+     * Gets the number of failures with a given status code.
+     * @param code SIP status code
+     * @return number of failures
+     */
+    public long getFailures(int code) {
+        for (int i = 0; i < MAX_FAILURE_CODES; i++) {
+            if (failureCodes[i] == code) return failureCounts[i];
+        }
+        return 0;
+    }
+
+    /**
+     * @return failure status codes which have been counted, in order of first occurrence
+     */
+    public int[] getFailureCodes() {
+        int count = 0;
+        while (count < MAX_FAILURE_CODES && failureCodes[count] != 0) count++;
+
+        int[] codes = new int[count];
+        System.arraycopy(failureCodes, 0, codes, 0, count);
+        return codes;
+    }
+
+    /**
+     * @return failures with status codes not fitting in the histogram
+     */
+    public long getOtherFailures() {
+        return otherFailures;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder failuresByCode = new StringBuilder();
+        for (int code : getFailureCodes()) {
+            failuresByCode.append(code).append(": ").append(getFailures(code)).append(", ");
+        }
+        failuresByCode.append("other: ").append(otherFailures);
+
+        return "Registration stats for " + accountID + "\n"
+                + "Attempts: " + attempts + ", successes: " + successes + ", failures: " + failures + "\n"
+                + "Challenges: " + challenges + ", retries: " + retries + "\n"
+                + "RTT (msec): " + minRttMsec + "/" + getMeanRttMsec() + "/" + maxRttMsec
+                + " (last " + lastRttMsec + ")\n"
+                + "Time since last success (msec): " + getTimeSinceLastSuccess() + "\n"
+                + "Failures by code: " + failuresByCode + "\n";
+    }
+}
@@ -0,0 +1,244 @@
+package net.gotev.sipservice;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SharedMemory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Live state of the active calls, published in a fixed layout memory region which can be
+ * polled without any IPC, e.g. to render call timers and hold/mute indicators at frame rate.
+ * <p>
+ * On Android 8.1+ the region is a {@link SharedMemory}, which you can get with
+ * {@link SipServiceBinder#getSharedCallState()} and forward to other processes of your app,
+ * where you can read it with {@link #wrap(ByteBuffer)} after mapping it read-only.
+ * On older versions the region is a plain direct buffer, readable only in the service process.
+ * <p>
+ * Layout, in native byte order:
+ * <pre>
+ * header: int magic, int version, int slot count, int slot size
+ * slot:   int sequence, int call ID, int call state, int call status,
+ *         long connect timestamp, int flags, int reserved
+ * </pre>
+ * Slots are indexed by call ID. Each slot is protected by a seqlock: the writer makes the
+ * sequence odd before updating the slot and even again when done, so readers retry whenever
+ * the sequence is odd or has changed while they were reading. The sequence accesses are
+ * separated from the slot accesses by full memory barriers on both sides. Readers written
+ * in native code must use acquire loads, or fences, in the same way.
+ */
+@SuppressWarnings("unused")
+public class SharedCallState {
+
+    public static final int MAGIC = 0x53495043;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+    public static final int SLOT_SIZE = 32;
+
+    public static final int OFFSET_SEQUENCE = 0;
+    public static final int OFFSET_CALL_ID = 4;
+    public static final int OFFSET_CALL_STATE = 8;
+    public static final int OFFSET_CALL_STATUS = 12;
+    public static final int OFFSET_CONNECT_TIMESTAMP = 16;
+    public static final int OFFSET_FLAGS = 24;
+
+    public static final int FLAG_ACTIVE = 1;
+    public static final int FLAG_LOCAL_HOLD = 1 << 1;
+    public static final int FLAG_LOCAL_MUTE = 1 << 2;
+    public static final int FLAG_LOCAL_VIDEO_MUTE = 1 << 3;
+
+    private static final String LOG_TAG = SharedCallState.class.getSimpleName();
+    private static final int MAX_READ_ATTEMPTS = 16;
+
+    private static volatile int mFence;
+
+    private final ByteBuffer mBuffer;
+    private final int mSlotCount;
+    private Object mSharedMemory;
+
+    private SharedCallState(ByteBuffer buffer, int slotCount) {
+        mBuffer = buffer;
+        mSlotCount = slotCount;
+    }
+
+    /**
+     * Creates the region written by the service.
+     * @param slotCount number of call slots
+     */
+    static SharedCallState create(int slotCount) {
+        int size = HEADER_SIZE + slotCount * SLOT_SIZE;
+        SharedCallState state = null;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            state = createShared(size, slotCount);
+        }
+
+        if (state == null) {
+            state = new SharedCallState(ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()), slotCount);
+        }
+
+        state.mBuffer.putInt(4, VERSION);
+        state.mBuffer.putInt(8, slotCount);
+        state.mBuffer.putInt(12, SLOT_SIZE);
+        fence();
+        state.mBuffer.putInt(0, MAGIC);
+
+        return state;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    private static SharedCallState createShared(int size, int slotCount) {
+        try {
+            SharedMemory memory = SharedMemory.create("sipservice-calls", size);
+            SharedCallState state = new SharedCallState(memory.mapReadWrite().order(ByteOrder.nativeOrder()), slotCount);
+            state.mSharedMemory = memory;
+            return state;
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while creating shared memory, falling back to local memory", exc);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps a region mapped by a reader.
+     * @param buffer mapped region
+     * @return call state reader
+     * @throws IllegalArgumentException if the region has not the expected layout
+     */
+    public static SharedCallState wrap(ByteBuffer buffer) {
+        ByteBuffer ordered = buffer.duplicate().order(ByteOrder.nativeOrder());
+
+        if (ordered.capacity() < HEADER_SIZE || ordered.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("buffer is not a shared call state region!");
+
+        fence();
+
+        if (ordered.getInt(4) != VERSION || ordered.getInt(12) != SLOT_SIZE)
+            throw new IllegalArgumentException("unsupported shared call state version!");
+
+        int slotCount = ordered.getInt(8);
+        if (ordered.capacity() < HEADER_SIZE + slotCount * SLOT_SIZE)
+            throw new IllegalArgumentException("shared call state region is truncated!");
+
+        return new SharedCallState(ordered, slotCount);
+    }
+
+    /**
+     * Gets the shared memory backing this region.
+     * @return shared memory, or null if the region is local to the service process
+     */
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    public SharedMemory getSharedMemory() {
+        return (SharedMemory) mSharedMemory;
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * Reads the state of a call.
+     * @param callID call ID
+     * @return call state (without account ID), or null if the call is not active or a
+     * consistent read was not possible because the slot is being continuously updated
+     */
+    public SipServiceState.CallSnapshot read(int callID) {
+        if (callID < 0 || callID >= mSlotCount) return null;
+
+        int offset = HEADER_SIZE + callID * SLOT_SIZE;
+
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequence = mBuffer.getInt(offset + OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0) continue;
+
+            fence();
+            int flags = mBuffer.getInt(offset + OFFSET_FLAGS);
+            int state = mBuffer.getInt(offset + OFFSET_CALL_STATE);
+            int status = mBuffer.getInt(offset + OFFSET_CALL_STATUS);
+            long connectTimestamp = mBuffer.getLong(offset + OFFSET_CONNECT_TIMESTAMP);
+            fence();
+
+            if (mBuffer.getInt(offset + OFFSET_SEQUENCE) != sequence) continue;
+
+            if ((flags & FLAG_ACTIVE) == 0) return null;
+
+            return new SipServiceState.CallSnapshot(null, callID, state, status, connectTimestamp,
+                    (flags & FLAG_LOCAL_HOLD) != 0, (flags & FLAG_LOCAL_MUTE) != 0,
+                    (flags & FLAG_LOCAL_VIDEO_MUTE) != 0);
+        }
+
+        return null;
+    }
+
+    /**
+     * Publishes the state of a call. Must be called by a single writer at a time.
+     */
+    void write(int callID, int callState, int callStatus, long connectTimestamp,
+               boolean isLocalHold, boolean isLocalMute, boolean isLocalVideoMute) {
+        int flags = FLAG_ACTIVE
+                | (isLocalHold ? FLAG_LOCAL_HOLD : 0)
+                | (isLocalMute ? FLAG_LOCAL_MUTE : 0)
+                | (isLocalVideoMute ? FLAG_LOCAL_VIDEO_MUTE : 0);
+
+        writeSlot(callID, callState, callStatus, connectTimestamp, flags);
+    }
+
+    /**
+     * Marks a call slot as not active. Must be called by a single writer at a time.
+     */
+    void clear(int callID) {
+        writeSlot(callID, 0, 0, 0, 0);
+    }
+
+    void clearAll() {
+        for (int i = 0; i < mSlotCount; i++) {
+            clear(i);
+        }
+    }
+
+    /**
+     * Releases the shared memory file descriptor. The mapping is released when this object
+     * is garbage collected, so in-process readers still holding it never read unmapped memory.
+     * Readers in other processes keep their own mapping.
+     */
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    void close() {
+        if (mSharedMemory != null) {
+            ((SharedMemory) mSharedMemory).close();
+            mSharedMemory = null;
+        }
+    }
+
+    private void writeSlot(int callID, int callState, int callStatus, long connectTimestamp, int flags) {
+        if (callID < 0 || callID >= mSlotCount) return;
+
+        int offset = HEADER_SIZE + callID * SLOT_SIZE;
+        int sequence = mBuffer.getInt(offset + OFFSET_SEQUENCE);
+
+        mBuffer.putInt(offset + OFFSET_SEQUENCE, sequence + 1);
+        fence();
+        mBuffer.putInt(offset + OFFSET_CALL_ID, callID);
+        mBuffer.putInt(offset + OFFSET_CALL_STATE, callState);
+        mBuffer.putInt(offset + OFFSET_CALL_STATUS, callStatus);
+        mBuffer.putLong(offset + OFFSET_CONNECT_TIMESTAMP, connectTimestamp);
+        mBuffer.putInt(offset + OFFSET_FLAGS, flags);
+        fence();
+        mBuffer.putInt(offset + OFFSET_SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Full memory barrier between the plain accesses to the region made before and after it.
+     * VarHandle fences are not available on the supported API levels, so it's made of a
+     * volatile store followed by a volatile load. The compiler can't move any access across
+     * this pair, and ART emits it as a barrier on every architecture (dmb on ARM, stlr followed
+     * by ldar on ARM64, a locked instruction on x86), which also orders the stores and loads
+     * to the shared memory seen by the other processes. The Java memory model alone makes no
+     * guarantees about memory shared with other processes, so this relies on the runtime.
+     */
+    private static void fence() {
+        mFence = 0;
+        @SuppressWarnings("unused") int ignored = mFence;
+    }
+}
@@ -23,6 +23,10 @@ public class SharedPreferencesHelper {
     private final String PREFS_KEY_ACCOUNTS = "accounts";
     private final String PREFS_KEY_CODEC_PRIORITIES = "codec_priorities";
     private final String PREFS_KEY_DND = "dnd_pref";
+    private final String PREFS_KEY_CALL_STATS_SAMPLING_INTERVAL = "call_stats_sampling_interval";
+    private final String PREFS_KEY_ADAPTIVE_JITTER_BUFFER = "adaptive_jitter_buffer";
+    private final String PREFS_KEY_JITTER_BUFFER_SETTINGS = "jitter_buffer_settings_";
+    private final String PREFS_KEY_LAZY_VIDEO_INIT = "lazy_video_init";
     private final String PREFS_KEY_ENCRYPTION_ENABLED = "encryption_enabled";
     private final String PREFS_KEY_KEYSTORE_ALIAS = "keystore_alias";
 
@@ -81,6 +85,46 @@ public class SharedPreferencesHelper {
         sharedPreferences.edit().putBoolean(PREFS_KEY_DND, dnd).apply();
     }
 
+    long getCallStatsSamplingInterval() {
+        return sharedPreferences.getLong(PREFS_KEY_CALL_STATS_SAMPLING_INTERVAL,
+                                         SipServiceConstants.CALL_STATS_DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    void setCallStatsSamplingInterval(long interval) {
+        sharedPreferences.edit().putLong(PREFS_KEY_CALL_STATS_SAMPLING_INTERVAL, interval).apply();
+    }
+
+    boolean isAdaptiveJitterBuffer() {
+        return sharedPreferences.getBoolean(PREFS_KEY_ADAPTIVE_JITTER_BUFFER, true);
+    }
+
+    void setAdaptiveJitterBuffer(boolean enabled) {
+        SharedPreferences.Editor editor = sharedPreferences.edit().putBoolean(PREFS_KEY_ADAPTIVE_JITTER_BUFFER, enabled);
+        if (!enabled) {
+            for (JitterBufferTuner.NetworkClass networkClass : JitterBufferTuner.NetworkClass.values()) {
+                editor.remove(PREFS_KEY_JITTER_BUFFER_SETTINGS + networkClass.name());
+            }
+        }
+        editor.apply();
+    }
+
+    JitterBufferTuner.Settings getJitterBufferSettings(String networkClass) {
+        String settings = sharedPreferences.getString(PREFS_KEY_JITTER_BUFFER_SETTINGS + networkClass, null);
+        return settings == null ? null : gson.fromJson(settings, JitterBufferTuner.Settings.class);
+    }
+
+    void setJitterBufferSettings(String networkClass, JitterBufferTuner.Settings settings) {
+        sharedPreferences.edit().putString(PREFS_KEY_JITTER_BUFFER_SETTINGS + networkClass, gson.toJson(settings)).apply();
+    }
+
+    boolean isLazyVideoInit() {
+        return sharedPreferences.getBoolean(PREFS_KEY_LAZY_VIDEO_INIT, false);
+    }
+
+    void setLazyVideoInit(boolean lazy) {
+        sharedPreferences.edit().putBoolean(PREFS_KEY_LAZY_VIDEO_INIT, lazy).apply();
+    }
+
     void setEncryption(Context context, boolean enableEncryption, String alias) {
         if (enableEncryption) {
             setAlias(alias);
@@ -4,11 +4,13 @@ import org.pjsip.pjsua2.Account;
 import org.pjsip.pjsua2.CallInfo;
 import org.pjsip.pjsua2.CallOpParam;
 import org.pjsip.pjsua2.OnIncomingCallParam;
+import org.pjsip.pjsua2.OnRegStartedParam;
 import org.pjsip.pjsua2.OnRegStateParam;
+import org.pjsip.pjsua2.SipRxData;
 import org.pjsip.pjsua2.pjsip_status_code;
 
-import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper around PJSUA2 Account object.
@@ -18,14 +20,16 @@ public class SipAccount extends Account {
 
     private static final String LOG_TAG = SipAccount.class.getSimpleName();
 
-    private HashMap<Integer, SipCall> activeCalls = new HashMap<>();
+    private final AtomicInteger callCount = new AtomicInteger();
     private SipAccountData data;
     private SipService service;
+    private final RegistrationStats registrationStats;
 
     protected SipAccount(SipService service, SipAccountData data) {
         super();
         this.service = service;
         this.data = data;
+        this.registrationStats = new RegistrationStats(data.getIdUri());
     }
 
     public SipService getService() {
@@ -37,53 +41,76 @@ public class SipAccount extends Account {
     }
 
     public void create() throws Exception {
-        create(data.getAccountConfig());
+        try (NativeScope scope = new NativeScope()) {
+            create(scope.add(data.getAccountConfig()));
+        }
     }
 
     public void createGuest() throws Exception {
-        create(data.getGuestAccountConfig());
+        try (NativeScope scope = new NativeScope()) {
+            create(scope.add(data.getGuestAccountConfig()));
+        }
     }
 
     protected void removeCall(int callId) {
-        SipCall call = activeCalls.get(callId);
+        SipCall call = service.getCallRegistry().get(callId);
 
-        if (call != null) {
+        if (call != null && call.getAccount() == this) {
             Logger.debug(LOG_TAG, "Removing call with ID: " + callId);
-            activeCalls.remove(callId);
+            service.getCallRegistry().unregister(callId);
         }
     }
 
     public SipCall getCall(int callId) {
-        return activeCalls.get(callId);
+        SipCall call = service.getCallRegistry().get(callId);
+        return call != null && call.getAccount() == this ? call : null;
     }
 
+    /**
+     * Gets a snapshot of the IDs of the active calls of this account.
+     * @return set of call IDs
+     */
     public Set<Integer> getCallIDs() {
-        return activeCalls.keySet();
+        return service.getCallRegistry().getCallIDs(this);
+    }
+
+    /**
+     * Gets the number of active calls of this account.
+     * @return number of active calls
+     */
+    public int getCallCount() {
+        return callCount.get();
+    }
+
+    void incrementCallCount() {
+        callCount.incrementAndGet();
+    }
+
+    void decrementCallCount() {
+        callCount.decrementAndGet();
     }
 
     public SipCall addIncomingCall(int callId) {
 
         SipCall call = new SipCall(this, callId);
-        activeCalls.put(callId, call);
+        service.getCallRegistry().register(call, false);
         Logger.debug(LOG_TAG, "Added incoming call with ID " + callId + " to " + data.getIdUri());
         return call;
     }
 
     public SipCall addOutgoingCall(final String numberToDial, boolean isVideo, boolean isVideoConference) {
 
-        // check if there's already an ongoing call
-        int totalCalls = 0;
-        for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
-        }
+        // reserve a call slot first, so that a concurrent incoming call sees this one
+        CallRegistry registry = service.getCallRegistry();
+        int totalCalls = registry.reserve();
 
         // allow calls only if there are no other ongoing calls
-        if (totalCalls == 0) {
+        if (totalCalls == 1) {
             SipCall call = new SipCall(this);
             call.setVideoParams(isVideo, isVideoConference);
 
-            CallOpParam callOpParam = new CallOpParam();
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                CallOpParam callOpParam = scope.add(new CallOpParam());
                 if (numberToDial.startsWith("sip:")) {
                     call.makeCall(numberToDial, callOpParam);
                 } else {
@@ -93,16 +120,19 @@ public class SipAccount extends Account {
                         call.makeCall("sip:" + numberToDial + "@" + data.getRealm(), callOpParam);
                     }
                 }
-                activeCalls.put(call.getId(), call);
+                registry.register(call, true);
                 Logger.debug(LOG_TAG, "New outgoing call with ID: " + call.getId());
 
                 return call;
 
             } catch (Exception exc) {
+                registry.release();
                 Logger.error(LOG_TAG, "Error while making outgoing call", exc);
                 return null;
             }
         }
+
+        registry.release();
         return null;
     }
 
@@ -126,8 +156,31 @@ public class SipAccount extends Account {
         return data.hashCode();
     }
 
+    /**
+     * Gets the registration performance and failure statistics of this account.
+     * @return copy of the current registration stats
+     */
+    public RegistrationStats getRegistrationStats() {
+        return registrationStats.snapshot();
+    }
+
+    @Override
+    public void onRegStarted(OnRegStartedParam prm) {
+        registrationStats.onRegStarted(prm.getRenew());
+    }
+
     @Override
     public void onRegState(OnRegStateParam prm) {
+        String response = null;
+        try {
+            SipRxData rdata = prm.getRdata();
+            response = rdata == null ? null : rdata.getWholeMsg();
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while getting registration response", exc);
+        }
+        registrationStats.onRegState(prm.getCode().swigValue(), response);
+        service.onRegistrationResponse(data.getIdUri(), prm.getCode().swigValue());
+
         service.getBroadcastEmitter()
                .registrationState(data.getIdUri(), prm.getCode().swigValue());
     }
@@ -139,8 +192,8 @@ public class SipAccount extends Account {
 
         // Send 603 Decline if in DND mode
         if (service.isDND()) {
-            try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
+            try (NativeScope scope = new NativeScope()) {
+                CallerInfo contactInfo = new CallerInfo(scope.add(call.getInfo()));
                 service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
                 call.declineIncomingCall();
                 Logger.debug(LOG_TAG, "Decline call with ID: " + prm.getCallId());
@@ -151,14 +204,9 @@ public class SipAccount extends Account {
         }
 
         // Send 486 Busy Here if there's an already ongoing call
-        int totalCalls = 0;
-        for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
-        }
-
-        if (totalCalls > 1) {
-            try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
+        if (service.getCallRegistry().getCallCount() > 1) {
+            try (NativeScope scope = new NativeScope()) {
+                CallerInfo contactInfo = new CallerInfo(scope.add(call.getInfo()));
                 service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
                 call.sendBusyHereToIncomingCall();
                 Logger.debug(LOG_TAG, "Sending busy to call ID: " + prm.getCallId());
@@ -168,16 +216,18 @@ public class SipAccount extends Account {
             return;
         }
 
-        try {
+        try (NativeScope scope = new NativeScope()) {
             // Answer with 180 Ringing
-            CallOpParam callOpParam = new CallOpParam();
+            CallOpParam callOpParam = scope.add(new CallOpParam());
             callOpParam.setStatusCode(pjsip_status_code.PJSIP_SC_RINGING);
             call.answer(callOpParam);
             Logger.debug(LOG_TAG, "Sending 180 ringing");
 
+            CallInfo callInfo;
             String displayName = "", remoteUri = "";
             try {
-                CallerInfo contactInfo = new CallerInfo(call.getInfo());
+                callInfo = scope.add(call.getInfo());
+                CallerInfo contactInfo = new CallerInfo(callInfo);
                 displayName = contactInfo.getDisplayName();
                 remoteUri = contactInfo.getRemoteUri();
             } catch (Exception ex) {
@@ -186,8 +236,8 @@ public class SipAccount extends Account {
             }
 
             // check for video in remote SDP
-            CallInfo callInfo = call.getInfo();
             boolean isVideo = (callInfo.getRemOfferer() && callInfo.getRemVideoCount() > 0);
+            if (isVideo) service.initVideo();
 
             service.getBroadcastEmitter().incomingCall(data.getIdUri(), prm.getCallId(),
                             displayName, remoteUri, isVideo);
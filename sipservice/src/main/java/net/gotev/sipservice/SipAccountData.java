@@ -233,7 +233,10 @@ public class SipAccountData implements Parcelable {
         accountConfig.getRegConfig().setTimeoutSec(regExpirationTimeout);
 
         // account sip stuff configs
-        accountConfig.getSipConfig().getAuthCreds().add(getAuthCredInfo());
+        try (NativeScope scope = new NativeScope()) {
+            // the vector keeps a copy
+            accountConfig.getSipConfig().getAuthCreds().add(scope.add(getAuthCredInfo()));
+        }
         accountConfig.getSipConfig().getProxies().add(getProxyUri());
         accountConfig.getSipConfig().setContactUriParams(contactUriParams);
 
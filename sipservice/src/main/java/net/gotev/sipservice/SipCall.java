@@ -16,23 +16,31 @@ import org.pjsip.pjsua2.Media;
 import org.pjsip.pjsua2.OnCallMediaEventParam;
 import org.pjsip.pjsua2.OnCallMediaStateParam;
 import org.pjsip.pjsua2.OnCallStateParam;
+import org.pjsip.pjsua2.OnCallTsxStateParam;
 import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.SipEvent;
+import org.pjsip.pjsua2.SipTransaction;
 import org.pjsip.pjsua2.StreamInfo;
 import org.pjsip.pjsua2.StreamStat;
 import org.pjsip.pjsua2.VideoPreview;
 import org.pjsip.pjsua2.VideoPreviewOpParam;
 import org.pjsip.pjsua2.VideoWindow;
 import org.pjsip.pjsua2.VideoWindowHandle;
+import org.pjsip.pjsua2.VideoWindowInfo;
 import org.pjsip.pjsua2.pjmedia_event_type;
 import org.pjsip.pjsua2.pjmedia_type;
+import org.pjsip.pjsua2.pjsip_event_id_e;
 import org.pjsip.pjsua2.pjsip_inv_state;
 import org.pjsip.pjsua2.pjsip_role_e;
 import org.pjsip.pjsua2.pjsip_status_code;
+import org.pjsip.pjsua2.pjsip_tsx_state_e;
 import org.pjsip.pjsua2.pjsua2;
 import org.pjsip.pjsua2.pjsua_call_flag;
 import org.pjsip.pjsua2.pjsua_call_media_status;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 
+import java.util.ArrayList;
+
 /**
  * Wrapper around PJSUA2 Call object.
  * @author gotev (Aleksandar Gotev)
@@ -54,6 +62,8 @@ public class SipCall extends Call {
 
     private VideoWindow mVideoWindow;
     private VideoPreview mVideoPreview;
+    private volatile CallStatsSampler mStatsSampler;
+    private final CallSetupStats mSetupStats;
 
     /**
      * Incoming call constructor.
@@ -65,6 +75,8 @@ public class SipCall extends Call {
         this.account = account;
         mVideoPreview = null;
         mVideoWindow = null;
+        mSetupStats = new CallSetupStats(true);
+        mSetupStats.onInvite();
     }
 
     /**
@@ -74,11 +86,16 @@ public class SipCall extends Call {
     public SipCall(SipAccount account) {
         super(account);
         this.account = account;
+        mSetupStats = new CallSetupStats(false);
+    }
+
+    public SipAccount getAccount() {
+        return account;
     }
 
     public pjsip_inv_state getCurrentState() {
-        try {
-            CallInfo info = getInfo();
+        try (NativeScope scope = new NativeScope()) {
+            CallInfo info = scope.add(getInfo());
             return info.getState();
         } catch (Exception exc) {
             Logger.error(getClass().getSimpleName(), "Error while getting call Info", exc);
@@ -88,11 +105,14 @@ public class SipCall extends Call {
 
     @Override
     public void onCallState(OnCallStateParam prm) {
-        try {
-            CallInfo info = getInfo();
+        boolean disconnected = false;
+
+        try (NativeScope scope = new NativeScope()) {
+            CallInfo info = scope.add(getInfo());
             int callID = info.getId();
             pjsip_inv_state callState = info.getState();
             pjsip_status_code callStatus = null;
+            disconnected = callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED;
 
             /*
              * From: http://www.pjsip.org/docs/book-latest/html/call.html#call-disconnection
@@ -115,27 +135,56 @@ public class SipCall extends Call {
                 stopVideoFeeds();
                 stopSendingKeyFrame();
                 account.removeCall(callID);
+                ArrayList<MediaStreamStats> streams = null;
                 if (connectTimestamp > 0) {
+                    // the video stream is often torn down already, which must not prevent the disconnection
+                    try {
+                        streams = getMediaStreamStats(info);
+                    } catch (Exception ex) {
+                        Logger.error(LOG_TAG, "Error while getting media stream stats", ex);
+                    }
+
                     try {
                         sendCallStats(
                                 info.getConnectDuration().getSec(),
                                 callStatus != null ? callStatus.swigValue() : -1,
-                                getStreamInfo(0),
-                                getStreamStat(0));
+                                scope.add(getStreamInfo(0)),
+                                scope.add(getStreamStat(0)),
+                                streams,
+                                mSetupStats);
                     } catch (Exception ex) {
                         Logger.error(LOG_TAG, "Error while sending call stats", ex);
-                        throw ex;
+                    }
+
+                    try {
+                        account.getService().getJitterBufferTuner().onCallEnded(streams);
+                    } catch (Exception ex) {
+                        Logger.error(LOG_TAG, "Error while tuning the jitter buffer", ex);
+                    }
+
+                    if (streams != null) {
+                        try {
+                            recordSetupLatency(streams);
+                        } catch (Exception ex) {
+                            Logger.error(LOG_TAG, "Error while recording the setup latency", ex);
+                        }
                     }
                 }
+                storeCallRecord(info, callStatus != null ? callStatus.swigValue() : -1, streams);
             } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_CONFIRMED) {
                 checkAndStopLocalRingBackTone();
                 connectTimestamp = System.currentTimeMillis();
+                mSetupStats.onConfirmed();
                 if (videoCall) {
                     setVideoMute(false);
                     startSendingKeyFrame();
                 }
+                startSamplingStats();
 
                 // check whether the 183 has arrived or not
+            } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_CALLING) {
+                mSetupStats.onInvite();
+
             } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_EARLY){
                 pjsip_status_code statusCode = info.getLastStatusCode();
                 // check if 180 && call is outgoing (ROLE UAC)
@@ -153,43 +202,67 @@ public class SipCall extends Call {
                     .callState(account.getData().getIdUri(), callID, callState.swigValue(), callStatus != null ? callStatus.swigValue() : -1,
                                connectTimestamp, localHold, localMute, localVideoMute);
 
-            if (callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
-                account.getService().setLastCallStatus(0);
-                delete();
-            }
-
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "onCallState: error while getting call info", exc);
+
+        } finally {
+            // the call is no longer valid once this callback returns, whatever failed above
+            if (disconnected) {
+                account.getService().setLastCallStatus(0);
+                stopSamplingStatsAndDelete();
+            }
         }
 
     }
 
     @Override
-    public void onCallMediaState(OnCallMediaStateParam prm) {
-
-        CallInfo info;
+    public void onCallTsxState(OnCallTsxStateParam prm) {
         try {
-            info = getInfo();
+            SipEvent event = prm.getE();
+            if (event.getType() != pjsip_event_id_e.PJSIP_EVENT_TSX_STATE) return;
+
+            SipTransaction tsx = event.getBody().getTsxState().getTsx();
+            if (!"INVITE".equals(tsx.getMethod())) return;
+
+            if (tsx.getRole() == pjsip_role_e.PJSIP_ROLE_UAC
+                    && tsx.getState() == pjsip_tsx_state_e.PJSIP_TSX_STATE_CALLING) {
+                mSetupStats.onInvite();
+            }
+            mSetupStats.onInviteResponse(tsx.getStatusCode());
         } catch (Exception exc) {
-            Logger.error(LOG_TAG, "onCallMediaState: error while getting call info", exc);
-            return;
+            Logger.error(LOG_TAG, "onCallTsxState: error while getting transaction info", exc);
         }
+    }
 
-        for (int i = 0; i < info.getMedia().size(); i++) {
-            Media media = getMedia(i);
-            CallMediaInfo mediaInfo = info.getMedia().get(i);
+    @Override
+    public void onCallMediaState(OnCallMediaStateParam prm) {
+
+        try (NativeScope scope = new NativeScope()) {
+            CallInfo info;
+            try {
+                info = scope.add(getInfo());
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "onCallMediaState: error while getting call info", exc);
+                return;
+            }
 
-            if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
-                    && media != null
-                    && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
+            for (int i = 0; i < info.getMedia().size(); i++) {
+                Media media = getMedia(i);
+                CallMediaInfo mediaInfo = info.getMedia().get(i);
 
-                handleAudioMedia(media);
+                if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
+                        && media != null
+                        && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
 
-            } else if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_VIDEO
-                    && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE
-                    && mediaInfo.getVideoIncomingWindowId() != pjsua2.INVALID_ID) {
+                    handleAudioMedia(media);
+                    mSetupStats.onMediaActive();
 
-                handleVideoMedia(mediaInfo);
+                } else if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_VIDEO
+                        && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE
+                        && mediaInfo.getVideoIncomingWindowId() != pjsua2.INVALID_ID) {
+
+                    handleVideoMedia(mediaInfo);
+                }
             }
         }
     }
@@ -198,10 +271,11 @@ public class SipCall extends Call {
     public void onCallMediaEvent(OnCallMediaEventParam prm) {
         if (prm.getEv().getType() == pjmedia_event_type.PJMEDIA_EVENT_FMT_CHANGED) {
             // Sending new video size
-            try {
-                account.getService().getBroadcastEmitter().videoSize(
-                        (int) mVideoWindow.getInfo().getSize().getW(),
-                        (int) mVideoWindow.getInfo().getSize().getH());
+            try (NativeScope scope = new NativeScope()) {
+                VideoWindowInfo windowInfo = scope.add(mVideoWindow.getInfo());
+                account.getService().getBroadcastEmitter().videoSize(getId(),
+                        (int) windowInfo.getSize().getW(),
+                        (int) windowInfo.getSize().getH());
             } catch (Exception ex) {
                 Logger.error(LOG_TAG, "Unable to get video dimensions", ex);
             }
@@ -218,14 +292,14 @@ public class SipCall extends Call {
     }
 
     public void acceptIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_OK);
-        setMediaParams(param);
-        if (!videoCall) {
-            CallSetting callSetting = param.getOpt();
-            callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA.swigValue());
-        }
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam());
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_OK);
+            setMediaParams(param);
+            if (!videoCall) {
+                CallSetting callSetting = param.getOpt();
+                callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA.swigValue());
+            }
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to accept incoming call", exc);
@@ -233,10 +307,9 @@ public class SipCall extends Call {
     }
 
     public void sendBusyHereToIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_BUSY_HERE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam());
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_BUSY_HERE);
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to send busy here", exc);
@@ -244,10 +317,9 @@ public class SipCall extends Call {
     }
 
     public void declineIncomingCall() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam());
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
             answer(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to decline incoming call", exc);
@@ -255,10 +327,9 @@ public class SipCall extends Call {
     }
 
     public void hangUp() {
-        CallOpParam param = new CallOpParam();
-        param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam());
+            param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
             hangup(param);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to hangUp call", exc);
@@ -273,37 +344,39 @@ public class SipCall extends Call {
         // return immediately if we are not changing the current state
         if ((localMute && mute) || (!localMute && !mute)) return;
 
-        CallInfo info;
-        try {
-            info = getInfo();
-        } catch (Exception exc) {
-            Logger.error(LOG_TAG, "setMute: error while getting call info", exc);
-            return;
-        }
+        try (NativeScope scope = new NativeScope()) {
+            CallInfo info;
+            try {
+                info = scope.add(getInfo());
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "setMute: error while getting call info", exc);
+                return;
+            }
 
-        for (int i = 0; i < info.getMedia().size(); i++) {
-            Media media = getMedia(i);
-            CallMediaInfo mediaInfo = info.getMedia().get(i);
+            for (int i = 0; i < info.getMedia().size(); i++) {
+                Media media = getMedia(i);
+                CallMediaInfo mediaInfo = info.getMedia().get(i);
 
-            if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
-                    && media != null
-                    && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
-                AudioMedia audioMedia = AudioMedia.typecastFromMedia(media);
+                if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
+                        && media != null
+                        && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
+                    AudioMedia audioMedia = AudioMedia.typecastFromMedia(media);
 
-                // connect or disconnect the captured audio
-                try {
-                    AudDevManager mgr = account.getService().getAudDevManager();
-
-                    if (mute) {
-                        mgr.getCaptureDevMedia().stopTransmit(audioMedia);
-                        localMute = true;
-                    } else {
-                        mgr.getCaptureDevMedia().startTransmit(audioMedia);
-                        localMute = false;
+                    // connect or disconnect the captured audio
+                    try {
+                        AudDevManager mgr = account.getService().getAudDevManager();
+
+                        if (mute) {
+                            mgr.getCaptureDevMedia().stopTransmit(audioMedia);
+                            localMute = true;
+                        } else {
+                            mgr.getCaptureDevMedia().startTransmit(audioMedia);
+                            localMute = false;
+                        }
+
+                    } catch (Exception exc) {
+                        Logger.error(LOG_TAG, "setMute: error while connecting audio media to sound device", exc);
                     }
-
-                } catch (Exception exc) {
-                    Logger.error(LOG_TAG, "setMute: error while connecting audio media to sound device", exc);
                 }
             }
         }
@@ -343,18 +416,17 @@ public class SipCall extends Call {
             }
         }
 
-        CallOpParam param = new CallOpParam();
-
-        xfer(transferString, param);
+        try (NativeScope scope = new NativeScope()) {
+            xfer(transferString, scope.add(new CallOpParam()));
+        }
     }
 
     public void setHold(boolean hold) {
         // return immediately if we are not changing the current state
         if ((localHold && hold) || (!localHold && !hold)) return;
 
-        CallOpParam param = new CallOpParam();
-
-        try {
+        try (NativeScope scope = new NativeScope()) {
+            CallOpParam param = scope.add(new CallOpParam());
             if (hold) {
                 Logger.debug(LOG_TAG, "holding call with ID " + getId());
                 setHold(param);
@@ -466,13 +538,14 @@ public class SipCall extends Call {
 
     public void setIncomingVideoFeed(Surface surface) {
         if (mVideoWindow != null) {
-            VideoWindowHandle videoWindowHandle = new VideoWindowHandle();
-            videoWindowHandle.getHandle().setWindow(surface);
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                VideoWindowHandle videoWindowHandle = scope.add(new VideoWindowHandle());
+                videoWindowHandle.getHandle().setWindow(surface);
                 mVideoWindow.setWindow(videoWindowHandle);
-                account.getService().getBroadcastEmitter().videoSize(
-                        (int) mVideoWindow.getInfo().getSize().getW(),
-                        (int) mVideoWindow.getInfo().getSize().getH());
+                VideoWindowInfo windowInfo = scope.add(mVideoWindow.getInfo());
+                account.getService().getBroadcastEmitter().videoSize(getId(),
+                        (int) windowInfo.getSize().getW(),
+                        (int) windowInfo.getSize().getH());
 
                 // start video again if not mute
                 setVideoMute(localVideoMute);
@@ -484,11 +557,11 @@ public class SipCall extends Call {
 
     public void startPreviewVideoFeed(Surface surface) {
         if (mVideoPreview != null) {
-            VideoWindowHandle videoWindowHandle = new VideoWindowHandle();
-            videoWindowHandle.getHandle().setWindow(surface);
-            VideoPreviewOpParam videoPreviewOpParam = new VideoPreviewOpParam();
-            videoPreviewOpParam.setWindow(videoWindowHandle);
-            try {
+            try (NativeScope scope = new NativeScope()) {
+                VideoWindowHandle videoWindowHandle = scope.add(new VideoWindowHandle());
+                videoWindowHandle.getHandle().setWindow(surface);
+                VideoPreviewOpParam videoPreviewOpParam = scope.add(new VideoPreviewOpParam());
+                videoPreviewOpParam.setWindow(videoWindowHandle);
                 mVideoPreview.start(videoPreviewOpParam);
             } catch (Exception ex) {
                 Logger.error(LOG_TAG, "Unable to start Video Preview", ex);
@@ -538,11 +611,11 @@ public class SipCall extends Call {
     }
 
     public void setVideoMute(boolean videoMute) {
-        try {
+        try (NativeScope scope = new NativeScope()) {
             vidSetStream(videoMute
                     ? pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_STOP_TRANSMIT
                     : pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_START_TRANSMIT,
-                new CallVidSetStreamParam());
+                scope.add(new CallVidSetStreamParam()));
             localVideoMute = videoMute;
         } catch(Exception ex) {
             Logger.error(LOG_TAG, "Error while toggling video transmission", ex);
@@ -564,8 +637,9 @@ public class SipCall extends Call {
     private Runnable sendKeyFrameRunnable = new Runnable() {
         @Override
         public void run() {
-            try {
-                vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_SEND_KEYFRAME, new CallVidSetStreamParam());
+            try (NativeScope scope = new NativeScope()) {
+                vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_SEND_KEYFRAME,
+                             scope.add(new CallVidSetStreamParam()));
                 startSendingKeyFrame();
             } catch (Exception ex) {
                 Logger.error(LOG_TAG, "error while sending periodic keyframe");
@@ -574,14 +648,182 @@ public class SipCall extends Call {
     };
 
     private void startSendingKeyFrame() {
-        account.getService().enqueueDelayedJob(sendKeyFrameRunnable, SipServiceConstants.DELAYED_JOB_DEFAULT_DELAY);
+        account.getService().enqueueDelayedJob(sendKeyFrameRunnable, SipServiceConstants.DELAYED_JOB_DEFAULT_DELAY,
+                                               JobPriority.MEDIA);
     }
 
     private void stopSendingKeyFrame() {
         account.getService().dequeueJob(sendKeyFrameRunnable);
     }
 
-    private void sendCallStats(int duration, int callStatus, StreamInfo streamInfo, StreamStat streamStat) {
+    private void startSamplingStats() {
+        if (mStatsSampler != null) return;
+        mStatsSampler = new CallStatsSampler(this, account.getService().getCallStatsSamplingInterval());
+        mStatsSampler.start();
+    }
+
+    /**
+     * Stops the jobs of this call and deletes it, without waiting for the disconnection.
+     * Used when the sip stack is stopped while the call is still active.
+     */
+    void release() {
+        checkAndStopLocalRingBackTone();
+        stopSendingKeyFrame();
+        stopSamplingStatsAndDelete();
+    }
+
+    private void stopSamplingStatsAndDelete() {
+        if (mStatsSampler == null) {
+            delete();
+            return;
+        }
+
+        mStatsSampler.stop(new Runnable() {
+            @Override
+            public void run() {
+                delete();
+            }
+        });
+    }
+
+    /**
+     * Gets the RTCP and jitter buffer samples taken so far during this call.
+     * @return call stats series, or null if the call has not been confirmed yet
+     */
+    public CallStatsSeries getStatsSeries() {
+        return mStatsSampler == null ? null : mStatsSampler.getSeries();
+    }
+
+    /**
+     * Gets the complete statistics of the active audio streams and of the video stream of this call.
+     * @return list of stream statistics
+     */
+    public ArrayList<MediaStreamStats> getMediaStreamStats() throws Exception {
+        try (NativeScope scope = new NativeScope()) {
+            return getMediaStreamStats(scope.add(getInfo()));
+        }
+    }
+
+    private ArrayList<MediaStreamStats> getMediaStreamStats(CallInfo info) throws Exception {
+        ArrayList<MediaStreamStats> streams = new ArrayList<>();
+
+        try (NativeScope scope = new NativeScope()) {
+            for (int i = 0; i < info.getMedia().size(); i++) {
+                CallMediaInfo mediaInfo = info.getMedia().get(i);
+                if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
+                        && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
+                    streams.add(MediaStreamStats.from(i, scope.add(getStreamInfo(i)), scope.add(getStreamStat(i))));
+                }
+            }
+
+            int videoIndex = vidGetStreamIdx();
+            if (videoIndex >= 0) {
+                streams.add(MediaStreamStats.from(videoIndex, scope.add(getStreamInfo(videoIndex)),
+                                                  scope.add(getStreamStat(videoIndex))));
+            }
+        }
+
+        return streams;
+    }
+
+    /**
+     * Gets the estimated mean opinion score of this call, updated at every stats sample.
+     * @return MOS from 1 to 4.5, or 0 if the call has not been sampled yet
+     */
+    public float getMos() {
+        CallQualityEstimator estimator = mStatsSampler == null ? null : mStatsSampler.getQualityEstimator();
+        return estimator == null ? 0 : estimator.getMos();
+    }
+
+    /**
+     * Gets the estimated R-factor of this call, updated at every stats sample.
+     * @return R-factor from 0 to 100, or 0 if the call has not been sampled yet
+     */
+    public float getRFactor() {
+        CallQualityEstimator estimator = mStatsSampler == null ? null : mStatsSampler.getQualityEstimator();
+        return estimator == null ? 0 : estimator.getRFactor();
+    }
+
+    /**
+     * Gets the timestamps of the setup phases of this call.
+     * @return call setup stats
+     */
+    public CallSetupStats getSetupStats() {
+        return mSetupStats;
+    }
+
+    private void recordSetupLatency(ArrayList<MediaStreamStats> streams) {
+        SipService service = account.getService();
+        QualityHistograms histograms = service.getQualityHistograms();
+        if (histograms == null) return;
+
+        for (MediaStreamStats stream : streams) {
+            if (stream.getMediaType() != MediaStreamStats.TYPE_AUDIO || mSetupStats.getTimeToFirstAudio() < 0) continue;
+
+            histograms.record(QualityHistograms.METRIC_SETUP_MSEC,
+                              QualityHistograms.getCodecId(stream.getCodecName(), stream.getCodecClockRate()),
+                              service.getJitterBufferTuner().getNetworkClass(),
+                              mSetupStats.getTimeToFirstAudio());
+            break;
+        }
+
+        // also persists the values sampled during the call
+        service.scheduleQualityHistogramsSave();
+    }
+
+    private void storeCallRecord(CallInfo info, int callStatus, ArrayList<MediaStreamStats> streams) {
+        try {
+            CallerInfo callerInfo = new CallerInfo(info);
+
+            final CallRecord record = new CallRecord();
+            record.endTimestamp = System.currentTimeMillis();
+            record.connectTimestamp = connectTimestamp;
+            record.accountID = account.getData().getIdUri();
+            record.remoteUri = callerInfo.getRemoteUri();
+            record.displayName = callerInfo.getDisplayName();
+            record.callID = info.getId();
+            record.incoming = mSetupStats.isIncoming();
+            record.duration = connectTimestamp > 0 ? info.getConnectDuration().getSec() : 0;
+            record.callStatus = callStatus;
+            record.postDialDelay = mSetupStats.getPostDialDelay();
+            record.timeToFirstAudio = mSetupStats.getTimeToFirstAudio();
+            record.mos = getMos();
+
+            if (streams != null) {
+                for (MediaStreamStats stream : streams) {
+                    if (stream.getMediaType() != MediaStreamStats.TYPE_AUDIO) continue;
+
+                    record.audioCodec = stream.getCodecName().toLowerCase() + "_" + stream.getCodecClockRate();
+                    record.rxPkts = stream.getRx().getPkts();
+                    record.rxLoss = stream.getRx().getLoss();
+                    record.rxDiscard = stream.getRx().getDiscard();
+                    record.rxJitterMeanUsec = (int) stream.getRx().getJitterUsec().getMean();
+                    record.txPkts = stream.getTx().getPkts();
+                    record.txLoss = stream.getTx().getLoss();
+                    record.txJitterMeanUsec = (int) stream.getTx().getJitterUsec().getMean();
+                    break;
+                }
+            }
+
+            // the store may have to be opened or rotated, so keep the disk I/O off the pjsip thread
+            final SipService service = account.getService();
+            service.enqueueJob(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        CallRecordStore.getInstance(service).append(record);
+                    } catch (Exception exc) {
+                        Logger.error(LOG_TAG, "Error while storing call record", exc);
+                    }
+                }
+            }, JobPriority.CONFIGURATION);
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while building call record", exc);
+        }
+    }
+
+    private void sendCallStats(int duration, int callStatus, StreamInfo streamInfo, StreamStat streamStat,
+                               ArrayList<MediaStreamStats> streams, CallSetupStats setupStats) {
         String audioCodec = streamInfo.getCodecName().toLowerCase()+"_"+streamInfo.getCodecClockRate();
 
         RtcpStreamStat rxStat = streamStat.getRtcp().getRxStat();
@@ -615,6 +857,6 @@ public class SipCall extends Call {
                 txJitter
         );
 
-        account.getService().getBroadcastEmitter().callStats(duration, audioCodec, callStatus, rx, tx);
+        account.getService().getBroadcastEmitter().callStats(duration, audioCodec, callStatus, rx, tx, streams, setupStats);
     }
 }
@@ -0,0 +1,165 @@
+package net.gotev.sipservice;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.pjsip.pjsua2.pjsip_inv_state;
+import org.pjsip.pjsua2.pjsip_status_code;
+
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process registry of {@link SipEventListener}s, to which {@link BroadcastEventEmitter}
+ * dispatches the sip service events directly, without creating intents or parcels.
+ * Broadcast intents are still sent for the receivers in other processes, unless disabled
+ * with {@link #setBroadcastsEnabled(boolean)}.
+ */
+@SuppressWarnings("unused")
+public class SipEventBus {
+
+    interface Event {
+        void dispatch(SipEventListener listener);
+    }
+
+    private static final class Registration {
+        final SipEventListener listener;
+        final Executor executor;
+
+        Registration(SipEventListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations = new CopyOnWriteArrayList<>();
+    private volatile boolean mBroadcastsEnabled = true;
+    private volatile Executor mMainThreadExecutor;
+
+    private SipEventBus() { }
+
+    private static class SingletonHolder {
+        private static final SipEventBus instance = new SipEventBus();
+    }
+
+    /**
+     * Registers a listener, which will receive the events on the main thread.
+     * The current state in {@link SipServiceState} is delivered to the listener right away.
+     * @param listener listener to register
+     */
+    public static void register(SipEventListener listener) {
+        register(listener, SingletonHolder.instance.getMainThreadExecutor());
+    }
+
+    /**
+     * Registers a listener.
+     * The current state in {@link SipServiceState} is delivered to the listener right away.
+     * @param listener listener to register
+     * @param executor executor on which to deliver the events to the listener
+     */
+    public static void register(SipEventListener listener, Executor executor) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener MUST not be null!");
+
+        if (executor == null)
+            throw new IllegalArgumentException("executor MUST not be null!");
+
+        unregister(listener);
+        SingletonHolder.instance.mRegistrations.add(new Registration(listener, executor));
+        replayState(listener, executor);
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param listener listener to unregister
+     */
+    public static void unregister(SipEventListener listener) {
+        for (Registration registration : SingletonHolder.instance.mRegistrations) {
+            if (registration.listener == listener) {
+                SingletonHolder.instance.mRegistrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Enables or disables the broadcast intents sent to {@link BroadcastEventReceiver}s.
+     * Broadcasts are enabled by default. Disable them if all the consumers of the events
+     * run in the same process of the service and use a {@link SipEventListener}.
+     * @param enabled true to send broadcasts, false otherwise
+     */
+    public static void setBroadcastsEnabled(boolean enabled) {
+        SingletonHolder.instance.mBroadcastsEnabled = enabled;
+    }
+
+    static boolean isBroadcastEnabled() {
+        return SingletonHolder.instance.mBroadcastsEnabled;
+    }
+
+    static boolean hasListeners() {
+        return !SingletonHolder.instance.mRegistrations.isEmpty();
+    }
+
+    /**
+     * Delivers an event to all the registered listeners, each one on its own executor.
+     * @param event event to deliver
+     */
+    static void post(final Event event) {
+        for (final Registration registration : SingletonHolder.instance.mRegistrations) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        event.dispatch(registration.listener);
+                    } catch (Exception exc) {
+                        Logger.error(SipEventBus.class.getSimpleName(), "Error in event listener", exc);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Delivers the current stack, registrations and calls state to a new listener.
+     */
+    private static void replayState(final SipEventListener listener, Executor executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!SipServiceState.isStackStarted()) return;
+
+                    listener.onStackStatus(true);
+
+                    for (Map.Entry<String, Integer> registration : SipServiceState.getRegistrations().entrySet()) {
+                        listener.onRegistration(registration.getKey(),
+                                                pjsip_status_code.swigToEnum(registration.getValue()));
+                    }
+
+                    for (SipServiceState.CallSnapshot call : SipServiceState.getCalls()) {
+                        listener.onCallState(call.getAccountID(), call.getCallID(),
+                                pjsip_inv_state.swigToEnum(call.getCallStateCode()),
+                                (call.getCallStatusCode() > 0) ? pjsip_status_code.swigToEnum(call.getCallStatusCode()) : null,
+                                call.getConnectTimestamp(), call.isLocalHold(), call.isLocalMute(),
+                                call.isLocalVideoMute());
+                    }
+                } catch (Exception exc) {
+                    Logger.error(SipEventBus.class.getSimpleName(), "Error while replaying state", exc);
+                }
+            }
+        });
+    }
+
+    private Executor getMainThreadExecutor() {
+        if (mMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return mMainThreadExecutor;
+    }
+}
@@ -0,0 +1,70 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.pjsip_inv_state;
+import org.pjsip.pjsua2.pjsip_status_code;
+
+import java.util.ArrayList;
+
+/**
+ * In-process listener of the events emitted by the sip service.
+ * It receives the same events of {@link BroadcastEventReceiver}, but they are delivered
+ * directly by the service, without any broadcast intent. Usable only when the app and the
+ * service share the same process. Register it with
+ * {@link SipEventBus#register(SipEventListener)} and override only the events you need.
+ */
+@SuppressWarnings("unused")
+public abstract class SipEventListener {
+
+    public void onRegistration(String accountID, pjsip_status_code registrationStateCode) { }
+
+    public void onIncomingCall(String accountID, int callID, String displayName, String remoteUri, boolean isVideo) { }
+
+    public void onCallState(String accountID, int callID, pjsip_inv_state callStateCode, pjsip_status_code callStatusCode,
+                            long connectTimestamp, boolean isLocalHold, boolean isLocalMute, boolean isLocalVideoMute) { }
+
+    public void onOutgoingCall(String accountID, int callID, String number, boolean isVideo, boolean isVideoConference) { }
+
+    public void onStackStatus(boolean started) { }
+
+    public void onReceivedCodecPriorities(ArrayList<CodecPriority> codecPriorities) { }
+
+    public void onCodecPrioritiesSetStatus(boolean success) { }
+
+    public void onMissedCall(String displayName, String uri) { }
+
+    public void onVideoSize(int width, int height) { }
+
+    public void onCallStats(int duration, String audioCodec, pjsip_status_code callStatusCode, RtpStreamStats rx, RtpStreamStats tx) { }
+
+    /**
+     * Receives the call stats together with the complete statistics of every media stream
+     * and the setup latencies of the call.
+     * By default it calls {@link #onCallStats(int, String, pjsip_status_code, RtpStreamStats, RtpStreamStats)}.
+     */
+    public void onCallStats(int duration, String audioCodec, pjsip_status_code callStatusCode, RtpStreamStats rx,
+                            RtpStreamStats tx, ArrayList<MediaStreamStats> streams,
+                            CallSetupStats setupStats) {
+        onCallStats(duration, audioCodec, callStatusCode, rx, tx);
+    }
+
+    public void onBatchResult(String batchID, int executed, ArrayList<String> failedActions) { }
+
+    public void onCommandLatencies(ArrayList<CommandLatency> latencies) { }
+
+    public void onCallStatsSample(String accountID, int callID, long timestamp, int rxLoss, int rxJitterUsec,
+                                  int rttUsec, int jbufDelayMsec, int jbufDiscard) { }
+
+    public void onCallStatsSeries(String accountID, int callID, CallStatsSeries series) { }
+
+    public void onCallQuality(String accountID, int callID, boolean degraded, float mos, float rFactor) { }
+
+    public void onRegistrationStats(String accountID, RegistrationStats stats) { }
+
+    public void onQualityHistograms(QualityHistograms histograms) { }
+
+    public void onStartupReport(StartupReport report) { }
+
+    public void onWarmUpCompleted(boolean success, long durationMillis, long savingMillis) { }
+
+    public void onSipStackRestarted(boolean soft, long timeToRegisteredMillis, int registeredAccounts) { }
+}
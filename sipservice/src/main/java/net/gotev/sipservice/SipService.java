@@ -2,8 +2,10 @@ package net.gotev.sipservice;
 
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.view.Surface;
 
 import org.pjsip.pjsua2.AudDevManager;
@@ -24,10 +26,13 @@ import org.pjsip.pjsua2.pjsip_transport_type_e;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 import org.pjsip.pjsua2.pjsua_destroy_flag;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -44,164 +49,417 @@ public class SipService extends BackgroundService implements SipServiceConstants
     private List<SipAccountData> mConfiguredAccounts = new ArrayList<>();
     private SipAccountData mConfiguredGuestAccount;
     private static ConcurrentHashMap<String, SipAccount> mActiveSipAccounts = new ConcurrentHashMap<>();
+    private final CallRegistry mCallRegistry = new CallRegistry();
     private BroadcastEventEmitter mBroadcastEmitter;
     private Endpoint mEndpoint;
     private SharedPreferencesHelper mSharedPreferencesHelper;
+    private JitterBufferTuner mJitterBufferTuner;
+    private volatile QualityHistograms mQualityHistograms;
     private volatile boolean mStarted;
+    private volatile boolean mVideoInitialized;
+    // native libraries stay loaded as long as the process is alive
+    private static volatile boolean mVideoLibraryLoaded;
+    private final StartupTrace mStartupTrace = new StartupTrace();
+    private volatile StartupReport mStartupReport;
+    private volatile boolean mWarmingUp;
+    private volatile long mFirstCommandDuringWarmUp;
+    private boolean mKeepWarm;
+    private int mUdpTransportId = -1;
+    private int mTcpTransportId = -1;
+    private final Set<String> mPendingRestartRegistrations = new HashSet<>();
+    private long mRestartStart = -1;
+    private boolean mSoftRestart;
+    private int mRestartRegisteredAccounts;
     private int callStatus;
+    private final SipServiceBinder mBinder = new SipServiceBinder(this);
+    private final CommandCoalescer mCommandCoalescer = new CommandCoalescer(this);
+    private SharedCallState mSharedCallState;
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return mBinder;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        enqueueJob(new Runnable() {
+        mSharedCallState = SharedCallState.create(CallRegistry.MAX_CALLS);
+
+        enqueueBarrierJob(new Runnable() {
             @Override
             public void run() {
                 Logger.debug(TAG, "Creating SipService with priority: " + Thread.currentThread().getPriority());
+                int create = mStartupTrace.begin("onCreate");
 
-                loadNativeLibraries();
+                int span = mStartupTrace.begin("SharedPreferencesHelper.init");
                 mSharedPreferencesHelper = SharedPreferencesHelper.getInstance(SipService.this)
                         .init(SipService.this);
+                mStartupTrace.end(span);
+
+                loadNativeLibraries();
+
+                mJitterBufferTuner = new JitterBufferTuner(SipService.this, mSharedPreferencesHelper);
+                span = mStartupTrace.begin("QualityHistograms.load");
+                mQualityHistograms = QualityHistograms.load(getQualityHistogramsFile());
+                mStartupTrace.end(span);
+
                 mBroadcastEmitter = new BroadcastEventEmitter(SipService.this);
+                mBroadcastEmitter.setSharedCallState(mSharedCallState);
+
+                span = mStartupTrace.begin("loadConfiguredAccounts");
                 loadConfiguredAccounts();
+                mStartupTrace.end(span);
+
+                span = mStartupTrace.begin("addAllConfiguredAccounts");
                 addAllConfiguredAccounts();
+                mStartupTrace.end(span);
 
+                mStartupTrace.end(create);
+                mStartupTrace.onCreated();
                 Logger.debug(TAG, "SipService created!");
+
+                // nothing to wait for
+                if (mActiveSipAccounts.isEmpty()) {
+                    onColdStartFinished(-1);
+                }
             }
-        });
+        }, JobPriority.CONFIGURATION);
     }
 
     @Override
     public int onStartCommand(final Intent intent, int flags, int startId) {
-        enqueueJob(new Runnable() {
+        String action = intent != null ? intent.getAction() : null;
+
+        final Runnable job = new Runnable() {
             @Override
             public void run() {
                 if (intent == null) return;
 
-                String action = intent.getAction();
-
-                if (action == null) return;
-
-                switch(action) {
-                    case ACTION_SET_ACCOUNT:
-                        handleSetAccount(intent);
-                        break;
-                    case ACTION_REMOVE_ACCOUNT:
-                        handleRemoveAccount(intent);
-                        break;
-                    case ACTION_RESTART_SIP_STACK:
-                        handleRestartSipStack();
-                        break;
-                    case ACTION_MAKE_CALL:
-                        handleMakeCall(intent);
-                        break;
-                    case ACTION_HANG_UP_CALL:
-                        handleHangUpCall(intent);
-                        break;
-                    case ACTION_HANG_UP_CALLS:
-                        handleHangUpActiveCalls(intent);
-                        break;
-                    case ACTION_HOLD_CALLS:
-                        handleHoldActiveCalls(intent);
-                        break;
-                    case ACTION_GET_CALL_STATUS:
-                        handleGetCallStatus(intent);
-                        break;
-                    case ACTION_SEND_DTMF:
-                        handleSendDTMF(intent);
-                        break;
-                    case ACTION_ACCEPT_INCOMING_CALL:
-                        handleAcceptIncomingCall(intent);
-                        break;
-                    case ACTION_DECLINE_INCOMING_CALL:
-                        handleDeclineIncomingCall(intent);
-                        break;
-                    case ACTION_SET_HOLD:
-                        handleSetCallHold(intent);
-                        break;
-                    case ACTION_TOGGLE_HOLD:
-                        handleToggleCallHold(intent);
-                        break;
-                    case ACTION_SET_MUTE:
-                        handleSetCallMute(intent);
-                        break;
-                    case ACTION_TOGGLE_MUTE:
-                        handleToggleCallMute(intent);
-                        break;
-                    case ACTION_TRANSFER_CALL:
-                        handleTransferCall(intent);
-                        break;
-                    case ACTION_GET_CODEC_PRIORITIES:
-                        handleGetCodecPriorities();
-                        break;
-                    case ACTION_SET_CODEC_PRIORITIES:
-                        handleSetCodecPriorities(intent);
-                        break;
-                    case ACTION_GET_REGISTRATION_STATUS:
-                        handleGetRegistrationStatus(intent);
-                        break;
-                    case ACTION_REFRESH_REGISTRATION:
-                        handleRefreshRegistration(intent);
-                        break;
-                    case ACTION_SET_DND:
-                        handleSetDND(intent);
-                        break;
-                    case ACTION_SET_INCOMING_VIDEO:
-                        handleSetIncomingVideoFeed(intent);
-                        break;
-                    case ACTION_SET_SELF_VIDEO_ORIENTATION:
-                        handleSetSelfVideoOrientation(intent);
-                        break;
-                    case ACTION_SET_VIDEO_MUTE:
-                        handleSetVideoMute(intent);
-                        break;
-                    case ACTION_START_VIDEO_PREVIEW:
-                        handleStartVideoPreview(intent);
-                        break;
-                    case ACTION_STOP_VIDEO_PREVIEW:
-                        handleStopVideoPreview(intent);
-                        break;
-                    case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
-                        handleSwitchVideoCaptureDevice(intent);
-                        break;
-                    case ACTION_MAKE_DIRECT_CALL:
-                        handleMakeDirectCall(intent);
-                        break;
-                    default: break;
-                }
+                handleCommand(intent);
 
-                if (mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null) {
+                if (mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null && !mKeepWarm) {
                     Logger.debug(TAG, "No more configured accounts. Shutting down service");
                     stopSelf();
                 }
             }
-        });
+        };
+
+        if (isBarrierCommand(action)) {
+            if (!ACTION_WARM_UP.equals(action)) onCommandEnqueued();
+            enqueueBarrierJob(instrument(action, job), getJobPriority(action));
+        } else if (intent != null) {
+            enqueueCommand(action, intent.getStringExtra(PARAM_ACCOUNT_ID),
+                           intent.getIntExtra(PARAM_CALL_ID, 0), job);
+        } else {
+            enqueueJob(job, getJobPriority(action));
+        }
 
         return START_NOT_STICKY;
     }
 
+    /**
+     * Enqueues a command job in its lane, coalescing it with the pending duplicate commands
+     * and recording its latencies in {@link CommandMetrics}.
+     * @param action command action
+     * @param accountID account ID
+     * @param callID call ID
+     * @param job job which executes the command
+     */
+    void enqueueCommand(String action, String accountID, int callID, Runnable job) {
+        onCommandEnqueued();
+        mCommandCoalescer.enqueue(action, accountID, callID, instrument(action, job),
+                                  getJobPriority(action));
+    }
+
+    /**
+     * Wraps a command job to record its queue and execution time. Must be called when the
+     * job is enqueued.
+     */
+    private static Runnable instrument(final String action, final Runnable job) {
+        if (action == null) return job;
+
+        final long enqueueTime = System.nanoTime();
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                try {
+                    job.run();
+                } finally {
+                    CommandMetrics.record(action, enqueueTime, startTime, System.nanoTime());
+                }
+            }
+        };
+    }
+
+    CommandCoalescer getCommandCoalescer() {
+        return mCommandCoalescer;
+    }
+
+    /**
+     * Gets the worker thread lane in which to execute a command.
+     * @param action command action
+     * @return priority lane
+     */
+    static JobPriority getJobPriority(String action) {
+        if (action == null) return JobPriority.CONFIGURATION;
+
+        switch (action) {
+            case ACTION_MAKE_CALL:
+            case ACTION_MAKE_DIRECT_CALL:
+            case ACTION_HANG_UP_CALL:
+            case ACTION_HANG_UP_CALLS:
+            case ACTION_HOLD_CALLS:
+            case ACTION_GET_CALL_STATUS:
+            case ACTION_SEND_DTMF:
+            case ACTION_ACCEPT_INCOMING_CALL:
+            case ACTION_DECLINE_INCOMING_CALL:
+            case ACTION_SET_HOLD:
+            case ACTION_TOGGLE_HOLD:
+            case ACTION_SET_MUTE:
+            case ACTION_TOGGLE_MUTE:
+            case ACTION_TRANSFER_CALL:
+            case ACTION_BATCH:
+                return JobPriority.CALL_CONTROL;
+
+            case ACTION_SET_INCOMING_VIDEO:
+            case ACTION_GET_CALL_STATS_SERIES:
+            case ACTION_SET_SELF_VIDEO_ORIENTATION:
+            case ACTION_SET_VIDEO_MUTE:
+            case ACTION_START_VIDEO_PREVIEW:
+            case ACTION_STOP_VIDEO_PREVIEW:
+            case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
+                return JobPriority.MEDIA;
+
+            case ACTION_GET_REGISTRATION_STATUS:
+            case ACTION_GET_REGISTRATION_STATS:
+            case ACTION_REFRESH_REGISTRATION:
+                return JobPriority.REGISTRATION;
+
+            default:
+                return JobPriority.CONFIGURATION;
+        }
+    }
+
+    /**
+     * Commands which add, remove or recreate accounts, or change a setting the following
+     * commands depend on, can't be overtaken by the commands sent after them, which would
+     * otherwise run against a stale configuration (e.g. dial with the old codec priorities,
+     * or accept a call after DND has been enabled).
+     */
+    private static boolean isBarrierCommand(String action) {
+        if (action == null) return false;
+
+        switch (action) {
+            case ACTION_SET_ACCOUNT:
+            case ACTION_WARM_UP:
+            case ACTION_REMOVE_ACCOUNT:
+            case ACTION_RESTART_SIP_STACK:
+            case ACTION_SOFT_RESTART_SIP_STACK:
+            case ACTION_SET_CODEC_PRIORITIES:
+            case ACTION_SET_DND:
+            case ACTION_SET_CALL_STATS_SAMPLING_INTERVAL:
+            case ACTION_SET_ADAPTIVE_JITTER_BUFFER:
+            case ACTION_SET_LAZY_VIDEO_INIT:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Executes a single command on the worker thread.
+     * @param intent intent describing the command
+     * @return false if the command action is unknown or if a call or account command failed,
+     * true otherwise
+     */
+    private boolean handleCommand(Intent intent) {
+        String action = intent.getAction();
+
+        if (action == null) return false;
+
+        switch(action) {
+            case ACTION_SET_ACCOUNT:
+                handleSetAccount(intent);
+                break;
+            case ACTION_REMOVE_ACCOUNT:
+                handleRemoveAccount(intent);
+                break;
+            case ACTION_RESTART_SIP_STACK:
+                handleRestartSipStack();
+                break;
+            case ACTION_MAKE_CALL:
+                return handleMakeCall(intent);
+            case ACTION_HANG_UP_CALL:
+                return handleHangUpCall(intent);
+            case ACTION_HANG_UP_CALLS:
+                return handleHangUpActiveCalls(intent);
+            case ACTION_HOLD_CALLS:
+                return handleHoldActiveCalls(intent);
+            case ACTION_GET_CALL_STATUS:
+                return handleGetCallStatus(intent);
+            case ACTION_SEND_DTMF:
+                return handleSendDTMF(intent);
+            case ACTION_ACCEPT_INCOMING_CALL:
+                return handleAcceptIncomingCall(intent);
+            case ACTION_DECLINE_INCOMING_CALL:
+                return handleDeclineIncomingCall(intent);
+            case ACTION_SET_HOLD:
+                return handleSetCallHold(intent);
+            case ACTION_TOGGLE_HOLD:
+                return handleToggleCallHold(intent);
+            case ACTION_SET_MUTE:
+                return handleSetCallMute(intent);
+            case ACTION_TOGGLE_MUTE:
+                return handleToggleCallMute(intent);
+            case ACTION_TRANSFER_CALL:
+                return handleTransferCall(intent);
+            case ACTION_GET_CODEC_PRIORITIES:
+                handleGetCodecPriorities();
+                break;
+            case ACTION_SET_CODEC_PRIORITIES:
+                handleSetCodecPriorities(intent);
+                break;
+            case ACTION_GET_REGISTRATION_STATUS:
+                return handleGetRegistrationStatus(intent);
+            case ACTION_REFRESH_REGISTRATION:
+                handleRefreshRegistration(intent);
+                break;
+            case ACTION_SET_DND:
+                handleSetDND(intent);
+                break;
+            case ACTION_SET_INCOMING_VIDEO:
+                handleSetIncomingVideoFeed(intent);
+                break;
+            case ACTION_SET_SELF_VIDEO_ORIENTATION:
+                handleSetSelfVideoOrientation(intent);
+                break;
+            case ACTION_SET_VIDEO_MUTE:
+                return handleSetVideoMute(intent);
+            case ACTION_START_VIDEO_PREVIEW:
+                handleStartVideoPreview(intent);
+                break;
+            case ACTION_STOP_VIDEO_PREVIEW:
+                handleStopVideoPreview(intent);
+                break;
+            case ACTION_SWITCH_VIDEO_CAPTURE_DEVICE:
+                handleSwitchVideoCaptureDevice(intent);
+                break;
+            case ACTION_MAKE_DIRECT_CALL:
+                handleMakeDirectCall(intent);
+                break;
+            case ACTION_BATCH:
+                handleBatch(intent);
+                break;
+            case ACTION_GET_COMMAND_LATENCIES:
+                mBroadcastEmitter.commandLatencies(CommandMetrics.getSnapshot());
+                break;
+            case ACTION_GET_CALL_STATS_SERIES:
+                handleGetCallStatsSeries(intent);
+                break;
+            case ACTION_SET_CALL_STATS_SAMPLING_INTERVAL:
+                handleSetCallStatsSamplingInterval(intent);
+                break;
+            case ACTION_SET_ADAPTIVE_JITTER_BUFFER:
+                handleSetAdaptiveJitterBuffer(intent);
+                break;
+            case ACTION_GET_REGISTRATION_STATS:
+                handleGetRegistrationStats(intent.getStringExtra(PARAM_ACCOUNT_ID));
+                break;
+            case ACTION_SOFT_RESTART_SIP_STACK:
+                handleSoftRestartSipStack(intent);
+                break;
+            case ACTION_WARM_UP:
+                handleWarmUp();
+                break;
+            case ACTION_SET_LAZY_VIDEO_INIT:
+                mSharedPreferencesHelper.setLazyVideoInit(intent.getBooleanExtra(PARAM_LAZY_VIDEO_INIT, false));
+                break;
+            case ACTION_GET_QUALITY_HISTOGRAMS:
+                mBroadcastEmitter.qualityHistograms(mQualityHistograms.snapshot());
+                break;
+            default:
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Executes all the commands contained in a batch, in order, within the same job.
+     * Nested batches and the barrier commands are not allowed, as the batch runs as a normal
+     * job of the call control lane: they are reported as failed. A single aggregated result
+     * is emitted at the end.
+     */
+    void handleBatch(Intent intent) {
+        String batchID = intent.getStringExtra(PARAM_BATCH_ID);
+        ArrayList<Intent> commands = intent.getParcelableArrayListExtra(PARAM_BATCH_COMMANDS);
+        handleBatch(batchID, commands);
+    }
+
+    void handleBatch(String batchID, List<Intent> commands) {
+        int executed = 0;
+        ArrayList<String> failedActions = new ArrayList<>();
+
+        if (commands != null) {
+            Logger.debug(TAG, "Executing batch " + batchID + " with " + commands.size() + " commands");
+
+            for (Intent command : commands) {
+                if (command == null) continue;
+
+                String action = command.getAction();
+                boolean success;
+
+                if (ACTION_BATCH.equals(action) || isBarrierCommand(action)) {
+                    Logger.error(TAG, "Action " + action + " is not allowed in batch " + batchID);
+                    failedActions.add(action);
+                    continue;
+                }
+
+                try {
+                    success = handleCommand(command);
+                } catch (Exception exc) {
+                    Logger.error(TAG, "Error while executing " + action + " in batch " + batchID, exc);
+                    success = false;
+                }
+
+                if (success) {
+                    executed++;
+                } else {
+                    failedActions.add(action);
+                }
+            }
+        }
+
+        mBroadcastEmitter.batchResult(batchID, executed, failedActions);
+    }
+
     @Override
     public void onDestroy() {
-        enqueueJob(new Runnable() {
+        enqueueBarrierJob(new Runnable() {
             @Override
             public void run() {
                 Logger.debug(TAG, "Destroying SipService");
+                mKeepWarm = false;
+                dequeueJob(mCoolDownJob);
                 stopStack();
+                dequeueJob(mSaveQualityHistogramsJob);
+                mSaveQualityHistogramsJob.run();
+                if (mBroadcastEmitter != null) {
+                    mBroadcastEmitter.setSharedCallState(null);
+                    mBroadcastEmitter.destroy();
+                }
+                mSharedCallState.close();
             }
-        });
+        }, JobPriority.CONFIGURATION);
         super.onDestroy();
     }
 
     private SipCall getCall(String accountID, int callID) {
-        SipAccount account = mActiveSipAccounts.get(accountID);
-
-        if (account == null) return null;
-        return account.getCall(callID);
+        return mCallRegistry.get(accountID, callID);
     }
 
     private void notifyCallDisconnected(String accountID, int callID) {
@@ -212,20 +470,21 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 false, false, false);
     }
 
-    private void handleGetCallStatus(Intent intent) {
-
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+    private boolean handleGetCallStatus(Intent intent) {
+        return handleGetCallStatus(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                            intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
 
+    boolean handleGetCallStatus(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         int callStatusCode = callStatus;
-        try {
-            callStatusCode = sipCall.getInfo().getLastStatusCode().swigValue();
+        try (NativeScope scope = new NativeScope()) {
+            callStatusCode = scope.add(sipCall.getInfo()).getLastStatusCode().swigValue();
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -233,251 +492,302 @@ public class SipService extends BackgroundService implements SipServiceConstants
         mBroadcastEmitter.callState(accountID, callID, sipCall.getCurrentState().swigValue(), callStatusCode,
                                     sipCall.getConnectTimestamp(), sipCall.isLocalHold(),
                                     sipCall.isLocalMute(), sipCall.isLocalVideoMute());
+        return true;
     }
 
-    private void handleSendDTMF(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
-        String dtmf = intent.getStringExtra(PARAM_DTMF);
+    private boolean handleSendDTMF(Intent intent) {
+        return handleSendDTMF(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                       intent.getIntExtra(PARAM_CALL_ID, 0),
+                       intent.getStringExtra(PARAM_DTMF));
+    }
 
+    boolean handleSendDTMF(String accountID, int callID, String dtmf) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.dialDtmf(dtmf);
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while dialing dtmf: " + dtmf + ". AccountID: "
                          + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleAcceptIncomingCall(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
-        boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
+    private boolean handleAcceptIncomingCall(Intent intent) {
+        return handleAcceptIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                                 intent.getIntExtra(PARAM_CALL_ID, 0),
+                                 intent.getBooleanExtra(PARAM_IS_VIDEO, false));
+    }
 
+    boolean handleAcceptIncomingCall(String accountID, int callID, boolean isVideo) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
+            if (isVideo) initVideo();
             sipCall.setVideoParams(isVideo, false);
             sipCall.acceptIncomingCall();
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while accepting incoming call. AccountID: "
                          + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleSetCallHold(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
-        boolean hold = intent.getBooleanExtra(PARAM_HOLD, false);
+    private boolean handleSetCallHold(Intent intent) {
+        return handleSetCallHold(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                          intent.getIntExtra(PARAM_CALL_ID, 0),
+                          intent.getBooleanExtra(PARAM_HOLD, false));
+    }
 
+    boolean handleSetCallHold(String accountID, int callID, boolean hold) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.setHold(hold);
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while setting hold. AccountID: "
                     + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleToggleCallHold(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+    private boolean handleToggleCallHold(Intent intent) {
+        return handleToggleCallHold(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                             intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
 
+    boolean handleToggleCallHold(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.toggleHold();
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while toggling hold. AccountID: "
                     + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleSetCallMute(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
-        boolean mute = intent.getBooleanExtra(PARAM_MUTE, false);
+    private boolean handleSetCallMute(Intent intent) {
+        return handleSetCallMute(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                          intent.getIntExtra(PARAM_CALL_ID, 0),
+                          intent.getBooleanExtra(PARAM_MUTE, false));
+    }
 
+    boolean handleSetCallMute(String accountID, int callID, boolean mute) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.setMute(mute);
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while setting mute. AccountID: "
                          + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleToggleCallMute(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+    private boolean handleToggleCallMute(Intent intent) {
+        return handleToggleCallMute(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                             intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
 
+    boolean handleToggleCallMute(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.toggleMute();
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while toggling mute. AccountID: "
                     + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleDeclineIncomingCall(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+    private boolean handleDeclineIncomingCall(Intent intent) {
+        return handleDeclineIncomingCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                                  intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
 
+    boolean handleDeclineIncomingCall(String accountID, int callID) {
         SipCall sipCall = getCall(accountID, callID);
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
 
         try {
             sipCall.declineIncomingCall();
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while declining incoming call. AccountID: "
                     + accountID + ", CallID: " + callID);
+            return false;
         }
     }
 
-    private void handleHangUpCall(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+    private boolean handleHangUpCall(Intent intent) {
+        return handleHangUpCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                         intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
 
+    boolean handleHangUpCall(String accountID, int callID) {
         try {
             SipCall sipCall = getCall(accountID, callID);
 
             if (sipCall == null) {
                 notifyCallDisconnected(accountID, callID);
-                return;
+                return false;
             }
 
             sipCall.hangUp();
-
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while hanging up call", exc);
             notifyCallDisconnected(accountID, callID);
+            return false;
         }
     }
 
-    private void handleHangUpActiveCalls(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleHangUpActiveCalls(Intent intent) {
+        return handleHangUpActiveCalls(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleHangUpActiveCalls(String accountID) {
         SipAccount account = mActiveSipAccounts.get(accountID);
-        if (account == null) return;
+        if (account == null) return false;
 
         Set<Integer> activeCallIDs = account.getCallIDs();
 
-        if (activeCallIDs == null || activeCallIDs.isEmpty()) return;
+        if (activeCallIDs == null || activeCallIDs.isEmpty()) return true;
 
+        boolean success = true;
         for (int callID : activeCallIDs) {
             try {
                 SipCall sipCall = getCall(accountID, callID);
 
                 if (sipCall == null) {
                     notifyCallDisconnected(accountID, callID);
-                    return;
+                    success = false;
+                    continue;
                 }
 
                 sipCall.hangUp();
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while hanging up call", exc);
                 notifyCallDisconnected(accountID, callID);
+                success = false;
             }
         }
+        return success;
     }
 
-    private void handleHoldActiveCalls(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleHoldActiveCalls(Intent intent) {
+        return handleHoldActiveCalls(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleHoldActiveCalls(String accountID) {
         SipAccount account = mActiveSipAccounts.get(accountID);
-        if (account == null) return;
+        if (account == null) return false;
 
         Set<Integer> activeCallIDs = account.getCallIDs();
 
-        if (activeCallIDs == null || activeCallIDs.isEmpty()) return;
+        if (activeCallIDs == null || activeCallIDs.isEmpty()) return true;
 
+        boolean success = true;
         for (int callID : activeCallIDs) {
             try {
                 SipCall sipCall = getCall(accountID, callID);
 
                 if (sipCall == null) {
                     notifyCallDisconnected(accountID, callID);
-                    return;
+                    success = false;
+                    continue;
                 }
 
                 sipCall.setHold(true);
             } catch (Exception exc) {
                 Logger.error(TAG, "Error while holding call", exc);
+                success = false;
             }
         }
+        return success;
     }
 
-    private void handleTransferCall(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
-        String number = intent.getStringExtra(PARAM_NUMBER);
+    private boolean handleTransferCall(Intent intent) {
+        return handleTransferCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                           intent.getIntExtra(PARAM_CALL_ID, 0),
+                           intent.getStringExtra(PARAM_NUMBER));
+    }
 
+    boolean handleTransferCall(String accountID, int callID, String number) {
         try {
             SipCall sipCall = getCall(accountID, callID);
 
             if (sipCall == null) {
                 notifyCallDisconnected(accountID, callID);
-                return;
+                return false;
             }
 
             sipCall.transferTo(number);
-
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while transferring call to " + number, exc);
             notifyCallDisconnected(accountID, callID);
+            return false;
         }
     }
 
-    private void handleMakeCall(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
-        String number = intent.getStringExtra(PARAM_NUMBER);
+    private boolean handleMakeCall(Intent intent) {
         boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
-        boolean isVideoConference = false;
-        if (isVideo) {
-            isVideoConference = intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false);
-        }
+        return handleMakeCall(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                       intent.getStringExtra(PARAM_NUMBER),
+                       isVideo,
+                       isVideo && intent.getBooleanExtra(PARAM_IS_VIDEO_CONF, false));
+    }
 
+    boolean handleMakeCall(String accountID, String number, boolean isVideo, boolean isVideoConference) {
         Logger.debug(TAG, "Making call to " + number);
 
         try {
+            if (isVideo) initVideo();
             SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(number, isVideo, isVideoConference);
             call.setVideoParams(isVideo, isVideoConference);
             mBroadcastEmitter.outgoingCall(accountID, call.getId(), number, isVideo, isVideoConference);
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while making outgoing call", exc);
             mBroadcastEmitter.outgoingCall(accountID, -1, number, false, false);
+            return false;
         }
     }
 
@@ -506,7 +816,9 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 if (refresh) {
                     sipAccount.setRegistration(true);
                 } else {
-                    sipAccount.modify(sipAccount.getData().getAccountConfig());
+                    try (NativeScope scope = new NativeScope()) {
+                        sipAccount.modify(scope.add(sipAccount.getData().getAccountConfig()));
+                    }
                     sipAccount.getData().setRegExpirationTimeout(100);
                 }
             } catch (Exception ex) {
@@ -518,12 +830,195 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
+    /**
+     * Enqueues the warm up of the sip stack as a barrier, so the commands issued in the
+     * meanwhile are executed once it's ready.
+     */
+    void enqueueWarmUp() {
+        enqueueBarrierJob(instrument(ACTION_WARM_UP, new Runnable() {
+            @Override
+            public void run() {
+                handleWarmUp();
+            }
+        }), JobPriority.CONFIGURATION);
+    }
+
+    private void onCommandEnqueued() {
+        if (mWarmingUp && mFirstCommandDuringWarmUp == 0) {
+            mFirstCommandDuringWarmUp = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Starts the sip stack ahead of the first command which needs it. The service is kept
+     * running until the first account is added, even if no accounts are configured, for at
+     * most {@link #WARM_UP_KEEP_ALIVE} milliseconds, after which it cools down and stops if
+     * there are still no configured accounts. Nothing is kept running if the warm up fails.
+     * The saving is the stack start time which the first command would have waited, minus the
+     * time it waited for the warm up to finish if it has been issued in the meanwhile.
+     */
+    private void handleWarmUp() {
+        if (mStarted) {
+            Logger.debug(TAG, "SIP stack already started, nothing to warm up");
+            return;
+        }
+
+        mKeepWarm = true;
+        mFirstCommandDuringWarmUp = 0;
+        mWarmingUp = true;
+        long start = SystemClock.elapsedRealtime();
+
+        startStack();
+
+        long end = SystemClock.elapsedRealtime();
+        mWarmingUp = false;
+
+        long waited = mFirstCommandDuringWarmUp == 0 ? 0 : end - mFirstCommandDuringWarmUp;
+        long duration = end - start;
+
+        if (mStarted) {
+            Logger.debug(TAG, "SIP stack warmed up in " + duration + "ms, saved " + (duration - waited) + "ms");
+            enqueueDelayedJob(mCoolDownJob, WARM_UP_KEEP_ALIVE, JobPriority.CONFIGURATION);
+        } else {
+            Logger.error(TAG, "SIP stack warm up failed after " + duration + "ms");
+            mKeepWarm = false;
+        }
+
+        mBroadcastEmitter.warmUpCompleted(mStarted, duration, mStarted ? duration - waited : 0);
+
+        if (!mKeepWarm) stopIfNoAccounts();
+    }
+
+    /**
+     * Stops keeping the service running for the warm up, if no account has been added
+     * in the meanwhile.
+     */
+    private final Runnable mCoolDownJob = new Runnable() {
+        @Override
+        public void run() {
+            if (!mKeepWarm) return;
+
+            Logger.debug(TAG, "No accounts added after the warm up, cooling down");
+            mKeepWarm = false;
+            stopIfNoAccounts();
+        }
+    };
+
+    private void stopIfNoAccounts() {
+        if (mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null) {
+            Logger.debug(TAG, "No configured accounts. Shutting down service");
+            stopSelf();
+        }
+    }
+
     private void handleRestartSipStack() {
         Logger.debug(TAG, "Restarting SIP stack");
+        startRestartBenchmark(false);
         stopStack();
         addAllConfiguredAccounts();
     }
 
+    private void handleSoftRestartSipStack(Intent intent) {
+        handleSoftRestartSipStack(intent.getBooleanExtra(PARAM_RESTART_UDP, true),
+                                  intent.getBooleanExtra(PARAM_RESTART_TCP, true));
+    }
+
+    /**
+     * Restarts the SIP stack keeping the endpoint and the accounts: only the given transports
+     * are closed and recreated, then the configured accounts are registered again in place.
+     * Falls back to a full restart if the stack is not started or the transports
+     * can't be recreated.
+     */
+    void handleSoftRestartSipStack(boolean udp, boolean tcp) {
+        if (!mStarted) {
+            handleRestartSipStack();
+            return;
+        }
+
+        Logger.debug(TAG, "Soft restarting SIP stack (UDP: " + udp + ", TCP: " + tcp + ")");
+        startRestartBenchmark(true);
+
+        try {
+            if (udp) {
+                if (mUdpTransportId >= 0) mEndpoint.transportClose(mUdpTransportId);
+                mUdpTransportId = createTransport(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP);
+            }
+            if (tcp) {
+                if (mTcpTransportId >= 0) mEndpoint.transportClose(mTcpTransportId);
+                mTcpTransportId = createTransport(pjsip_transport_type_e.PJSIP_TRANSPORT_TCP);
+            }
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while recreating transports, restarting the whole stack", exc);
+            handleRestartSipStack();
+            return;
+        }
+
+        for (SipAccountData data : mConfiguredAccounts) {
+            SipAccount account = mActiveSipAccounts.get(data.getIdUri());
+
+            try {
+                if (account == null || !account.isValid()) {
+                    addAccount(data);
+                } else if (udp || tcp) {
+                    // rebuilds the contact on the new transports and registers again
+                    try (NativeScope scope = new NativeScope()) {
+                        account.modify(scope.add(data.getAccountConfig()));
+                    }
+                } else {
+                    account.setRegistration(true);
+                }
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while registering again " + data.getIdUri(), exc);
+                onRestartRegistration(data.getIdUri(), -1);
+            }
+        }
+    }
+
+    private void startRestartBenchmark(boolean soft) {
+        synchronized (mPendingRestartRegistrations) {
+            mSoftRestart = soft;
+            mRestartRegisteredAccounts = 0;
+            mPendingRestartRegistrations.clear();
+            for (SipAccountData data : mConfiguredAccounts) {
+                mPendingRestartRegistrations.add(data.getIdUri());
+            }
+            mRestartStart = mPendingRestartRegistrations.isEmpty() ? -1 : SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Called at every registration response, to finish the cold start and the restart
+     * time-to-registered measurements.
+     * @param accountID account ID
+     * @param code SIP status code, or -1 if the account has failed to register
+     */
+    void onRegistrationResponse(String accountID, int code) {
+        onColdStartFinished(code);
+        onRestartRegistration(accountID, code);
+    }
+
+    private void onRestartRegistration(String accountID, int code) {
+        long timeToRegistered;
+        boolean soft;
+        int registered;
+
+        synchronized (mPendingRestartRegistrations) {
+            if (mRestartStart < 0 || !mPendingRestartRegistrations.remove(accountID)) return;
+
+            if (code >= 200 && code < 300) mRestartRegisteredAccounts++;
+            if (!mPendingRestartRegistrations.isEmpty()) return;
+
+            timeToRegistered = SystemClock.elapsedRealtime() - mRestartStart;
+            soft = mSoftRestart;
+            registered = mRestartRegisteredAccounts;
+            mRestartStart = -1;
+        }
+
+        Logger.debug(TAG, (soft ? "Soft" : "Full") + " restart registered " + registered
+                + " accounts in " + timeToRegistered + "ms");
+        mBroadcastEmitter.sipStackRestarted(soft, timeToRegistered, registered);
+    }
+
     private void handleResetAccounts() {
         Logger.debug(TAG, "Removing all the configured accounts");
 
@@ -598,22 +1093,97 @@ public class SipService extends BackgroundService implements SipServiceConstants
     }
 
     private void loadNativeLibraries() {
-        try {
-            System.loadLibrary("openh264");
-            Logger.debug(TAG, "OpenH264 loaded");
-        } catch (UnsatisfiedLinkError error) {
-            Logger.error(TAG, "Error while loading OpenH264 native library", error);
-            throw new RuntimeException(error);
+        int span = mStartupTrace.begin("loadNativeLibraries");
+
+        // before Android 6 the dynamic linker doesn't resolve the dependencies of pjsua2
+        // from the app libraries, so OpenH264 must always be loaded first
+        if (!isLazyVideoInit() || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            loadVideoLibrary();
         }
 
         // libYUV removed -> integrated from pjsip 2.6 and later
 
+        int pjsua2 = mStartupTrace.begin("loadLibrary pjsua2");
         try {
             System.loadLibrary("pjsua2");
             Logger.debug(TAG, "PJSIP pjsua2 loaded");
         } catch (UnsatisfiedLinkError error) {
             Logger.error(TAG, "Error while loading PJSIP pjsua2 native library", error);
             throw new RuntimeException(error);
+        } finally {
+            mStartupTrace.end(pjsua2);
+        }
+
+        mStartupTrace.end(span);
+    }
+
+    /**
+     * Loads OpenH264, if not done yet, so it's loaded and traced only once
+     * whether it's loaded with pjsua2 or by {@link #initVideo()}.
+     */
+    private void loadVideoLibrary() {
+        if (mVideoLibraryLoaded) return;
+
+        int span = mStartupTrace.begin("loadLibrary openh264");
+        try {
+            System.loadLibrary("openh264");
+            mVideoLibraryLoaded = true;
+            Logger.debug(TAG, "OpenH264 loaded");
+        } catch (UnsatisfiedLinkError error) {
+            Logger.error(TAG, "Error while loading OpenH264 native library", error);
+            throw new RuntimeException(error);
+        } finally {
+            mStartupTrace.end(span);
+        }
+    }
+
+    private boolean isLazyVideoInit() {
+        return mSharedPreferencesHelper.isLazyVideoInit();
+    }
+
+    private String getStartupModeName() {
+        return isLazyVideoInit() ? "lazy video" : "eager video";
+    }
+
+    /**
+     * Loads OpenH264 and sets the H264 parameters, if not done yet.
+     * When the lazy video initialization is enabled, this is called before the first video call
+     * or preview, otherwise when the stack starts.
+     */
+    synchronized void initVideo() {
+        if (mVideoInitialized || !mStarted) return;
+
+        int span = mStartupTrace.begin("initVideo");
+
+        try (NativeScope scope = new NativeScope()) {
+            loadVideoLibrary();
+
+            // Set H264 Parameters
+            int codecParam = mStartupTrace.begin("setVideoCodecParam");
+            VidCodecParam vidCodecParam = scope.add(mEndpoint.getVideoCodecParam(H264_CODEC_ID));
+            CodecFmtpVector codecFmtpVector = vidCodecParam.getDecFmtp();
+            MediaFormatVideo mediaFormatVideo = vidCodecParam.getEncFmt();
+            mediaFormatVideo.setWidth(H264_DEF_WIDTH);
+            mediaFormatVideo.setHeight(H264_DEF_HEIGHT);
+            vidCodecParam.setEncFmt(mediaFormatVideo);
+
+            for (int i = 0; i < codecFmtpVector.size(); i++) {
+                if (PROFILE_LEVEL_ID_HEADER.equals(codecFmtpVector.get(i).getName())) {
+                    codecFmtpVector.get(i).setVal(PROFILE_LEVEL_ID_JANUS_BRIDGE);
+                    break;
+                }
+            }
+            vidCodecParam.setDecFmtp(codecFmtpVector);
+            mEndpoint.setVideoCodecParam(H264_CODEC_ID, vidCodecParam);
+            mStartupTrace.end(codecParam);
+
+            mVideoInitialized = true;
+            Logger.debug(TAG, "Video initialized");
+
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while initializing video", exc);
+        } finally {
+            mStartupTrace.end(span);
         }
     }
 
@@ -624,12 +1194,16 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         if (mStarted) return;
 
-        try {
+        int stack = mStartupTrace.begin("startStack");
+
+        try (NativeScope scope = new NativeScope()) {
             Logger.debug(TAG, "Starting PJSIP");
+            int span = mStartupTrace.begin("libCreate");
             mEndpoint = new Endpoint();
             mEndpoint.libCreate();
+            mStartupTrace.end(span);
 
-            EpConfig epConfig = new EpConfig();
+            EpConfig epConfig = scope.add(new EpConfig());
             epConfig.getUaConfig().setUserAgent(AGENT_NAME);
             epConfig.getMedConfig().setHasIoqueue(true);
             epConfig.getMedConfig().setClockRate(16000);
@@ -637,17 +1211,22 @@ public class SipService extends BackgroundService implements SipServiceConstants
             epConfig.getMedConfig().setEcOptions(1);
             epConfig.getMedConfig().setEcTailLen(200);
             epConfig.getMedConfig().setThreadCnt(2);
+            mJitterBufferTuner.apply(epConfig.getMedConfig());
+            span = mStartupTrace.begin("libInit");
             mEndpoint.libInit(epConfig);
-
-            TransportConfig udpTransport = new TransportConfig();
-            udpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
-            TransportConfig tcpTransport = new TransportConfig();
-            tcpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
-
-            mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP, udpTransport);
-            mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_TCP, tcpTransport);
+            mStartupTrace.end(span);
+
+            span = mStartupTrace.begin("transportCreate UDP");
+            mUdpTransportId = createTransport(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP);
+            mStartupTrace.end(span);
+            span = mStartupTrace.begin("transportCreate TCP");
+            mTcpTransportId = createTransport(pjsip_transport_type_e.PJSIP_TRANSPORT_TCP);
+            mStartupTrace.end(span);
+            span = mStartupTrace.begin("libStart");
             mEndpoint.libStart();
+            mStartupTrace.end(span);
 
+            span = mStartupTrace.begin("codecSetPriority");
             ArrayList<CodecPriority> codecPriorities = getConfiguredCodecPriorities();
             if (codecPriorities != null) {
                 Logger.debug(TAG, "Setting saved codec priorities...");
@@ -670,31 +1249,31 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 mEndpoint.codecSetPriority("G7221/32000", (short) CodecPriority.PRIORITY_DISABLED);
                 mEndpoint.codecSetPriority("ilbc/8000", (short) CodecPriority.PRIORITY_DISABLED);
             }
+            mStartupTrace.end(span);
 
-            // Set H264 Parameters
-            VidCodecParam vidCodecParam = mEndpoint.getVideoCodecParam(H264_CODEC_ID);
-            CodecFmtpVector codecFmtpVector = vidCodecParam.getDecFmtp();
-            MediaFormatVideo mediaFormatVideo = vidCodecParam.getEncFmt();
-            mediaFormatVideo.setWidth(H264_DEF_WIDTH);
-            mediaFormatVideo.setHeight(H264_DEF_HEIGHT);
-            vidCodecParam.setEncFmt(mediaFormatVideo);
-
-            for (int i = 0; i < codecFmtpVector.size(); i++) {
-                if (PROFILE_LEVEL_ID_HEADER.equals(codecFmtpVector.get(i).getName())) {
-                    codecFmtpVector.get(i).setVal(PROFILE_LEVEL_ID_JANUS_BRIDGE);
-                    break;
-                }
+            mStarted = true;
+            if (!isLazyVideoInit()) {
+                initVideo();
             }
-            vidCodecParam.setDecFmtp(codecFmtpVector);
-            mEndpoint.setVideoCodecParam(H264_CODEC_ID, vidCodecParam);
 
-            Logger.debug(TAG, "PJSIP started!");
-            mStarted = true;
+            mStartupTrace.onStackStarted();
+            Logger.debug(TAG, "PJSIP started! (" + getStartupModeName() + ")");
+            mBroadcastEmitter.warmUpReceiversCache();
             mBroadcastEmitter.stackStatus(true);
 
         } catch (Exception exc) {
             Logger.error(TAG, "Error while starting PJSIP", exc);
             mStarted = false;
+        } finally {
+            mStartupTrace.end(stack);
+        }
+    }
+
+    private int createTransport(pjsip_transport_type_e type) throws Exception {
+        try (NativeScope scope = new NativeScope()) {
+            TransportConfig config = scope.add(new TransportConfig());
+            config.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
+            return mEndpoint.transportCreate(type, config);
         }
     }
 
@@ -719,10 +1298,23 @@ public class SipService extends BackgroundService implements SipServiceConstants
              * *************************************
              */
 
-            /* Try to force GC to do its job before destroying the library
-             * since it's recommended to do that by PJSUA examples
+            /* The pjsua2 structs and params created by the service code are added to a
+             * NativeScope and deleted when the command or the callback which created them
+             * ends, so there's no need to force the GC to run their finalizers before
+             * destroying the library. The calls and the accounts still alive are deleted
+             * here, while the library is still running: their finalizers would run at an
+             * unpredictable time, possibly after the stack has been started again, and
+             * then hang up or delete the new call or account which reuses the same ID.
+             * Scoped objects can still be live only in the callbacks running on the pjsip
+             * threads at this moment, and are deleted as soon as they return.
              */
-            Runtime.getRuntime().gc();
+            releaseCallsAndAccounts();
+
+            int liveObjects = NativeScope.getLiveObjectCount();
+            if (liveObjects > 0) {
+                Logger.error(TAG, "Destroying PJSIP while callbacks are running, with "
+                        + liveObjects + " live native objects: " + NativeScope.getLiveObjects());
+            }
 
             mEndpoint.libDestroy(pjsua_destroy_flag.PJSUA_DESTROY_NO_NETWORK.swigValue());
             mEndpoint.delete();
@@ -736,10 +1328,39 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         } finally {
             mStarted = false;
+            mVideoInitialized = false;
+            mUdpTransportId = -1;
+            mTcpTransportId = -1;
             mEndpoint = null;
         }
     }
 
+    /**
+     * Deletes the active calls, stopping their stats sampling, and the active accounts,
+     * which are created again when the stack is restarted.
+     */
+    private void releaseCallsAndAccounts() {
+        for (SipCall call : mCallRegistry.clear()) {
+            int callID = call.getId();
+            try {
+                call.release();
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while deleting call " + callID, exc);
+            }
+        }
+
+        for (String accountID : mActiveSipAccounts.keySet()) {
+            SipAccount account = mActiveSipAccounts.remove(accountID);
+            if (account == null) continue;
+
+            try {
+                account.delete();
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while deleting account " + accountID, exc);
+            }
+        }
+    }
+
     private ArrayList<CodecPriority> getCodecPriorityList() {
         startStack();
 
@@ -816,22 +1437,36 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleGetRegistrationStatus(Intent intent) {
-        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+    private boolean handleGetRegistrationStatus(Intent intent) {
+        return handleGetRegistrationStatus(intent.getStringExtra(PARAM_ACCOUNT_ID));
+    }
 
+    boolean handleGetRegistrationStatus(String accountID) {
         if (!mStarted || mActiveSipAccounts.get(accountID) == null) {
             mBroadcastEmitter.registrationState("", 400);
-            return;
+            return false;
         }
 
         SipAccount account = mActiveSipAccounts.get(accountID);
-        try {
-            mBroadcastEmitter.registrationState(accountID, account.getInfo().getRegStatus().swigValue());
+        try (NativeScope scope = new NativeScope()) {
+            mBroadcastEmitter.registrationState(accountID, scope.add(account.getInfo()).getRegStatus().swigValue());
+            return true;
         } catch (Exception exc) {
             Logger.error(TAG, "Error while getting registration status for " + accountID, exc);
+            return false;
         }
     }
 
+    void handleGetRegistrationStats(String accountID) {
+        SipAccount account = mActiveSipAccounts.get(accountID);
+        if (account == null) {
+            Logger.debug(TAG, "No active account " + accountID + " to get registration stats for");
+            return;
+        }
+
+        mBroadcastEmitter.registrationStats(accountID, account.getRegistrationStats());
+    }
+
     @SuppressWarnings("unused")
     private void removeAllActiveAccounts() {
         if (!mActiveSipAccounts.isEmpty()) {
@@ -868,11 +1503,19 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         if (sipAccount == null || !sipAccount.isValid() || !account.equals(sipAccount.getData())) {
             if (mActiveSipAccounts.containsKey(accountString) && sipAccount != null) {
+                mCallRegistry.unregisterAll(sipAccount);
                 sipAccount.delete();
             }
             startStack();
+            mKeepWarm = false;
+            dequeueJob(mCoolDownJob);
             SipAccount pjSipAndroidAccount = new SipAccount(this, account);
-            pjSipAndroidAccount.create();
+            int span = mStartupTrace.begin("createAccount");
+            try {
+                pjSipAndroidAccount.create();
+            } finally {
+                mStartupTrace.end(span);
+            }
             mActiveSipAccounts.put(accountString, pjSipAndroidAccount);
             Logger.debug(TAG, "SIP account " + account.getIdUri() + " successfully added");
         } else {
@@ -892,6 +1535,8 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
 
         Logger.debug(TAG, "Removing SIP account " + accountID);
+        mCallRegistry.unregisterAll(account);
+        SipServiceState.onAccountRemoved(accountID);
         account.delete();
         Logger.debug(TAG, "SIP account " + accountID + " successfully removed");
     }
@@ -937,6 +1582,93 @@ public class SipService extends BackgroundService implements SipServiceConstants
         return mSharedPreferencesHelper.isDND();
     }
 
+    private void handleSetCallStatsSamplingInterval(Intent intent) {
+        long interval = intent.getLongExtra(PARAM_SAMPLING_INTERVAL, CALL_STATS_DEFAULT_SAMPLING_INTERVAL);
+        mSharedPreferencesHelper.setCallStatsSamplingInterval(interval);
+    }
+
+    private void handleSetAdaptiveJitterBuffer(Intent intent) {
+        mSharedPreferencesHelper.setAdaptiveJitterBuffer(intent.getBooleanExtra(PARAM_ADAPTIVE_JITTER_BUFFER, true));
+    }
+
+    JitterBufferTuner getJitterBufferTuner() {
+        return mJitterBufferTuner;
+    }
+
+    /**
+     * Finishes the cold start trace, if not finished yet, and emits its report.
+     * @param registrationCode status code of the first registration response,
+     *                         or -1 if there are no accounts to register
+     */
+    void onColdStartFinished(int registrationCode) {
+        StartupReport report = mStartupTrace.finish(registrationCode, isLazyVideoInit());
+        if (report == null) return;
+
+        Logger.debug(TAG, report.toString());
+        mStartupReport = report;
+        mBroadcastEmitter.startupReport(report);
+    }
+
+    StartupReport getStartupReport() {
+        return mStartupReport;
+    }
+
+    Map<String, Integer> getLiveNativeObjects() {
+        return NativeScope.getLiveObjects();
+    }
+
+    QualityHistograms getQualityHistograms() {
+        return mQualityHistograms;
+    }
+
+    private File getQualityHistogramsFile() {
+        return new File(getFilesDir(), QUALITY_HISTOGRAMS_FILE_NAME);
+    }
+
+    private final Runnable mSaveQualityHistogramsJob = new Runnable() {
+        @Override
+        public void run() {
+            if (mQualityHistograms == null) return;
+
+            try {
+                mQualityHistograms.save(getQualityHistogramsFile());
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while saving quality histograms", exc);
+            }
+        }
+    };
+
+    /**
+     * Saves the quality histograms after a delay, so the values recorded by close calls
+     * are written together.
+     */
+    void scheduleQualityHistogramsSave() {
+        dequeueJob(mSaveQualityHistogramsJob);
+        enqueueDelayedJob(mSaveQualityHistogramsJob, QUALITY_HISTOGRAMS_SAVE_DELAY, JobPriority.CONFIGURATION);
+    }
+
+    long getCallStatsSamplingInterval() {
+        return mSharedPreferencesHelper.getCallStatsSamplingInterval();
+    }
+
+    private void handleGetCallStatsSeries(Intent intent) {
+        handleGetCallStatsSeries(intent.getStringExtra(PARAM_ACCOUNT_ID),
+                                 intent.getIntExtra(PARAM_CALL_ID, 0));
+    }
+
+    void handleGetCallStatsSeries(String accountID, int callID) {
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall == null) {
+            notifyCallDisconnected(accountID, callID);
+            return;
+        }
+
+        CallStatsSeries series = sipCall.getStatsSeries();
+        if (series != null) {
+            mBroadcastEmitter.callStatsSeries(accountID, callID, series);
+        }
+    }
+
     private void handleSetIncomingVideoFeed(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
@@ -1002,17 +1734,18 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleSetVideoMute(Intent intent) {
+    private boolean handleSetVideoMute(Intent intent) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
         SipCall sipCall = getCall(accountID, callID);
 
         if (sipCall == null) {
             notifyCallDisconnected(accountID, callID);
-            return;
+            return false;
         }
         boolean mute = intent.getBooleanExtra(PARAM_VIDEO_MUTE, false);
         sipCall.setVideoMute(mute);
+        return sipCall.isLocalVideoMute() == mute;
     }
 
     private void handleStartVideoPreview(Intent intent) {
@@ -1026,6 +1759,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
         Bundle bundle = intent.getExtras();
         if (bundle != null) {
+            initVideo();
             Surface surface = intent.getExtras().getParcelable(PARAM_SURFACE);
             sipCall.startPreviewVideoFeed(surface);
         }
@@ -1055,8 +1789,8 @@ public class SipService extends BackgroundService implements SipServiceConstants
             return;
         }
 
-        try {
-            CallVidSetStreamParam callVidSetStreamParam = new CallVidSetStreamParam();
+        try (NativeScope scope = new NativeScope()) {
+            CallVidSetStreamParam callVidSetStreamParam = scope.add(new CallVidSetStreamParam());
             callVidSetStreamParam.setCapDev(sipCall.isFrontCamera()
                     ? BACK_CAMERA_CAPTURE_DEVICE
                     : FRONT_CAMERA_CAPTURE_DEVICE);
@@ -1086,6 +1820,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         try {
             startStack();
+            if (isVideo) initVideo();
             SipAccountData sipAccountData = new SipAccountData()
                     .setHost(sipServer != null ? sipServer : uri.getHost())
                     .setUsername(name)
@@ -1118,4 +1853,12 @@ public class SipService extends BackgroundService implements SipServiceConstants
     public static ConcurrentHashMap<String, SipAccount> getActiveSipAccounts() {
         return mActiveSipAccounts;
     }
+
+    SharedCallState getSharedCallState() {
+        return mSharedCallState;
+    }
+
+    CallRegistry getCallRegistry() {
+        return mCallRegistry;
+    }
 }
@@ -0,0 +1,457 @@
+package net.gotev.sipservice;
+
+import android.content.Intent;
+import android.os.Binder;
+
+import org.pjsip.pjsua2.pjsip_inv_state;
+import org.pjsip.pjsua2.pjsip_status_code;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binder returned when binding to the {@link SipService}.
+ * Each method enqueues the command directly on the service worker thread, skipping the
+ * startService round-trip and the Intent dispatching done for {@link SipServiceCommand}.
+ * Results are still delivered through the events emitted by {@link BroadcastEventEmitter}.
+ * The service is not exported, so this binder is meant to be used only from the same process.
+ * Use {@link SipServiceCommand#bind(android.content.Context, android.content.ServiceConnection)}
+ * and cast the received IBinder to this class.
+ */
+public class SipServiceBinder extends Binder {
+
+    private final SipService service;
+
+    SipServiceBinder(SipService service) {
+        this.service = service;
+    }
+
+    /**
+     * Makes a call.
+     * @param accountID account ID used to make the call
+     * @param numberToCall number to call
+     * @param isVideo whether the call has video or not
+     * @param isVideoConference whether the call is video conference or not
+     */
+    public void makeCall(final String accountID, final String numberToCall,
+                         final boolean isVideo, final boolean isVideoConference) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_MAKE_CALL, accountID, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleMakeCall(accountID, numberToCall, isVideo, isVideo && isVideoConference);
+            }
+        });
+    }
+
+    /**
+     * Makes an audio only call.
+     * @param accountID account ID used to make the call
+     * @param numberToCall number to call
+     */
+    public void makeCall(String accountID, String numberToCall) {
+        makeCall(accountID, numberToCall, false, false);
+    }
+
+    /**
+     * Checks the status of a call. You will receive the result in
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID used to make the call
+     * @param callID call ID
+     */
+    public void getCallStatus(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_GET_CALL_STATUS, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleGetCallStatus(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Gets the RTCP and jitter buffer samples taken so far during a call. You will receive the
+     * result in {@link BroadcastEventReceiver#onCallStatsSeries(String, int, CallStatsSeries)}
+     * @param accountID account ID used to make the call
+     * @param callID call ID
+     */
+    public void getCallStatsSeries(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_GET_CALL_STATS_SERIES, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleGetCallStatsSeries(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Hangs up an active call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID to hang up
+     */
+    public void hangUpCall(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_HANG_UP_CALL, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleHangUpCall(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Hangs up active calls.
+     * @param accountID account ID
+     */
+    public void hangUpActiveCalls(final String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_HANG_UP_CALLS, accountID, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleHangUpActiveCalls(accountID);
+            }
+        });
+    }
+
+    /**
+     * Holds active calls.
+     * @param accountID account ID
+     */
+    public void holdActiveCalls(final String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_HOLD_CALLS, accountID, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleHoldActiveCalls(accountID);
+            }
+        });
+    }
+
+    /**
+     * Send DTMF. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     * @param dtmfTone DTMF tone to send (e.g. number from 0 to 9 or # or *).
+     *                 You can send only one DTMF at a time.
+     */
+    public void sendDTMF(final String accountID, final int callID, final String dtmfTone) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_SEND_DTMF, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleSendDTMF(accountID, callID, dtmfTone);
+            }
+        });
+    }
+
+    /**
+     * Accept an incoming call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     * @param isVideo video call or not
+     */
+    public void acceptIncomingCall(final String accountID, final int callID, final boolean isVideo) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_ACCEPT_INCOMING_CALL, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleAcceptIncomingCall(accountID, callID, isVideo);
+            }
+        });
+    }
+
+    /**
+     * Accept an incoming call without video. If the call does not exist or has been terminated,
+     * a disconnected state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public void acceptIncomingCall(String accountID, int callID) {
+        acceptIncomingCall(accountID, callID, false);
+    }
+
+    /**
+     * Decline an incoming call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public void declineIncomingCall(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_DECLINE_INCOMING_CALL, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleDeclineIncomingCall(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Blind call transfer. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     * @param number number to which to transfer the call
+     */
+    public void transferCall(final String accountID, final int callID, final String number) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_TRANSFER_CALL, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleTransferCall(accountID, callID, number);
+            }
+        });
+    }
+
+    /**
+     * Sets hold status for a call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     * @param hold true to hold the call, false to un-hold it
+     */
+    public void setCallHold(final String accountID, final int callID, final boolean hold) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_SET_HOLD, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleSetCallHold(accountID, callID, hold);
+            }
+        });
+    }
+
+    /**
+     * Toggle hold status for a call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public void toggleCallHold(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_TOGGLE_HOLD, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleToggleCallHold(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Sets mute status for a call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     * @param mute true to mute the call, false to un-mute it
+     */
+    public void setCallMute(final String accountID, final int callID, final boolean mute) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_SET_MUTE, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleSetCallMute(accountID, callID, mute);
+            }
+        });
+    }
+
+    /**
+     * Toggle mute status for a call. If the call does not exist or has been terminated, a disconnected
+     * state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public void toggleCallMute(final String accountID, final int callID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_TOGGLE_MUTE, accountID, callID, new Runnable() {
+            @Override
+            public void run() {
+                service.handleToggleCallMute(accountID, callID);
+            }
+        });
+    }
+
+    /**
+     * Gets the registration status for an account.
+     * @param accountID sip account ID
+     */
+    public void getRegistrationStatus(final String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_GET_REGISTRATION_STATUS, accountID, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleGetRegistrationStatus(accountID);
+            }
+        });
+    }
+
+    /**
+     * Gets the registration performance and failure statistics of an account. You will receive
+     * the result in {@link BroadcastEventReceiver#onRegistrationStats(String, RegistrationStats)}
+     * @param accountID sip account ID
+     */
+    public void getRegistrationStats(final String accountID) {
+        SipServiceCommand.checkAccount(accountID);
+
+        service.enqueueCommand(SipServiceConstants.ACTION_GET_REGISTRATION_STATS, accountID, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleGetRegistrationStats(accountID);
+            }
+        });
+    }
+
+    /**
+     * Executes a batch of commands in order, within a single worker thread job. You will
+     * receive the aggregated result in
+     * {@link BroadcastEventReceiver#onBatchResult(String, int, ArrayList)}
+     * @param batch commands to execute
+     * @return the batch ID, which will be reported in the result
+     */
+    public String executeBatch(CommandBatch batch) {
+        if (batch == null || batch.isEmpty()) {
+            throw new IllegalArgumentException("batch MUST not be null or empty!");
+        }
+
+        final String batchID = UUID.randomUUID().toString();
+        final ArrayList<Intent> commands = new ArrayList<>(batch.getCommands());
+
+        service.enqueueCommand(SipServiceConstants.ACTION_BATCH, null, -1, new Runnable() {
+            @Override
+            public void run() {
+                service.handleBatch(batchID, commands);
+            }
+        });
+
+        return batchID;
+    }
+
+    /**
+     * Gets the number of commands which have not been executed because they have been
+     * coalesced with other pending commands (e.g. repeated status queries or toggle pairs).
+     * @return number of coalesced commands
+     */
+    public long getCoalescedCommands() {
+        return service.getCommandCoalescer().getCoalescedCommands();
+    }
+
+    /**
+     * Gets the number of coalesced commands for each command action.
+     * @return map of action to number of coalesced commands
+     */
+    public HashMap<String, Long> getCoalescedCommandsByAction() {
+        return service.getCommandCoalescer().getCoalescedCommandsByAction();
+    }
+
+    /**
+     * Gets the region in which the live state of the active calls is published.
+     * Poll it with {@link SharedCallState#read(int)}, e.g. on every frame, without any IPC.
+     * @return shared call state region
+     */
+    public SharedCallState getSharedCallState() {
+        return service.getSharedCallState();
+    }
+
+    /**
+     * Gets the number of events which have not been delivered because they have been
+     * coalesced with newer events. See {@link BroadcastEventEmitter#setEventCoalescingWindow(long)}
+     * @return number of coalesced events
+     */
+    public long getCoalescedEvents() {
+        BroadcastEventEmitter emitter = service.getBroadcastEmitter();
+        return emitter == null ? 0 : emitter.getCoalescedEvents();
+    }
+
+    /**
+     * Gets the store of the call detail records, which you can query to page through the
+     * history of the calls.
+     * @return call record store
+     */
+    public CallRecordStore getCallRecordStore() {
+        return CallRecordStore.getInstance(service);
+    }
+
+    /**
+     * Gets the queue depths and the number of executed jobs of the priority lanes of the
+     * service worker thread.
+     * @return lane counters, from the most to the least urgent lane
+     */
+    public ArrayList<JobLaneStats> getJobLaneStats() {
+        return service.getJobLaneStats();
+    }
+
+    /**
+     * Gets the latencies of the commands executed so far, grouped by command action.
+     * @return list of per-action latencies
+     */
+    public ArrayList<CommandLatency> getCommandLatencies() {
+        return CommandMetrics.getSnapshot();
+    }
+
+    /**
+     * Gets the distributions of jitter, loss, MOS and setup latency aggregated across all the
+     * calls, per codec and network.
+     * @return snapshot of the quality histograms, or null if the service has not been created yet
+     */
+    public QualityHistograms getQualityHistograms() {
+        QualityHistograms histograms = service.getQualityHistograms();
+        return histograms == null ? null : histograms.snapshot();
+    }
+
+    /**
+     * Gets the timings of the cold start of the service, which are also emitted in
+     * {@link BroadcastEventReceiver#onStartupReport(StartupReport)} as soon as the first
+     * configured account receives a registration response.
+     * @return cold start report, or null if the cold start has not finished yet
+     */
+    public StartupReport getStartupReport() {
+        return service.getStartupReport();
+    }
+
+    /**
+     * Gets the number of pjsua2 objects created by the commands and the callbacks being
+     * executed, which have not been deleted yet. Useful to check for native memory leaks.
+     * @return map of the pjsua2 class names to the live object counts
+     */
+    public Map<String, Integer> getLiveNativeObjects() {
+        return service.getLiveNativeObjects();
+    }
+
+    /**
+     * Initializes the sip stack in background, ahead of the first command which needs it.
+     * The commands issued during the warm up are executed once it has finished. You will
+     * receive the result in {@link BroadcastEventReceiver#onWarmUpCompleted(boolean, long, long)}
+     */
+    public void warmUp() {
+        service.enqueueWarmUp();
+    }
+}
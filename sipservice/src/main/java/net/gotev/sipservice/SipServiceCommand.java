@@ -2,6 +2,7 @@ package net.gotev.sipservice;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.net.Uri;
 import android.view.Surface;
 
@@ -10,6 +11,7 @@ import org.pjsip.pjsua2.pjsip_inv_state;
 import org.pjsip.pjsua2.pjsip_status_code;
 
 import java.util.ArrayList;
+import java.util.UUID;
 
 /**
  * Triggers sip service commands.
@@ -108,8 +110,34 @@ public class SipServiceCommand implements SipServiceConstants {
         context.stopService(new Intent(context, SipService.class));
     }
 
+    /**
+     * Binds to the SIP service. Once connected, cast the IBinder received in
+     * {@link ServiceConnection#onServiceConnected(android.content.ComponentName, android.os.IBinder)}
+     * to {@link SipServiceBinder} to send commands with direct method calls.
+     * Commands sent through the binder are executed exactly as the ones sent with the static
+     * methods of this class, and the results are delivered with the same events.
+     * @param context application context
+     * @param connection connection which receives the {@link SipServiceBinder}
+     * @return true if the binding request has been accepted by the system
+     */
+    public static boolean bind(Context context, ServiceConnection connection) {
+        return context.bindService(new Intent(context, SipService.class), connection,
+                                   Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Unbinds from the SIP service.
+     * @param context application context
+     * @param connection the same connection passed to {@link #bind(Context, ServiceConnection)}
+     */
+    public static void unbind(Context context, ServiceConnection connection) {
+        context.unbindService(connection);
+    }
+
     /**
      * Restarts the SIP stack without restarting the service.
+     * You will receive the time to registered in
+     * {@link BroadcastEventReceiver#onSipStackRestarted(boolean, long, int)}
      * @param context application context
      */
     public static void restartSipStack(Context context) {
@@ -118,6 +146,33 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(intent);
     }
 
+    /**
+     * Restarts the SIP stack in place, after a network change. The UDP and TCP transports are
+     * closed and recreated and the configured accounts are registered again, keeping the
+     * endpoint and the accounts. Much faster than {@link #restartSipStack(Context)}.
+     * You will receive the time to registered in
+     * {@link BroadcastEventReceiver#onSipStackRestarted(boolean, long, int)}
+     * @param context application context
+     */
+    public static void softRestartSipStack(Context context) {
+        softRestartSipStack(context, true, true);
+    }
+
+    /**
+     * Restarts the SIP stack in place, recreating only the given transports.
+     * See {@link #softRestartSipStack(Context)}.
+     * @param context application context
+     * @param udp true to recreate the UDP transport
+     * @param tcp true to recreate the TCP transport
+     */
+    public static void softRestartSipStack(Context context, boolean udp, boolean tcp) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SOFT_RESTART_SIP_STACK);
+        intent.putExtra(PARAM_RESTART_UDP, udp);
+        intent.putExtra(PARAM_RESTART_TCP, tcp);
+        context.startService(intent);
+    }
+
     /**
      * Makes a call.
      * @param context application context
@@ -409,7 +464,148 @@ public class SipServiceCommand implements SipServiceConstants {
         context.startService(intent);
     }
 
-    private static void checkAccount(String accountID) {
+    /**
+     * Sends a batch of commands with a single request. The commands are executed in order,
+     * back to back on the service worker thread. You will receive the aggregated result in
+     * {@link BroadcastEventReceiver#onBatchResult(String, int, ArrayList)}
+     * @param context application context
+     * @param batch commands to execute
+     * @return the batch ID, which will be reported in the result
+     */
+    public static String executeBatch(Context context, CommandBatch batch) {
+        if (batch == null || batch.isEmpty()) {
+            throw new IllegalArgumentException("batch MUST not be null or empty!");
+        }
+
+        String batchID = UUID.randomUUID().toString();
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_BATCH);
+        intent.putExtra(PARAM_BATCH_ID, batchID);
+        intent.putParcelableArrayListExtra(PARAM_BATCH_COMMANDS, batch.getCommands());
+        context.startService(intent);
+
+        return batchID;
+    }
+
+    /**
+     * Requests the latencies of the commands executed so far, grouped by command action.
+     * You will receive the result in
+     * {@link BroadcastEventReceiver#onCommandLatencies(ArrayList)}
+     * @param context application context
+     */
+    public static void getCommandLatencies(Context context) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_COMMAND_LATENCIES);
+        context.startService(intent);
+    }
+
+    /**
+     * Gets the RTCP and jitter buffer samples taken so far during a call. You will receive the
+     * result in {@link BroadcastEventReceiver#onCallStatsSeries(String, int, CallStatsSeries)}.
+     * If the call does not exist or has been terminated, a disconnected state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, pjsip_inv_state, pjsip_status_code, long, boolean, boolean, boolean)}
+     * @param context application context
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public static void getCallStatsSeries(Context context, String accountID, int callID) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_CALL_STATS_SERIES);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        context.startService(intent);
+    }
+
+    /**
+     * Sets the interval at which the stats of the calls are sampled. Each sample is sent to
+     * {@link BroadcastEventReceiver#onCallStatsSample(String, int, long, int, int, int, int, int)}.
+     * It applies to the calls confirmed after this command.
+     * @param context application context
+     * @param interval sampling interval in milliseconds, 0 to disable sampling
+     */
+    public static void setCallStatsSamplingInterval(Context context, long interval) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_CALL_STATS_SAMPLING_INTERVAL);
+        intent.putExtra(PARAM_SAMPLING_INTERVAL, interval);
+        context.startService(intent);
+    }
+
+    /**
+     * Enables or disables the adaptive jitter buffer. When enabled, the jitter buffer settings
+     * are learned from the calls made on each network class (Wi-Fi, LTE, 5G, other mobile) and
+     * applied when the sip stack starts. Disabling it forgets the learned settings, so the
+     * defaults are used from the next stack start.
+     * @param context application context
+     * @param enabled true to enable, false to disable. It's enabled by default
+     */
+    public static void setAdaptiveJitterBuffer(Context context, boolean enabled) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_ADAPTIVE_JITTER_BUFFER);
+        intent.putExtra(PARAM_ADAPTIVE_JITTER_BUFFER, enabled);
+        context.startService(intent);
+    }
+
+    /**
+     * Gets the registration performance and failure statistics of an account. You will receive
+     * the result in {@link BroadcastEventReceiver#onRegistrationStats(String, RegistrationStats)}
+     * @param context application context
+     * @param accountID account ID
+     */
+    public static void getRegistrationStats(Context context, String accountID) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_REGISTRATION_STATS);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        context.startService(intent);
+    }
+
+    /**
+     * Starts the sip service and initializes the sip stack in background, ahead of the first
+     * command which needs it, so the app can go on with its own startup in the meanwhile.
+     * The commands issued during the warm up are executed once it has finished.
+     * You will receive the result in
+     * {@link BroadcastEventReceiver#onWarmUpCompleted(boolean, long, long)}
+     * @param context application context
+     */
+    public static void warmUp(Context context) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_WARM_UP);
+        context.startService(intent);
+    }
+
+    /**
+     * Enables or disables the lazy video initialization. When enabled, the OpenH264 library
+     * and the H264 codec parameters are initialized right before the first video call or preview,
+     * instead of when the service and the sip stack start, making the startup of audio only
+     * apps faster. Incoming video offers received before the initialization are answered with
+     * the default H264 parameters of pjsip. The setting is applied from the next service start.
+     * @param context application context
+     * @param lazy true to enable, false to disable. It's disabled by default
+     */
+    public static void setLazyVideoInit(Context context, boolean lazy) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_LAZY_VIDEO_INIT);
+        intent.putExtra(PARAM_LAZY_VIDEO_INIT, lazy);
+        context.startService(intent);
+    }
+
+    /**
+     * Gets the distributions of jitter, loss, MOS and setup latency aggregated across all the
+     * calls, per codec and network. You will receive the result in
+     * {@link BroadcastEventReceiver#onQualityHistograms(QualityHistograms)}
+     * @param context application context
+     */
+    public static void getQualityHistograms(Context context) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_QUALITY_HISTOGRAMS);
+        context.startService(intent);
+    }
+
+    static void checkAccount(String accountID) {
         if (accountID == null || accountID.isEmpty() || !accountID.startsWith("sip:")) {
             throw new IllegalArgumentException("Invalid accountID! Example: sip:user@domain");
         }
@@ -6,6 +6,7 @@ public interface SipServiceConstants {
      * Intent Actions for Sip Service
      */
     String ACTION_RESTART_SIP_STACK = "restartSipStack";
+    String ACTION_SOFT_RESTART_SIP_STACK = "softRestartSipStack";
     String ACTION_SET_ACCOUNT = "setAccount";
     String ACTION_REMOVE_ACCOUNT = "removeAccount";
     String ACTION_MAKE_CALL = "makeCall";
@@ -33,6 +34,15 @@ public interface SipServiceConstants {
     String ACTION_STOP_VIDEO_PREVIEW = "stopVideoPreview";
     String ACTION_SWITCH_VIDEO_CAPTURE_DEVICE = "switchVideoCaptureDevice";
     String ACTION_MAKE_DIRECT_CALL = "makeDirectCall";
+    String ACTION_BATCH = "batch";
+    String ACTION_GET_COMMAND_LATENCIES = "getCommandLatencies";
+    String ACTION_GET_CALL_STATS_SERIES = "getCallStatsSeries";
+    String ACTION_SET_CALL_STATS_SAMPLING_INTERVAL = "setCallStatsSamplingInterval";
+    String ACTION_SET_ADAPTIVE_JITTER_BUFFER = "setAdaptiveJitterBuffer";
+    String ACTION_GET_REGISTRATION_STATS = "getRegistrationStats";
+    String ACTION_GET_QUALITY_HISTOGRAMS = "getQualityHistograms";
+    String ACTION_SET_LAZY_VIDEO_INIT = "setLazyVideoInit";
+    String ACTION_WARM_UP = "warmUp";
 
     /*
      * Generic Parameters
@@ -55,6 +65,11 @@ public interface SipServiceConstants {
     String PARAM_GUEST_NAME = "guestName";
     String PARAM_DIRECT_CALL_URI = "sipUri";
     String PARAM_DIRECT_CALL_SIP_SERVER = "sipServer";
+    String PARAM_BATCH_ID = "batchId";
+    String PARAM_BATCH_COMMANDS = "batchCommands";
+    String PARAM_SAMPLING_INTERVAL = "samplingInterval";
+    String PARAM_ADAPTIVE_JITTER_BUFFER = "adaptiveJitterBuffer";
+    String PARAM_LAZY_VIDEO_INIT = "lazyVideoInit";
 
     /**
      * Specific Parameters passed in the broadcast intents.
@@ -70,10 +85,14 @@ public interface SipServiceConstants {
     String PARAM_LOCAL_HOLD = "localHold";
     String PARAM_LOCAL_MUTE = "localMute";
     String PARAM_LOCAL_VIDEO_MUTE = "localVideoMute";
+    String PARAM_CALL_STATE_DELTA = "callStateDelta";
     String PARAM_VIDEO_MUTE = "videoMute";
     String PARAM_SUCCESS = "success";
     String PARAM_INCOMING_VIDEO_WIDTH = "incomingVideoWidth";
     String PARAM_INCOMING_VIDEO_HEIGHT = "incomingVideoHeight";
+    String PARAM_BATCH_EXECUTED = "batchExecuted";
+    String PARAM_BATCH_FAILED_ACTIONS = "batchFailedActions";
+    String PARAM_COMMAND_LATENCIES = "commandLatencies";
 
     /**
      * Specific Parameters passed in the broadcast intents for call stats.
@@ -83,6 +102,29 @@ public interface SipServiceConstants {
     String PARAM_CALL_STATS_CALL_STATUS = "callStatsCallStatus";
     String PARAM_CALL_STATS_RX_STREAM = "callStatsRxStream";
     String PARAM_CALL_STATS_TX_STREAM = "callStatsTxStream";
+    String PARAM_CALL_STATS_MEDIA_STREAMS = "callStatsMediaStreams";
+    String PARAM_CALL_STATS_SETUP = "callStatsSetup";
+    String PARAM_CALL_STATS_SERIES = "callStatsSeries";
+    String PARAM_SAMPLE_TIMESTAMP = "sampleTimestamp";
+    String PARAM_SAMPLE_RX_LOSS = "sampleRxLoss";
+    String PARAM_SAMPLE_RX_JITTER_USEC = "sampleRxJitterUsec";
+    String PARAM_SAMPLE_RTT_USEC = "sampleRttUsec";
+    String PARAM_SAMPLE_JBUF_DELAY_MSEC = "sampleJbufDelayMsec";
+    String PARAM_SAMPLE_JBUF_DISCARD = "sampleJbufDiscard";
+    String PARAM_CALL_QUALITY_DEGRADED = "callQualityDegraded";
+    String PARAM_CALL_QUALITY_MOS = "callQualityMos";
+    String PARAM_CALL_QUALITY_R_FACTOR = "callQualityRFactor";
+    String PARAM_REGISTRATION_STATS = "registrationStats";
+    String PARAM_QUALITY_HISTOGRAMS = "qualityHistograms";
+    String PARAM_STARTUP_REPORT = "startupReport";
+    String PARAM_WARM_UP_SUCCESS = "warmUpSuccess";
+    String PARAM_WARM_UP_DURATION = "warmUpDuration";
+    String PARAM_WARM_UP_SAVING = "warmUpSaving";
+    String PARAM_RESTART_UDP = "restartUdp";
+    String PARAM_RESTART_TCP = "restartTcp";
+    String PARAM_RESTART_SOFT = "restartSoft";
+    String PARAM_RESTART_TIME_TO_REGISTERED = "restartTimeToRegistered";
+    String PARAM_RESTART_REGISTERED_ACCOUNTS = "restartRegisteredAccounts";
 
     /**
      * Video Configuration Params
@@ -106,4 +148,8 @@ public interface SipServiceConstants {
      * Generic Constants
      */
     int DELAYED_JOB_DEFAULT_DELAY = 5000;
+    int CALL_STATS_DEFAULT_SAMPLING_INTERVAL = 5000;
+    int QUALITY_HISTOGRAMS_SAVE_DELAY = 10000;
+    int WARM_UP_KEEP_ALIVE = 60000;
+    String QUALITY_HISTOGRAMS_FILE_NAME = "sipservice_quality_histograms.bin";
 }
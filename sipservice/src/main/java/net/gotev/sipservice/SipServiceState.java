@@ -0,0 +1,257 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.pjsip_inv_state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last known state of the sip service, updated by {@link BroadcastEventEmitter} every time an
+ * event is emitted: stack status, registration status of each account and state of each
+ * active call. A bounded journal of the most recent events is kept as well.
+ * Late subscribers receive this state as soon as they register, so they don't need to
+ * query the service. Reading it never calls into the sip stack.
+ * It's available only in the process in which the service runs.
+ */
+@SuppressWarnings("unused")
+public class SipServiceState {
+
+    /**
+     * Number of events kept in the journal.
+     */
+    public static final int JOURNAL_SIZE = 64;
+
+    /**
+     * State of a call, as reported by the last call state event.
+     */
+    public static class CallSnapshot {
+        private final String accountID;
+        private final int callID;
+        private final int callStateCode;
+        private final int callStatusCode;
+        private final long connectTimestamp;
+        private final boolean localHold;
+        private final boolean localMute;
+        private final boolean localVideoMute;
+
+        CallSnapshot(String accountID, int callID, int callStateCode, int callStatusCode,
+                     long connectTimestamp, boolean localHold, boolean localMute, boolean localVideoMute) {
+            this.accountID = accountID;
+            this.callID = callID;
+            this.callStateCode = callStateCode;
+            this.callStatusCode = callStatusCode;
+            this.connectTimestamp = connectTimestamp;
+            this.localHold = localHold;
+            this.localMute = localMute;
+            this.localVideoMute = localVideoMute;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        public int getCallID() {
+            return callID;
+        }
+
+        public int getCallStateCode() {
+            return callStateCode;
+        }
+
+        public int getCallStatusCode() {
+            return callStatusCode;
+        }
+
+        public long getConnectTimestamp() {
+            return connectTimestamp;
+        }
+
+        public boolean isLocalHold() {
+            return localHold;
+        }
+
+        public boolean isLocalMute() {
+            return localMute;
+        }
+
+        public boolean isLocalVideoMute() {
+            return localVideoMute;
+        }
+    }
+
+    /**
+     * Entry of the events journal.
+     */
+    public static class JournalEntry {
+        private final long timestamp;
+        private final BroadcastEventEmitter.BroadcastAction action;
+        private final String accountID;
+        private final int callID;
+        private final int code;
+
+        JournalEntry(BroadcastEventEmitter.BroadcastAction action, String accountID, int callID, int code) {
+            this.timestamp = System.currentTimeMillis();
+            this.action = action;
+            this.accountID = accountID;
+            this.callID = callID;
+            this.code = code;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public BroadcastEventEmitter.BroadcastAction getAction() {
+            return action;
+        }
+
+        public String getAccountID() {
+            return accountID;
+        }
+
+        /**
+         * @return call ID, or -1 if the event is not related to a call
+         */
+        public int getCallID() {
+            return callID;
+        }
+
+        /**
+         * @return call state code for call state events, registration code for registration
+         * events, 1 or 0 for stack status events, -1 otherwise
+         */
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + " " + action + " " + accountID + " " + callID + " " + code;
+        }
+    }
+
+    private boolean mStackStarted;
+    private final LinkedHashMap<String, Integer> mRegistrations = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, CallSnapshot> mCalls = new LinkedHashMap<>();
+    private final JournalEntry[] mJournal = new JournalEntry[JOURNAL_SIZE];
+    private int mJournalHead;
+    private int mJournalCount;
+
+    private SipServiceState() { }
+
+    private static class SingletonHolder {
+        private static final SipServiceState instance = new SipServiceState();
+    }
+
+    public static boolean isStackStarted() {
+        synchronized (SingletonHolder.instance) {
+            return SingletonHolder.instance.mStackStarted;
+        }
+    }
+
+    /**
+     * Gets the last registration code received for each account.
+     * @return map of account ID to SIP registration status code
+     */
+    public static Map<String, Integer> getRegistrations() {
+        synchronized (SingletonHolder.instance) {
+            return new HashMap<>(SingletonHolder.instance.mRegistrations);
+        }
+    }
+
+    /**
+     * Gets the last known state of the calls which have not been disconnected yet.
+     * @return list of call states
+     */
+    public static List<CallSnapshot> getCalls() {
+        synchronized (SingletonHolder.instance) {
+            return new ArrayList<>(SingletonHolder.instance.mCalls.values());
+        }
+    }
+
+    /**
+     * Gets the last known state of a call.
+     * @param callID call ID
+     * @return call state, or null if the call doesn't exist or has been disconnected
+     */
+    public static CallSnapshot getCall(int callID) {
+        synchronized (SingletonHolder.instance) {
+            return SingletonHolder.instance.mCalls.get(callID);
+        }
+    }
+
+    /**
+     * Gets the most recent events, from the oldest to the newest.
+     * @return list of journal entries, at most {@link #JOURNAL_SIZE}
+     */
+    public static List<JournalEntry> getJournal() {
+        SipServiceState state = SingletonHolder.instance;
+
+        synchronized (state) {
+            List<JournalEntry> entries = new ArrayList<>(state.mJournalCount);
+            int first = (state.mJournalHead - state.mJournalCount + JOURNAL_SIZE) % JOURNAL_SIZE;
+            for (int i = 0; i < state.mJournalCount; i++) {
+                entries.add(state.mJournal[(first + i) % JOURNAL_SIZE]);
+            }
+            return entries;
+        }
+    }
+
+    static void onStackStatus(boolean started) {
+        synchronized (SingletonHolder.instance) {
+            SipServiceState state = SingletonHolder.instance;
+            state.mStackStarted = started;
+            if (!started) {
+                state.mRegistrations.clear();
+                state.mCalls.clear();
+            }
+            state.journal(BroadcastEventEmitter.BroadcastAction.STACK_STATUS, null, -1, started ? 1 : 0);
+        }
+    }
+
+    static void onRegistration(String accountID, int registrationStateCode) {
+        synchronized (SingletonHolder.instance) {
+            SipServiceState state = SingletonHolder.instance;
+            if (accountID != null && !accountID.isEmpty()) {
+                state.mRegistrations.put(accountID, registrationStateCode);
+            }
+            state.journal(BroadcastEventEmitter.BroadcastAction.REGISTRATION, accountID, -1, registrationStateCode);
+        }
+    }
+
+    static void onAccountRemoved(String accountID) {
+        synchronized (SingletonHolder.instance) {
+            SingletonHolder.instance.mRegistrations.remove(accountID);
+        }
+    }
+
+    static void onCallState(String accountID, int callID, int callStateCode, int callStatusCode,
+                            long connectTimestamp, boolean isLocalHold, boolean isLocalMute,
+                            boolean isLocalVideoMute) {
+        synchronized (SingletonHolder.instance) {
+            SipServiceState state = SingletonHolder.instance;
+            if (callStateCode == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED.swigValue()) {
+                state.mCalls.remove(callID);
+            } else {
+                state.mCalls.put(callID, new CallSnapshot(accountID, callID, callStateCode, callStatusCode,
+                        connectTimestamp, isLocalHold, isLocalMute, isLocalVideoMute));
+            }
+            state.journal(BroadcastEventEmitter.BroadcastAction.CALL_STATE, accountID, callID, callStateCode);
+        }
+    }
+
+    static void onEvent(BroadcastEventEmitter.BroadcastAction action, String accountID, int callID) {
+        synchronized (SingletonHolder.instance) {
+            SingletonHolder.instance.journal(action, accountID, callID, -1);
+        }
+    }
+
+    private void journal(BroadcastEventEmitter.BroadcastAction action, String accountID, int callID, int code) {
+        mJournal[mJournalHead] = new JournalEntry(action, accountID, callID, code);
+        mJournalHead = (mJournalHead + 1) % JOURNAL_SIZE;
+        if (mJournalCount < JOURNAL_SIZE) mJournalCount++;
+    }
+}
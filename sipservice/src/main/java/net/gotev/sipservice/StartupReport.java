@@ -0,0 +1,176 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Timings of the cold start of the sip service, from the creation of the service to the first
+ * registration response of the configured accounts.
+ * Phases are listed in the order in which they started, nested phases follow the phase which
+ * contains them and have a greater depth. All the times are in microseconds and relative to the
+ * creation of the service. A phase which has not ended has a duration of -1.
+ */
+@SuppressWarnings("unused")
+public class StartupReport implements Parcelable {
+
+    private String[] phaseNames;
+    private int[] phaseDepths;
+    private long[] phaseStarts;
+    private long[] phaseDurations;
+    private boolean lazyVideoInit;
+    private long timeToCreated;
+    private long timeToStackStarted;
+    private long timeToRegistered;
+    private int registrationCode;
+
+    StartupReport(String[] phaseNames, int[] phaseDepths, long[] phaseStarts, long[] phaseDurations,
+                  boolean lazyVideoInit, long timeToCreated, long timeToStackStarted,
+                  long timeToRegistered, int registrationCode) {
+        this.phaseNames = phaseNames;
+        this.phaseDepths = phaseDepths;
+        this.phaseStarts = phaseStarts;
+        this.phaseDurations = phaseDurations;
+        this.lazyVideoInit = lazyVideoInit;
+        this.timeToCreated = timeToCreated;
+        this.timeToStackStarted = timeToStackStarted;
+        this.timeToRegistered = timeToRegistered;
+        this.registrationCode = registrationCode;
+    }
+
+    // This is used to regenerate the object.
+    // All Parcelables must have a CREATOR that implements these two methods
+    public static final Parcelable.Creator<StartupReport> CREATOR =
+            new Parcelable.Creator<StartupReport>() {
+                @Override
+                public StartupReport createFromParcel(final Parcel in) {
+                    return new StartupReport(in);
+                }
+
+                @Override
+                public StartupReport[] newArray(final int size) {
+                    return new StartupReport[size];
+                }
+            };
+
+    private StartupReport(Parcel in) {
+        this.phaseNames = in.createStringArray();
+        this.phaseDepths = in.createIntArray();
+        this.phaseStarts = in.createLongArray();
+        this.phaseDurations = in.createLongArray();
+        this.lazyVideoInit = in.readByte() == 1;
+        this.timeToCreated = in.readLong();
+        this.timeToStackStarted = in.readLong();
+        this.timeToRegistered = in.readLong();
+        this.registrationCode = in.readInt();
+    }
+
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeStringArray(phaseNames);
+        parcel.writeIntArray(phaseDepths);
+        parcel.writeLongArray(phaseStarts);
+        parcel.writeLongArray(phaseDurations);
+        parcel.writeByte((byte) (lazyVideoInit ? 1 : 0));
+        parcel.writeLong(timeToCreated);
+        parcel.writeLong(timeToStackStarted);
+        parcel.writeLong(timeToRegistered);
+        parcel.writeInt(registrationCode);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public int getPhaseCount() {
+        return phaseNames.length;
+    }
+
+    public String getPhaseName(int index) {
+        return phaseNames[index];
+    }
+
+    /**
+     * @return nesting depth of a phase, 0 for the top level phases
+     */
+    public int getPhaseDepth(int index) {
+        return phaseDepths[index];
+    }
+
+    public long getPhaseStartMicros(int index) {
+        return phaseStarts[index];
+    }
+
+    public long getPhaseDurationMicros(int index) {
+        return phaseDurations[index];
+    }
+
+    /**
+     * Gets the total duration of the phases with a given name.
+     * @param name phase name
+     * @return duration in microseconds, or -1 if there are no ended phases with that name
+     */
+    public long getPhaseDurationMicros(String name) {
+        long total = -1;
+        for (int i = 0; i < phaseNames.length; i++) {
+            if (phaseNames[i].equals(name) && phaseDurations[i] >= 0) {
+                total = Math.max(total, 0) + phaseDurations[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return true if OpenH264 and the H264 parameters have been initialized lazily
+     */
+    public boolean isLazyVideoInit() {
+        return lazyVideoInit;
+    }
+
+    /**
+     * @return microseconds to the end of the service creation
+     */
+    public long getTimeToCreated() {
+        return timeToCreated;
+    }
+
+    /**
+     * @return microseconds to the start of the sip stack, or -1 if it has not been started
+     */
+    public long getTimeToStackStarted() {
+        return timeToStackStarted;
+    }
+
+    /**
+     * @return microseconds to the first registration response, or -1 if no account
+     * has been registered
+     */
+    public long getTimeToRegistered() {
+        return timeToRegistered;
+    }
+
+    /**
+     * @return SIP status code of the first registration response, or -1 if no account
+     * has been registered
+     */
+    public int getRegistrationCode() {
+        return registrationCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder phases = new StringBuilder();
+        for (int i = 0; i < phaseNames.length; i++) {
+            for (int depth = 0; depth < phaseDepths[i]; depth++) {
+                phases.append("  ");
+            }
+            phases.append(phaseNames[i]).append(": ").append(phaseDurations[i])
+                  .append(" us (at ").append(phaseStarts[i]).append(" us)\n");
+        }
+
+        return "Cold start (" + (lazyVideoInit ? "lazy" : "eager") + " video init)\n"
+                + "Created: " + timeToCreated + " us\n"
+                + "Stack started: " + timeToStackStarted + " us\n"
+                + "Registered: " + timeToRegistered + " us (" + registrationCode + ")\n"
+                + phases;
+    }
+}
@@ -0,0 +1,121 @@
+package net.gotev.sipservice;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Records the phases of the cold start of the sip service as named spans, from the creation
+ * of the service to the first registration response, and also as {@link Trace} sections, so
+ * they can be inspected in systrace and Perfetto.
+ * <p>
+ * Spans can be nested and must be ended in reverse order on the thread which began them.
+ * Ending a span also ends the spans begun after it and not ended yet, e.g. because a phase
+ * has thrown. Spans begun on other threads are ignored, and once the cold start is finished
+ * only the trace sections are emitted.
+ */
+class StartupTrace {
+
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    private static final int MAX_SPANS = 32;
+    private static final int MAX_DEPTH = 16;
+
+    private final long mOriginNanos = SystemClock.elapsedRealtimeNanos();
+    private final String[] mNames = new String[MAX_SPANS];
+    private final int[] mDepths = new int[MAX_SPANS];
+    private final long[] mStarts = new long[MAX_SPANS];
+    private final long[] mDurations = new long[MAX_SPANS];
+    private int mCount;
+
+    private final int[] mOpenSpans = new int[MAX_DEPTH];
+    private int mDepth;
+
+    private Thread mThread;
+    private long mCreatedNanos = -1;
+    private long mStackStartedNanos = -1;
+    private boolean mFinished;
+
+    /**
+     * Begins a span.
+     * @param name span name
+     * @return token to pass to {@link #end(int)}
+     */
+    synchronized int begin(String name) {
+        if (mThread == null) mThread = Thread.currentThread();
+        if (mThread != Thread.currentThread() || mDepth == MAX_DEPTH) return -1;
+
+        Trace.beginSection(name);
+
+        int span = -1;
+        if (!mFinished && mCount < MAX_SPANS) {
+            span = mCount++;
+            mNames[span] = name;
+            mDepths[span] = mDepth;
+            mStarts[span] = SystemClock.elapsedRealtimeNanos() - mOriginNanos;
+            mDurations[span] = -1;
+        }
+
+        mOpenSpans[mDepth] = span;
+        return mDepth++;
+    }
+
+    /**
+     * Ends a span and all the spans begun after it.
+     * @param token token returned by {@link #begin(String)}
+     */
+    synchronized void end(int token) {
+        if (token < 0 || mThread != Thread.currentThread()) return;
+
+        long now = SystemClock.elapsedRealtimeNanos() - mOriginNanos;
+
+        while (mDepth > token) {
+            mDepth--;
+            Trace.endSection();
+
+            int span = mOpenSpans[mDepth];
+            if (span >= 0) {
+                mDurations[span] = now - mStarts[span];
+                Logger.debug(TAG, mNames[span] + " took " + (mDurations[span] / 1000000) + "ms");
+            }
+        }
+    }
+
+    synchronized void onCreated() {
+        if (mCreatedNanos < 0) mCreatedNanos = SystemClock.elapsedRealtimeNanos() - mOriginNanos;
+    }
+
+    synchronized void onStackStarted() {
+        if (mStackStartedNanos < 0) mStackStartedNanos = SystemClock.elapsedRealtimeNanos() - mOriginNanos;
+    }
+
+    /**
+     * Finishes the cold start, if not finished yet.
+     * @param registrationCode status code of the first registration response,
+     *                         or -1 if no account has been registered
+     * @param lazyVideoInit true if the video initialization has been deferred
+     * @return cold start report, or null if the cold start has already been finished
+     */
+    synchronized StartupReport finish(int registrationCode, boolean lazyVideoInit) {
+        if (mFinished) return null;
+        mFinished = true;
+
+        long now = SystemClock.elapsedRealtimeNanos() - mOriginNanos;
+
+        String[] names = new String[mCount];
+        int[] depths = new int[mCount];
+        long[] starts = new long[mCount];
+        long[] durations = new long[mCount];
+
+        for (int i = 0; i < mCount; i++) {
+            names[i] = mNames[i];
+            depths[i] = mDepths[i];
+            starts[i] = mStarts[i] / 1000;
+            durations[i] = mDurations[i] < 0 ? -1 : mDurations[i] / 1000;
+        }
+
+        return new StartupReport(names, depths, starts, durations, lazyVideoInit,
+                                 mCreatedNanos < 0 ? -1 : mCreatedNanos / 1000,
+                                 mStackStartedNanos < 0 ? -1 : mStackStartedNanos / 1000,
+                                 registrationCode < 0 ? -1 : now / 1000, registrationCode);
+    }
+}
@@ -0,0 +1,63 @@
+package net.gotev.sipservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallQualityEstimatorTest {
+
+    @Test
+    public void goodCallIsNotDegraded() {
+        CallQualityEstimator estimator = new CallQualityEstimator("PCMU");
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(estimator.update(250, 0, 0, 0, 40000, 40));
+        }
+
+        assertFalse(estimator.isDegraded());
+        assertTrue(estimator.getRFactor() > CallQualityEstimator.RECOVERED_R_FACTOR);
+        assertTrue(estimator.getMos() > 4f);
+    }
+
+    @Test
+    public void degradationUsesHysteresis() {
+        CallQualityEstimator estimator = new CallQualityEstimator("opus");
+
+        // lossy samples, until the call is degraded
+        int samples = 0;
+        while (!estimator.update(225, 25, 10, 5, 200000, 80)) {
+            assertFalse(estimator.isDegraded());
+            assertTrue(estimator.getRFactor() >= CallQualityEstimator.DEGRADED_R_FACTOR);
+            assertTrue(++samples < 50);
+        }
+        assertTrue(estimator.isDegraded());
+        assertTrue(estimator.getRFactor() < CallQualityEstimator.DEGRADED_R_FACTOR);
+
+        // samples converging to an R-factor of about 72.5, between the two thresholds
+        for (int i = 0; i < 30; i++) {
+            assertFalse(estimator.update(927, 73, 0, 0, 40000, 40));
+        }
+        assertTrue(estimator.isDegraded());
+        assertTrue(estimator.getRFactor() > CallQualityEstimator.DEGRADED_R_FACTOR);
+        assertTrue(estimator.getRFactor() < CallQualityEstimator.RECOVERED_R_FACTOR);
+
+        // clean samples, until the call recovers
+        samples = 0;
+        while (!estimator.update(250, 0, 0, 0, 40000, 40)) {
+            assertTrue(estimator.isDegraded());
+            assertTrue(estimator.getRFactor() <= CallQualityEstimator.RECOVERED_R_FACTOR);
+            assertTrue(++samples < 50);
+        }
+        assertFalse(estimator.isDegraded());
+        assertTrue(estimator.getRFactor() > CallQualityEstimator.RECOVERED_R_FACTOR);
+    }
+
+    @Test
+    public void mosIsClamped() {
+        assertEquals(1f, CallQualityEstimator.toMos(-10), 0f);
+        assertEquals(4.5f, CallQualityEstimator.toMos(120), 0f);
+        assertEquals(4.41f, CallQualityEstimator.toMos(93.2f), 0.01f);
+    }
+}
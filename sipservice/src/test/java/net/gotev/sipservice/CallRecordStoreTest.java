@@ -0,0 +1,182 @@
+package net.gotev.sipservice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallRecordStoreTest {
+
+    private static final String ALICE = "sip:alice@example.com";
+    private static final String BOB = "sip:bob@example.com";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(mFolder.getRoot(), "cdr");
+    }
+
+    @Test
+    public void appendedRecordsAreReadBack() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+        store.append(newRecord(1000, ALICE, 1));
+        store.append(newRecord(2000, BOB, 2));
+        store.append(newRecord(3000, ALICE, 3));
+
+        assertEquals(3, store.getRecordCount());
+        assertEquals(timestamps(1000, 2000, 3000), query(store, 0, Long.MAX_VALUE, null, false));
+        assertEquals(timestamps(3000, 2000, 1000), query(store, 0, Long.MAX_VALUE, null, true));
+
+        CallRecordStore.Cursor cursor = store.query(2000, 2000, null, false);
+        assertTrue(cursor.moveToNext());
+        CallRecord record = cursor.getRecord();
+        assertEquals(BOB, record.getRemoteUri());
+        assertEquals("sip:me@example.com", record.getAccountID());
+        assertEquals(2, record.getCallID());
+        assertEquals(4.1f, record.getMos(), 0f);
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void recordsSurviveReopening() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+        store.append(newRecord(1000, ALICE, 1));
+        store.append(newRecord(2000, BOB, 2));
+
+        CallRecordStore reopened = new CallRecordStore(mDirectory);
+        assertEquals(2, reopened.getRecordCount());
+        assertEquals(timestamps(1000, 2000), query(reopened, 0, Long.MAX_VALUE, null, false));
+
+        reopened.append(newRecord(3000, ALICE, 3));
+        assertEquals(timestamps(1000, 3000), query(new CallRecordStore(mDirectory), 0, Long.MAX_VALUE, ALICE, false));
+    }
+
+    @Test
+    public void queriesFilterByTimeAndRemoteUri() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+        for (int i = 1; i <= 10; i++) {
+            store.append(newRecord(i * 1000, i % 2 == 0 ? BOB : ALICE, i));
+        }
+
+        assertEquals(timestamps(3000, 4000, 5000), query(store, 3000, 5000, null, false));
+        assertEquals(timestamps(8000, 6000, 4000), query(store, 3000, 9000, BOB, true));
+        assertTrue(query(store, 0, Long.MAX_VALUE, "sip:carol@example.com", false).isEmpty());
+        assertTrue(query(store, 20000, 30000, null, false).isEmpty());
+    }
+
+    @Test
+    public void oldestSegmentsAreDeletedBeyondTheLimit() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+
+        int appended = 0;
+        while (countSegments() <= CallRecordStore.MAX_SEGMENTS && appended < 100000) {
+            store.append(newRecord(++appended, longUri(appended), appended));
+        }
+        store.append(newRecord(++appended, longUri(appended), appended));
+
+        assertEquals(CallRecordStore.MAX_SEGMENTS, countSegments());
+
+        int count = store.getRecordCount();
+        assertTrue(count > 0 && count < appended);
+
+        List<Long> stored = query(store, 0, Long.MAX_VALUE, null, false);
+        assertEquals(count, stored.size());
+        assertEquals(Long.valueOf(appended - count + 1), stored.get(0));
+        assertEquals(Long.valueOf(appended), stored.get(stored.size() - 1));
+
+        assertEquals(count, new CallRecordStore(mDirectory).getRecordCount());
+    }
+
+    @Test
+    public void segmentsWithoutTheRemoteUriAreSkipped() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+
+        int appended = 0;
+        while (countSegments() < 3) {
+            store.append(newRecord(++appended, longUri(appended % 50), appended));
+        }
+        store.append(newRecord(++appended, ALICE, appended));
+
+        CallRecordStore.Cursor cursor = store.query(0, Long.MAX_VALUE, ALICE, false);
+        assertTrue(cursor.moveToNext());
+        assertEquals(appended, cursor.getRecord().getEndTimestamp());
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void clearDeletesAllTheRecords() {
+        CallRecordStore store = new CallRecordStore(mDirectory);
+        store.append(newRecord(1000, ALICE, 1));
+        store.clear();
+
+        assertEquals(0, store.getRecordCount());
+        assertEquals(0, countSegments());
+
+        store.append(newRecord(2000, BOB, 2));
+        assertEquals(timestamps(2000), query(store, 0, Long.MAX_VALUE, null, false));
+    }
+
+    private static CallRecord newRecord(long endTimestamp, String remoteUri, int callID) {
+        CallRecord record = new CallRecord();
+        record.endTimestamp = endTimestamp;
+        record.connectTimestamp = endTimestamp - 500;
+        record.accountID = "sip:me@example.com";
+        record.remoteUri = remoteUri;
+        record.audioCodec = "opus/48000";
+        record.callID = callID;
+        record.duration = 1;
+        record.mos = 4.1f;
+        return record;
+    }
+
+    private static String longUri(int index) {
+        StringBuilder uri = new StringBuilder("sip:");
+        while (uri.length() < 400) {
+            uri.append("user");
+        }
+        return uri.append(index).append("@example.com").toString();
+    }
+
+    private static List<Long> query(CallRecordStore store, long from, long to, String remoteUri, boolean newestFirst) {
+        List<Long> timestamps = new ArrayList<>();
+        CallRecordStore.Cursor cursor = store.query(from, to, remoteUri, newestFirst);
+        try {
+            while (cursor.moveToNext()) {
+                CallRecord record = cursor.getRecord();
+                assertNotNull(record);
+                timestamps.add(record.getEndTimestamp());
+            }
+        } finally {
+            cursor.close();
+        }
+        return timestamps;
+    }
+
+    private static List<Long> timestamps(long... values) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long value : values) {
+            timestamps.add(value);
+        }
+        return timestamps;
+    }
+
+    private int countSegments() {
+        File[] files = mDirectory.listFiles();
+        return files == null ? 0 : files.length;
+    }
+}
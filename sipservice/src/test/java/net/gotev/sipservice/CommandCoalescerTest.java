@@ -0,0 +1,248 @@
+package net.gotev.sipservice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandCoalescerTest implements SipServiceConstants {
+
+    private static final String ACCOUNT = "sip:alice@example.com";
+
+    /**
+     * Keeps the jobs in a list instead of running them on the worker thread.
+     */
+    private static class RecordingService extends BackgroundService {
+        final List<Runnable> jobs = new ArrayList<>();
+
+        @Override
+        protected void enqueueJob(Runnable job, JobPriority priority) {
+            jobs.add(job);
+        }
+
+        @Override
+        protected void dequeueJob(Runnable job) {
+            jobs.remove(job);
+        }
+
+        void runAll() {
+            List<Runnable> pending = new ArrayList<>(jobs);
+            jobs.clear();
+            for (Runnable job : pending) {
+                job.run();
+            }
+        }
+    }
+
+    private static class CountingJob implements Runnable {
+        int runs;
+
+        @Override
+        public void run() {
+            runs++;
+        }
+    }
+
+    private RecordingService mService;
+    private CommandCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mService = new RecordingService();
+        mCoalescer = new CommandCoalescer(mService);
+    }
+
+    /**
+     * Enqueues a command in the lane in which the service would enqueue it.
+     */
+    private void enqueue(String action, String accountID, int callID, Runnable job) {
+        mCoalescer.enqueue(action, accountID, callID, job, SipService.getJobPriority(action));
+    }
+
+    @Test
+    public void otherActionsAreEnqueuedAsTheyAre() {
+        CountingJob job = new CountingJob();
+        mCoalescer.enqueue(ACTION_HANG_UP_CALL, ACCOUNT, 1, job, JobPriority.CALL_CONTROL);
+        mCoalescer.enqueue(ACTION_HANG_UP_CALL, ACCOUNT, 1, job, JobPriority.CALL_CONTROL);
+
+        assertFalse(CommandCoalescer.isCoalescable(ACTION_HANG_UP_CALL));
+        assertEquals(2, mService.jobs.size());
+        assertSame(job, mService.jobs.get(0));
+        assertEquals(0, mCoalescer.getCoalescedCommands());
+    }
+
+    @Test
+    public void statusQueryReplacesThePendingOne() {
+        CountingJob first = new CountingJob();
+        CountingJob second = new CountingJob();
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 1, first, JobPriority.CALL_CONTROL);
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 1, second, JobPriority.CALL_CONTROL);
+
+        assertEquals(1, mService.jobs.size());
+        mService.runAll();
+
+        assertEquals(0, first.runs);
+        assertEquals(1, second.runs);
+        assertEquals(1, mCoalescer.getCoalescedCommands());
+        assertEquals(Long.valueOf(1), mCoalescer.getCoalescedCommandsByAction().get(ACTION_GET_CALL_STATUS));
+    }
+
+    @Test
+    public void callCommandsAreGroupedByCall() {
+        CountingJob first = new CountingJob();
+        CountingJob second = new CountingJob();
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 1, first, JobPriority.CALL_CONTROL);
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 2, second, JobPriority.CALL_CONTROL);
+        mService.runAll();
+
+        assertEquals(1, first.runs);
+        assertEquals(1, second.runs);
+        assertEquals(0, mCoalescer.getCoalescedCommands());
+    }
+
+    @Test
+    public void registrationStatusIsGroupedByAccountOnly() {
+        CountingJob first = new CountingJob();
+        CountingJob second = new CountingJob();
+        CountingJob other = new CountingJob();
+        mCoalescer.enqueue(ACTION_GET_REGISTRATION_STATUS, ACCOUNT, 0, first, JobPriority.REGISTRATION);
+        mCoalescer.enqueue(ACTION_GET_REGISTRATION_STATUS, ACCOUNT, 5, second, JobPriority.REGISTRATION);
+        mCoalescer.enqueue(ACTION_GET_REGISTRATION_STATUS, "sip:bob@example.com", 0, other, JobPriority.REGISTRATION);
+        mService.runAll();
+
+        assertEquals(0, first.runs);
+        assertEquals(1, second.runs);
+        assertEquals(1, other.runs);
+    }
+
+    @Test
+    public void setCommandOverridesThePendingOne() {
+        CountingJob mute = new CountingJob();
+        CountingJob unmute = new CountingJob();
+        enqueue(ACTION_SET_MUTE, ACCOUNT, 1, mute);
+        enqueue(ACTION_SET_MUTE, ACCOUNT, 1, unmute);
+        mService.runAll();
+
+        assertEquals(0, mute.runs);
+        assertEquals(1, unmute.runs);
+        assertEquals(Long.valueOf(1), mCoalescer.getCoalescedCommandsByAction().get(ACTION_SET_MUTE));
+    }
+
+    @Test
+    public void setCommandOverridesThePendingToggle() {
+        CountingJob toggle = new CountingJob();
+        CountingJob set = new CountingJob();
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, toggle);
+        enqueue(ACTION_SET_MUTE, ACCOUNT, 1, set);
+        mService.runAll();
+
+        assertEquals(0, toggle.runs);
+        assertEquals(1, set.runs);
+    }
+
+    @Test
+    public void twoTogglesCancelEachOther() {
+        CountingJob first = new CountingJob();
+        CountingJob second = new CountingJob();
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, first);
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, second);
+
+        assertTrue(mService.jobs.isEmpty());
+        assertEquals(2, mCoalescer.getCoalescedCommands());
+
+        CountingJob third = new CountingJob();
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, third);
+        mService.runAll();
+
+        assertEquals(0, first.runs);
+        assertEquals(0, second.runs);
+        assertEquals(1, third.runs);
+    }
+
+    @Test
+    public void toggleAfterASetIsKept() {
+        CountingJob set = new CountingJob();
+        CountingJob toggle = new CountingJob();
+        enqueue(ACTION_SET_HOLD, ACCOUNT, 1, set);
+        enqueue(ACTION_TOGGLE_HOLD, ACCOUNT, 1, toggle);
+        mService.runAll();
+
+        assertEquals(1, set.runs);
+        assertEquals(1, toggle.runs);
+        assertEquals(0, mCoalescer.getCoalescedCommands());
+    }
+
+    @Test
+    public void cancelledJobAlreadyPickedUpIsSkipped() {
+        CountingJob first = new CountingJob();
+        CountingJob second = new CountingJob();
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 1, first, JobPriority.CALL_CONTROL);
+        Runnable pickedUp = mService.jobs.get(0);
+        mCoalescer.enqueue(ACTION_GET_CALL_STATUS, ACCOUNT, 1, second, JobPriority.CALL_CONTROL);
+
+        pickedUp.run();
+        mService.runAll();
+
+        assertEquals(0, first.runs);
+        assertEquals(1, second.runs);
+    }
+
+    @Test
+    public void togglesAroundAnAccountCommandAreKept() {
+        CountingJob first = new CountingJob();
+        CountingJob holdCalls = new CountingJob();
+        CountingJob second = new CountingJob();
+        enqueue(ACTION_TOGGLE_HOLD, ACCOUNT, 1, first);
+        enqueue(ACTION_HOLD_CALLS, ACCOUNT, -1, holdCalls);
+        enqueue(ACTION_TOGGLE_HOLD, ACCOUNT, 1, second);
+        mService.runAll();
+
+        assertEquals(1, first.runs);
+        assertEquals(1, holdCalls.runs);
+        assertEquals(1, second.runs);
+        assertEquals(0, mCoalescer.getCoalescedCommands());
+    }
+
+    @Test
+    public void togglesAroundACommandOnTheSameCallAreKept() {
+        CountingJob first = new CountingJob();
+        CountingJob dtmf = new CountingJob();
+        CountingJob second = new CountingJob();
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, first);
+        enqueue(ACTION_SEND_DTMF, ACCOUNT, 1, dtmf);
+        enqueue(ACTION_TOGGLE_MUTE, ACCOUNT, 1, second);
+        mService.runAll();
+
+        assertEquals(1, first.runs);
+        assertEquals(1, second.runs);
+        assertEquals(0, mCoalescer.getCoalescedCommands());
+    }
+
+    @Test
+    public void togglesAroundCommandsOnOtherCallsCancelEachOther() {
+        CountingJob first = new CountingJob();
+        CountingJob otherCall = new CountingJob();
+        CountingJob otherAccount = new CountingJob();
+        CountingJob registration = new CountingJob();
+        CountingJob second = new CountingJob();
+        enqueue(ACTION_TOGGLE_HOLD, ACCOUNT, 1, first);
+        enqueue(ACTION_HANG_UP_CALL, ACCOUNT, 2, otherCall);
+        enqueue(ACTION_HOLD_CALLS, "sip:bob@example.com", -1, otherAccount);
+        enqueue(ACTION_GET_REGISTRATION_STATUS, ACCOUNT, -1, registration);
+        enqueue(ACTION_TOGGLE_HOLD, ACCOUNT, 1, second);
+        mService.runAll();
+
+        assertEquals(0, first.runs);
+        assertEquals(0, second.runs);
+        assertEquals(1, otherCall.runs);
+        assertEquals(1, otherAccount.runs);
+        assertEquals(1, registration.runs);
+        assertEquals(2, mCoalescer.getCoalescedCommands());
+    }
+}
@@ -0,0 +1,113 @@
+package net.gotev.sipservice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityHistogramsTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void bucketBoundsAreContiguous() {
+        assertEquals(0, QualityHistograms.getBucketLowerBound(0));
+
+        for (int bucket = 0; bucket < QualityHistograms.BUCKETS - 1; bucket++) {
+            long lower = QualityHistograms.getBucketLowerBound(bucket);
+            long upper = QualityHistograms.getBucketUpperBound(bucket);
+
+            assertTrue("bucket " + bucket, lower <= upper);
+            assertEquals("bucket " + bucket, upper + 1, QualityHistograms.getBucketLowerBound(bucket + 1));
+        }
+
+        assertEquals(Long.MAX_VALUE, QualityHistograms.getBucketUpperBound(QualityHistograms.BUCKETS - 1));
+    }
+
+    @Test
+    public void bucketBoundsMapBackToTheirBucket() {
+        for (int bucket = 0; bucket < QualityHistograms.BUCKETS; bucket++) {
+            assertEquals(bucket, QualityHistograms.getBucket(QualityHistograms.getBucketLowerBound(bucket)));
+            assertEquals(bucket, QualityHistograms.getBucket(QualityHistograms.getBucketUpperBound(bucket)));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirValues() {
+        for (long value = 0; value < (1L << 25); value = value * 5 / 4 + 1) {
+            int bucket = QualityHistograms.getBucket(value);
+
+            assertTrue("value " + value, bucket >= 0 && bucket < QualityHistograms.BUCKETS);
+            assertTrue("value " + value, QualityHistograms.getBucketLowerBound(bucket) <= value);
+            assertTrue("value " + value, QualityHistograms.getBucketUpperBound(bucket) >= value);
+        }
+    }
+
+    @Test
+    public void bucketRelativeErrorIsBelowOneEighth() {
+        for (int bucket = 16; bucket < QualityHistograms.BUCKETS - 1; bucket++) {
+            long lower = QualityHistograms.getBucketLowerBound(bucket);
+            long width = QualityHistograms.getBucketUpperBound(bucket) - lower + 1;
+
+            assertTrue("bucket " + bucket, width * 8 <= lower);
+        }
+    }
+
+    @Test
+    public void saveAndLoadKeepTheCounters() throws Exception {
+        QualityHistograms histograms = new QualityHistograms();
+        histograms.record(QualityHistograms.METRIC_JITTER_USEC, "opus/48000", JitterBufferTuner.NetworkClass.WIFI, 1500);
+        histograms.record(QualityHistograms.METRIC_JITTER_USEC, "opus/48000", JitterBufferTuner.NetworkClass.LTE, 40000);
+        histograms.record(QualityHistograms.METRIC_MOS_X100, "PCMU/8000", JitterBufferTuner.NetworkClass.WIFI, 410);
+        histograms.record(QualityHistograms.METRIC_SETUP_MSEC, null, JitterBufferTuner.NetworkClass.NR, 850);
+
+        File file = new File(mFolder.getRoot(), "histograms");
+        histograms.save(file);
+
+        QualityHistograms loaded = QualityHistograms.load(file);
+
+        assertEquals(histograms.getStartTimestamp(), loaded.getStartTimestamp());
+        assertArrayEquals(new String[] {"opus/48000", "PCMU/8000"}, loaded.getCodecs());
+
+        for (int metric = 0; metric < QualityHistograms.METRICS; metric++) {
+            assertArrayEquals(histograms.getBuckets(metric, null, null), loaded.getBuckets(metric, null, null));
+        }
+
+        assertEquals(1, loaded.getCount(QualityHistograms.METRIC_JITTER_USEC, "opus/48000", "LTE"));
+        assertEquals(1, loaded.getCount(QualityHistograms.METRIC_SETUP_MSEC, QualityHistograms.OTHER_CODEC, null));
+    }
+
+    @Test
+    public void loadDiscardsADifferentLayout() throws Exception {
+        File file = new File(mFolder.getRoot(), "histograms");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x51484953);
+            out.writeByte(1);
+            out.writeInt(42);
+        } finally {
+            out.close();
+        }
+
+        QualityHistograms loaded = QualityHistograms.load(file);
+
+        assertEquals(0, loaded.getCodecs().length);
+        assertEquals(0, loaded.getCount(QualityHistograms.METRIC_JITTER_USEC, null, null));
+    }
+
+    @Test
+    public void loadOfAMissingFileIsEmpty() {
+        QualityHistograms loaded = QualityHistograms.load(new File(mFolder.getRoot(), "missing"));
+
+        assertEquals(0, loaded.getCodecs().length);
+        assertEquals(-1, loaded.getPercentile(QualityHistograms.METRIC_MOS_X100, null, null, 50));
+    }
+}
@@ -0,0 +1,59 @@
+package net.gotev.sipservice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RegistrationStatsTest {
+
+    private static final String ACCOUNT_ID = "sip:test@127.0.0.1";
+
+    @Test
+    public void firstRegistrationIsLeftOutOfTheChallengeRate() {
+        RegistrationStats stats = new RegistrationStats(ACCOUNT_ID);
+
+        // challenged, but there's no previous CSeq to compare with
+        register(stats, 200, 5001);
+        assertEquals(0, stats.getChallenges());
+        assertEquals(0f, stats.getChallengeRate(), 0f);
+
+        // challenged refresh: 5002 has been answered with 401 and resent as 5003
+        register(stats, 200, 5003);
+        // refresh not challenged
+        register(stats, 200, 5004);
+
+        RegistrationStats snapshot = stats.snapshot();
+        assertEquals(3, snapshot.getAttempts());
+        assertEquals(1, snapshot.getChallenges());
+        assertEquals(0.5f, snapshot.getChallengeRate(), 0f);
+    }
+
+    @Test
+    public void newCSeqSequenceIsNotCountedAsChallenges() {
+        RegistrationStats stats = new RegistrationStats(ACCOUNT_ID);
+
+        register(stats, 200, 100);
+        register(stats, 200, 40000);
+        register(stats, 200, 12);
+
+        assertEquals(0, stats.getChallenges());
+        assertEquals(0f, stats.getChallengeRate(), 0f);
+    }
+
+    @Test
+    public void failedChallengeIsCounted() {
+        RegistrationStats stats = new RegistrationStats(ACCOUNT_ID);
+
+        register(stats, 401, -1);
+
+        assertEquals(1, stats.getChallenges());
+        assertEquals(1f, stats.getChallengeRate(), 0f);
+        assertEquals(1, stats.getFailures(401));
+    }
+
+    private static void register(RegistrationStats stats, int code, long cseq) {
+        stats.onRegStarted(true);
+        stats.onRegState(code, cseq < 0 ? null
+                : "SIP/2.0 " + code + " OK\r\nCall-ID: test\r\nCSeq: " + cseq + " REGISTER\r\n\r\n");
+    }
+}